@@ -8,6 +8,7 @@
 package com.eventsourcing;
 
 import com.eventsourcing.events.CommandTerminatedExceptionally;
+import com.eventsourcing.events.DeduplicatedJavaExceptionOccurred;
 import com.eventsourcing.events.EventCausalityEstablished;
 import com.eventsourcing.events.JavaExceptionOccurred;
 import com.googlecode.cqengine.resultset.ResultSet;
@@ -72,14 +73,16 @@ public interface Command<S, R> extends Entity<Command<S, R>> {
                        and(all(CommandTerminatedExceptionally.class),
                            existsIn(
                                    repository.getIndexEngine().getIndexedCollection(EventCausalityEstablished.class),
-                                   CommandTerminatedExceptionally.ID, EventCausalityEstablished.EVENT)))) {
+                                   CommandTerminatedExceptionally.ID, EventCausalityEstablished.EVENT,
+                                   equal(EventCausalityEstablished.COMMAND, uuid()))))) {
             return resultSet.isNotEmpty();
         }
     }
 
     /**
      * Figure out the cause of command termination by searching for {@link JavaExceptionOccurred} events, associated
-     * with the commend.
+     * with the commend. {@link DeduplicatedJavaExceptionOccurred} events are returned as {@link JavaExceptionOccurred}
+     * with their stack traces resolved.
      * @param repository
      * @return an instance of {@link JavaExceptionOccurred} or <code>null</code> if none found
      */
@@ -89,11 +92,23 @@ public interface Command<S, R> extends Entity<Command<S, R>> {
                        and(all(JavaExceptionOccurred.class),
                            existsIn(
                                    repository.getIndexEngine().getIndexedCollection(EventCausalityEstablished.class),
-                                   JavaExceptionOccurred.ID, EventCausalityEstablished.EVENT)))) {
+                                   JavaExceptionOccurred.ID, EventCausalityEstablished.EVENT,
+                                   equal(EventCausalityEstablished.COMMAND, uuid()))))) {
+            if (resultSet.isNotEmpty()) {
+                return resultSet.uniqueResult().get();
+            }
+        }
+        try (ResultSet<EntityHandle<DeduplicatedJavaExceptionOccurred>> resultSet = repository
+                .query(DeduplicatedJavaExceptionOccurred.class,
+                       and(all(DeduplicatedJavaExceptionOccurred.class),
+                           existsIn(
+                                   repository.getIndexEngine().getIndexedCollection(EventCausalityEstablished.class),
+                                   DeduplicatedJavaExceptionOccurred.ID, EventCausalityEstablished.EVENT,
+                                   equal(EventCausalityEstablished.COMMAND, uuid()))))) {
             if (resultSet.isEmpty()) {
                 return null;
             }
-            return resultSet.uniqueResult().get();
+            return resultSet.uniqueResult().get().toJavaExceptionOccurred(repository);
         }
     }
 }
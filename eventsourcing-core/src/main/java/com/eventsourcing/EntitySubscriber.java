@@ -7,6 +7,7 @@
  */
 package com.eventsourcing;
 
+import java.util.Collection;
 import java.util.stream.Stream;
 
 /**
@@ -26,10 +27,22 @@ import java.util.stream.Stream;
  * By default, {@link EntitySubscriber#accept(Stream)} invokes {@link EntitySubscriber#onEntity(EntityHandle)}
  * for every entity handle.
  *
+ * To avoid being consulted for entities it is not interested in, a subscriber can declare
+ * classes of entities it subscribes to with {@link #entityClasses()}.
  *
  * @param <T>
  */
 public interface EntitySubscriber<T extends Entity> {
+    /**
+     * Declares classes of entities (including their subclasses) this subscriber is interested in.
+     * Repositories may use this to avoid invoking {@link #matches(Repository, Entity)} for
+     * entities of other classes. By default, returns <code>null</code> (all entities).
+     * @return entity classes or <code>null</code>
+     */
+    default Collection<Class<? extends Entity>> entityClasses() {
+        return null;
+    }
+
     /**
      * Defines a predicate for matching entities
      * @param entity
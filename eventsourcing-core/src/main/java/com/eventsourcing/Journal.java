@@ -8,10 +8,14 @@
 package com.eventsourcing;
 
 import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.utils.CloseableWrappingIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.util.concurrent.Service;
 import com.googlecode.cqengine.index.support.CloseableIterator;
 import lombok.SneakyThrows;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -70,6 +74,53 @@ public interface Journal extends Service {
      */
     <T extends Event> CloseableIterator<EntityHandle<T>> eventIterator(Class<T> klass);
 
+    /**
+     * Returns <code>true</code> if the journal keeps events of every type ordered by their timestamps,
+     * so that {@link #eventIterator(Class, HybridTimestamp, HybridTimestamp)} is a range scan
+     *
+     * @return <code>true</code> if timestamp range scans are supported
+     */
+    default boolean isTimestampOrderSupported() {
+        return false;
+    }
+
+    /**
+     * Iterate over events of a specific type (through {@code EntityHandler<T>}) with timestamps
+     * within a range (both bounds are inclusive). If timestamp order is supported
+     * (see {@link #isTimestampOrderSupported()}), events are returned in the order of their timestamps
+     * without scanning the rest of the journal. Otherwise, the default implementation filters
+     * {@link #eventIterator(Class)}.
+     *
+     * @param klass
+     * @param from lower bound, or <code>null</code> if unbounded
+     * @param to upper bound, or <code>null</code> if unbounded
+     * @param <T>
+     * @return iterator
+     */
+    default <T extends Event> CloseableIterator<EntityHandle<T>> eventIterator(Class<T> klass,
+                                                                                HybridTimestamp from,
+                                                                                HybridTimestamp to) {
+        CloseableIterator<EntityHandle<T>> iterator = eventIterator(klass);
+        Iterator<EntityHandle<T>> filtered = Iterators.filter(iterator, handle -> {
+            HybridTimestamp timestamp = handle.get().timestamp();
+            return timestamp != null && (from == null || timestamp.compareTo(from) >= 0) &&
+                    (to == null || timestamp.compareTo(to) <= 0);
+        });
+        return new CloseableIterator<EntityHandle<T>>() {
+            @Override public void close() {
+                iterator.close();
+            }
+
+            @Override public boolean hasNext() {
+                return filtered.hasNext();
+            }
+
+            @Override public EntityHandle<T> next() {
+                return filtered.next();
+            }
+        };
+    }
+
     /**
      * Removes everything from the journal.
      * <p>
@@ -78,7 +129,9 @@ public interface Journal extends Service {
     void clear();
 
     /**
-     * Returns the count of entities of specified type
+     * Returns the count of entities of specified type. Implementations are expected to maintain
+     * entity counters on commit rather than iterate over the journal, as this method is
+     * used for query planning.
      *
      * @param klass
      * @param <T>
@@ -113,12 +166,93 @@ public interface Journal extends Service {
      */
     Event journal(Transaction tx, Event event);
 
+    /**
+     * Returns <code>true</code> if the journal can record causality between events and commands
+     * in a compact form (see {@link #journal(Transaction, Event, UUID)})
+     *
+     * @return <code>true</code> if compact causality is supported
+     */
+    default boolean isCompactCausalitySupported() {
+        return false;
+    }
+
+    /**
+     * Record event caused by a command within a transaction. Instead of a separate
+     * {@link com.eventsourcing.events.EventCausalityEstablished} event, the causality is recorded
+     * alongside the event itself.
+     *
+     * @param tx
+     * @param event
+     * @param command command's UUID
+     * @return
+     * @throws UnsupportedOperationException if compact causality is not supported
+     */
+    default Event journal(Transaction tx, Event event, UUID command) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Finds the command that caused an event, if the causality was recorded in a compact form
+     *
+     * @param event event's UUID
+     * @return Empty {@link Optional} if there's no causality recorded in a compact form
+     */
+    default Optional<UUID> getCausingCommand(UUID event) {
+        return Optional.empty();
+    }
+
+    /**
+     * Iterates over events caused by a command, if the causality was recorded in a compact form
+     *
+     * @param command command's UUID
+     * @return iterator over event UUIDs
+     */
+    default CloseableIterator<UUID> getCausedEvents(UUID command) {
+        return new CloseableWrappingIterator<>(Collections.emptyIterator());
+    }
+
     /**
      * Starts a transaction
      * @return
      */
     Transaction beginTransaction();
 
+    /**
+     * Returns a cursor over all commands and events journalled after a given position, in the order
+     * they were committed. Every journalled entity is assigned a position at commit, positions
+     * are increasing (but not necessarily consecutive) and start from 1.
+     *
+     * @param position position of the last entity seen, or 0 to start from the beginning of the journal
+     * @param follow   if <code>true</code>, {@link Cursor#hasNext()} waits for new entities to be committed
+     *                 (until the cursor is closed) instead of returning <code>false</code>
+     * @return cursor
+     * @throws UnsupportedOperationException if the journal doesn't assign positions
+     */
+    default Cursor tail(long position, boolean follow) {
+        throw new UnsupportedOperationException(getClass().getName() + " doesn't support journal positions");
+    }
+
+    /**
+     * Returns a cursor over all commands and events journalled after a given position
+     *
+     * @param position position of the last entity seen, or 0 to start from the beginning of the journal
+     * @return cursor
+     * @see #tail(long, boolean)
+     */
+    default Cursor tail(long position) {
+        return tail(position, false);
+    }
+
+    /**
+     * Cursor over journalled entities, see {@link #tail(long, boolean)}
+     */
+    interface Cursor extends CloseableIterator<EntityHandle<Entity>> {
+        /**
+         * @return position of the entity last returned by {@link #next()} (or the initial position)
+         */
+        long getPosition();
+    }
+
     /**
      * An interface abstracting journal's transaction
      */
@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+
+import java.util.*;
+
+/**
+ * Base {@link Journal.Cursor} implementation that reads entities in batches
+ * <p>
+ * In the "follow" mode, the cursor waits on a monitor that the journal is expected to notify
+ * after every commit. Since commits might be done elsewhere (for example, by another process
+ * sharing the same database), waiting is limited to {@link #FOLLOW_INTERVAL} milliseconds.
+ */
+public abstract class JournalCursor implements Journal.Cursor {
+
+    public static final int BATCH_SIZE = 1024;
+    public static final long FOLLOW_INTERVAL = 100;
+
+    private final boolean follow;
+    private final Object monitor;
+
+    @Getter
+    private long position;
+    private Iterator<Map.Entry<Long, EntityHandle<Entity>>> batch = Collections.emptyIterator();
+    private volatile boolean closed;
+
+    /**
+     * @param position initial position
+     * @param follow   wait for new entities
+     * @param monitor  monitor notified by the journal after every commit
+     */
+    protected JournalCursor(long position, boolean follow, Object monitor) {
+        this.position = position;
+        this.follow = follow;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Fetches the next batch of entities
+     *
+     * @param position position of the last entity seen
+     * @param limit    maximum number of entities to fetch
+     * @return entities journalled after <code>position</code> by their positions, in the ascending order
+     */
+    protected abstract SortedMap<Long, EntityHandle<Entity>> fetch(long position, int limit);
+
+    @SneakyThrows
+    @Override public boolean hasNext() {
+        while (!batch.hasNext()) {
+            if (closed) {
+                return false;
+            }
+            SortedMap<Long, EntityHandle<Entity>> entities = fetch(position, BATCH_SIZE);
+            if (!entities.isEmpty()) {
+                batch = entities.entrySet().iterator();
+                break;
+            }
+            if (!follow) {
+                return false;
+            }
+            synchronized (monitor) {
+                monitor.wait(FOLLOW_INTERVAL);
+            }
+        }
+        return true;
+    }
+
+    @Override public EntityHandle<Entity> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<Long, EntityHandle<Entity>> entry = batch.next();
+        position = entry.getKey();
+        return entry.getValue();
+    }
+
+    @Override public void close() {
+        closed = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+/**
+ * Allows a {@link Command} to declare a partition key (for example, an aggregate UUID).
+ * <p>
+ * Repositories that support partitioning execute commands with the same partition key
+ * one after another, in the order they were published, while commands with different partition
+ * keys are executed concurrently. Since such commands never run concurrently with each other, locking
+ * the partition key itself through the {@link LockProvider} passed to {@link Command#events(Repository,
+ * LockProvider)} doesn't go to the lock provider.
+ * <p>
+ * <b>Please note</b> that for this to be safe, every command that locks on a partition key should
+ * also be partitioned by it.
+ */
+public interface Partitioned {
+    /**
+     * @return partition key or <code>null</code> if the command doesn't need to be partitioned
+     */
+    Object partitionKey();
+}
@@ -0,0 +1,23 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+
+import java.util.UUID;
+
+/**
+ * Generates random (version 4) UUIDs with {@link UUID#randomUUID()}, which uses a cryptographically
+ * strong random number generator, so the UUIDs are unpredictable.
+ */
+public class RandomUUIDGenerator implements UUIDGenerator {
+
+    @Override public UUID generate(HybridTimestamp timestamp) {
+        return UUID.randomUUID();
+    }
+}
@@ -16,6 +16,9 @@ import com.googlecode.cqengine.query.QueryFactory;
 import com.googlecode.cqengine.query.option.QueryOptions;
 import com.googlecode.cqengine.resultset.ResultSet;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
@@ -160,6 +163,58 @@ public interface Repository extends Service {
      */
     <T extends Command<S, C>, S, C> CompletableFuture<C> publish(T command);
 
+    /**
+     * Publishes a batch of commands asynchronously
+     * <p>
+     * Implementations may process the batch more efficiently than individually published
+     * commands (for example, by journalling it in one transaction), while still completing every
+     * command individually. By default, every command is {@link #publish(Command) published} on its own.
+     *
+     * @param commands commands
+     * @return {@link CompletableFuture}s with commands' results, in the order of <code>commands</code>
+     */
+    @SuppressWarnings("unchecked")
+    default List<CompletableFuture<?>> publishAll(Collection<? extends Command<?, ?>> commands) {
+        List<CompletableFuture<?>> futures = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            futures.add(publish(command));
+        }
+        return futures;
+    }
+
+    /**
+     * Waits until all commands timestamped at or before <code>token</code> are indexed.
+     * <p>
+     * Repositories that update indices in the background complete commands before their events
+     * become queryable. To read its own writes, a publisher can use the command's timestamp
+     * ({@link Command#timestamp()}, assigned by the time {@link #publish(Command)} returns) as a consistency
+     * token. By default (indices are updated before commands complete), it returns immediately.
+     *
+     * @param token consistency token
+     * @throws InterruptedException if interrupted while waiting
+     * @throws com.eventsourcing.index.IndexingException if any of these commands failed to be indexed
+     */
+    default void awaitIndexed(HybridTimestamp token) throws InterruptedException {
+    }
+
+    /**
+     * Queries an index once all commands timestamped at or before <code>token</code>
+     * are indexed (see {@link #awaitIndexed(HybridTimestamp)})
+     *
+     * @param klass
+     * @param query
+     * @param token consistency token
+     * @param <E>
+     * @return
+     * @throws InterruptedException if interrupted while waiting
+     * @throws com.eventsourcing.index.IndexingException if any of these commands failed to be indexed
+     */
+    default <E extends Entity> ResultSet<EntityHandle<E>> query(Class<E> klass, Query<EntityHandle<E>> query,
+                                                                HybridTimestamp token) throws InterruptedException {
+        awaitIndexed(token);
+        return query(klass, query);
+    }
+
     /**
      * Shortcut method for accessing index retrieval (see {@link #query(Class, Query, QueryOptions)} with
      * {@link QueryFactory#noQueryOptions()} specified as {@link QueryOptions}
@@ -10,7 +10,6 @@ package com.eventsourcing;
 import com.eventsourcing.hlc.HybridTimestamp;
 
 import java.util.UUID;
-import java.util.concurrent.LinkedBlockingDeque;
 
 /**
  * Standard {@link Entity} implementation. Will generate UUID if one is not provided.
@@ -18,17 +17,26 @@ import java.util.concurrent.LinkedBlockingDeque;
  */
 public abstract class StandardEntity<E extends Entity> implements Entity<E> {
 
-    private static LinkedBlockingDeque<UUID> uuids = new LinkedBlockingDeque<>(10_000);
+    private static volatile UUIDGenerator uuidGenerator = UUIDGenerator.RANDOM;
 
-    static {
-        new Thread(() -> {
-            while (true) {
-                try {
-                    uuids.put(UUID.randomUUID());
-                } catch (InterruptedException e) {
-                }
-            }
-        }).start();
+    /**
+     * Sets UUID generator used for entities that weren't assigned a UUID
+     * ({@link UUIDGenerator#RANDOM} by default).
+     * <p>
+     * {@link UUIDGenerator#TIME_ORDERED} generates UUIDs that are ordered by entity's timestamp,
+     * which keeps journal and index inserts localized.
+     *
+     * @param generator UUID generator
+     */
+    public static void setUUIDGenerator(UUIDGenerator generator) {
+        uuidGenerator = generator;
+    }
+
+    /**
+     * @return UUID generator used for entities that weren't assigned a UUID
+     */
+    public static UUIDGenerator getUUIDGenerator() {
+        return uuidGenerator;
     }
 
     private UUID uuid;
@@ -40,11 +48,8 @@ public abstract class StandardEntity<E extends Entity> implements Entity<E> {
      */
     @Override
     public UUID uuid() {
-        while (uuid == null) {
-            try {
-                uuid = uuids.take();
-            } catch (InterruptedException e) {
-            }
+        if (uuid == null) {
+            uuid = uuidGenerator.generate(timestamp);
         }
         return uuid;
     }
@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Command} that can produce more events than can be held in memory at once
+ * (for example, a command that uses a layout migration to rewrite all events of a class).
+ * <p>
+ * Repositories that support streaming execution journal such a command's events in chunks,
+ * with every chunk committed, indexed and dispatched to subscribers before the next one is
+ * consumed from the command's event stream, so the memory used by the command is bounded
+ * by the chunk size rather than by the number of its events.
+ * <p>
+ * <b>Please note</b> that such commands are not atomic: if a command fails after some of its
+ * chunks were committed, these chunks remain in the journal (and the command is recorded as
+ * terminated exceptionally).
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Streaming {
+}
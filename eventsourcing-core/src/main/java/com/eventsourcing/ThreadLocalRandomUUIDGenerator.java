@@ -0,0 +1,30 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates random (version 4) UUIDs using a thread-local random number generator.
+ * <p>
+ * Unlike {@link RandomUUIDGenerator}, it doesn't use a cryptographically strong generator,
+ * so the UUIDs are unique, but not unpredictable. In exchange, generating them doesn't contend
+ * on a shared {@link java.security.SecureRandom}.
+ */
+public class ThreadLocalRandomUUIDGenerator implements UUIDGenerator {
+
+    @Override public UUID generate(HybridTimestamp timestamp) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L; // version 4
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // IETF variant
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
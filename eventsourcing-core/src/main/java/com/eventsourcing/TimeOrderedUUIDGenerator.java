@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates time-ordered (version 7) UUIDs: 48 bits of Unix time in milliseconds followed by 12 bits
+ * of a millisecond fraction and 62 random bits (generated by a thread-local random number generator).
+ * <p>
+ * The time is taken from entity's {@link HybridTimestamp}, or from the system clock if the entity
+ * hasn't been timestamped yet. UUIDs of entities created around the same time are close to each other,
+ * which makes inserts into ordered structures (B-trees, primary key indices) append-friendly.
+ */
+public class TimeOrderedUUIDGenerator implements UUIDGenerator {
+
+    /**
+     * Seconds between NTP (1900) and Unix (1970) epochs
+     */
+    private static final long NTP_EPOCH_OFFSET = 2208988800L;
+
+    @Override public UUID generate(HybridTimestamp timestamp) {
+        long millis;
+        long fraction;
+        if (timestamp == null) {
+            millis = System.currentTimeMillis();
+            fraction = 0;
+        } else {
+            long ntp = timestamp.getLogicalTime();
+            long seconds = ntp >>> 32;
+            // 32-bit fraction of a second, rounded to 1/4096 of a millisecond
+            long units = ((ntp & 0xFFFFFFFFL) * 1000 * 4096 + 0x80000000L) >>> 32;
+            millis = (seconds - NTP_EPOCH_OFFSET) * 1000 + (units >>> 12);
+            fraction = units & 0xFFF;
+        }
+        long mostSigBits = ((millis & 0xFFFFFFFFFFFFL) << 16) | 0x7000L | fraction; // version 7
+        long random = ThreadLocalRandom.current().nextLong();
+        long leastSigBits = (random & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // IETF variant
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
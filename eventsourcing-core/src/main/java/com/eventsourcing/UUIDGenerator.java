@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+
+import java.util.UUID;
+
+/**
+ * Generates UUIDs for entities that were not assigned one (see {@link StandardEntity#setUUIDGenerator(UUIDGenerator)})
+ */
+public interface UUIDGenerator {
+
+    /**
+     * Random (version 4) UUIDs from a cryptographically strong generator
+     */
+    UUIDGenerator RANDOM = new RandomUUIDGenerator();
+
+    /**
+     * Random (version 4) UUIDs from a thread-local generator, cheaper than {@link #RANDOM},
+     * but predictable
+     */
+    UUIDGenerator THREAD_LOCAL_RANDOM = new ThreadLocalRandomUUIDGenerator();
+
+    /**
+     * Time-ordered (version 7) UUIDs, derived from entity's timestamp
+     */
+    UUIDGenerator TIME_ORDERED = new TimeOrderedUUIDGenerator();
+
+    /**
+     * @param timestamp entity's timestamp, <code>null</code> if it wasn't assigned yet
+     * @return new UUID
+     */
+    UUID generate(HybridTimestamp timestamp);
+}
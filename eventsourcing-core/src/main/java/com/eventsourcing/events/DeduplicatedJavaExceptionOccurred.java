@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.events;
+
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.Repository;
+import com.eventsourcing.StandardEntity;
+import com.eventsourcing.StandardEvent;
+import com.eventsourcing.index.SimpleIndex;
+import com.googlecode.cqengine.resultset.ResultSet;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static com.eventsourcing.index.EntityQueryFactory.equal;
+
+/**
+ * Same as {@link JavaExceptionOccurred}, but instead of the stack trace itself, it references
+ * a {@link JavaStackTraceRecorded} event, which is recorded once for every distinct stack trace.
+ * The reference is empty if the stack trace was not captured.
+ */
+public class DeduplicatedJavaExceptionOccurred extends StandardEvent {
+
+    @Getter
+    private final String className;
+    @Getter
+    private final String message;
+    @Getter
+    private final Optional<UUID> stacktrace;
+
+    public DeduplicatedJavaExceptionOccurred(String className, String message, Optional<UUID> stacktrace) {
+        this.className = className;
+        this.message = message;
+        this.stacktrace = stacktrace;
+    }
+
+    /**
+     * Resolves the stack trace reference
+     *
+     * @param repository
+     * @return an instance of {@link JavaExceptionOccurred} with the same UUID and timestamp (its stack trace is
+     * empty if it was not captured or can't be found)
+     */
+    public JavaExceptionOccurred toJavaExceptionOccurred(Repository repository) {
+        List<JavaExceptionOccurred.StackTraceElement> elements = Collections.emptyList();
+        if (stacktrace.isPresent()) {
+            try (ResultSet<EntityHandle<JavaStackTraceRecorded>> resultSet = repository
+                    .query(JavaStackTraceRecorded.class, equal(JavaStackTraceRecorded.ID, stacktrace.get()))) {
+                if (resultSet.isNotEmpty()) {
+                    elements = resultSet.iterator().next().get().getStacktrace();
+                }
+            }
+        }
+        JavaExceptionOccurred exceptionOccurred = new JavaExceptionOccurred(className, message, elements);
+        exceptionOccurred.uuid(uuid());
+        exceptionOccurred.timestamp(timestamp());
+        return exceptionOccurred;
+    }
+
+    public static SimpleIndex<DeduplicatedJavaExceptionOccurred, UUID> ID = StandardEntity::uuid;
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.events;
+
+import com.eventsourcing.StandardEntity;
+import com.eventsourcing.StandardEvent;
+import com.eventsourcing.index.SimpleIndex;
+import com.eventsourcing.layout.LayoutConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Stack trace referenced by {@link DeduplicatedJavaExceptionOccurred}. The UUID of this event is derived from
+ * the stack trace itself (see {@link #uuid(List)}), so every distinct stack trace needs to be recorded only once.
+ */
+public class JavaStackTraceRecorded extends StandardEvent {
+
+    @Getter
+    private final List<JavaExceptionOccurred.StackTraceElement> stacktrace;
+
+    @LayoutConstructor
+    public JavaStackTraceRecorded(List<JavaExceptionOccurred.StackTraceElement> stacktrace) {
+        this.stacktrace = stacktrace;
+        uuid(uuid(stacktrace));
+    }
+
+    public JavaStackTraceRecorded(java.lang.StackTraceElement[] stacktrace) {
+        this(Arrays.asList(stacktrace).stream().map(JavaExceptionOccurred.StackTraceElement::new)
+                   .collect(Collectors.toList()));
+    }
+
+    /**
+     * Derives a (name-based) UUID from the content of a stack trace
+     *
+     * @param stacktrace
+     * @return stack trace UUID
+     */
+    public static UUID uuid(List<JavaExceptionOccurred.StackTraceElement> stacktrace) {
+        StringBuilder builder = new StringBuilder();
+        for (JavaExceptionOccurred.StackTraceElement element : stacktrace) {
+            builder.append(element.getClassName()).append('.').append(element.getMethodName())
+                   .append('(').append(element.getFileName()).append(':').append(element.getLineNumber())
+                   .append(element.isNativeMethod() ? ":native" : "").append(")\n");
+        }
+        return UUID.nameUUIDFromBytes(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SimpleIndex<JavaStackTraceRecorded, UUID> ID = StandardEntity::uuid;
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.index;
+
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.Journal;
+import com.eventsourcing.ResolvedEntityHandle;
+import com.eventsourcing.events.EventCausalityEstablished;
+import com.google.common.collect.Iterators;
+import com.googlecode.cqengine.index.AttributeIndex;
+import com.googlecode.cqengine.index.Index;
+import com.googlecode.cqengine.index.support.AbstractAttributeIndex;
+import com.googlecode.cqengine.index.support.CloseableIterator;
+import com.googlecode.cqengine.persistence.support.ObjectSet;
+import com.googlecode.cqengine.persistence.support.ObjectStore;
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.option.QueryOptions;
+import com.googlecode.cqengine.query.simple.Equal;
+import com.googlecode.cqengine.resultset.ResultSet;
+
+import java.util.*;
+
+/**
+ * Virtual index on {@link EventCausalityEstablished#EVENT} or {@link EventCausalityEstablished#COMMAND}.
+ * <p>
+ * Causality journalled as {@link EventCausalityEstablished} events is indexed by the wrapped index,
+ * while causality recorded by the journal in a compact form (see
+ * {@link Journal#journal(Journal.Transaction, com.eventsourcing.Event, UUID)}) is looked up in the journal
+ * and returned as {@link EventCausalityEstablished} instances that are not journalled themselves
+ * (they have no timestamp and can't be retrieved by their UUIDs).
+ */
+public class CausalityIndex extends AbstractAttributeIndex<UUID, EntityHandle<EventCausalityEstablished>> {
+
+    private final Journal journal;
+    private final AttributeIndex<UUID, EntityHandle<EventCausalityEstablished>> index;
+    private final boolean byEvent;
+
+    @SuppressWarnings("unchecked")
+    public CausalityIndex(Journal journal, AttributeIndex<UUID, EntityHandle<EventCausalityEstablished>> index) {
+        super(index.getAttribute(), Collections.singleton(Equal.class));
+        this.journal = journal;
+        this.index = index;
+        if (index.getAttribute().equals(EventCausalityEstablished.EVENT.getAttribute())) {
+            byEvent = true;
+        } else if (index.getAttribute().equals(EventCausalityEstablished.COMMAND.getAttribute())) {
+            byEvent = false;
+        } else {
+            throw new IllegalArgumentException("Unsupported attribute " + index.getAttribute());
+        }
+    }
+
+    /**
+     * @param index
+     * @return <code>true</code> if the index can be wrapped into {@link CausalityIndex}
+     */
+    public static boolean isApplicable(Index<?> index) {
+        if (!(index instanceof AttributeIndex)) {
+            return false;
+        }
+        Object attribute = ((AttributeIndex) index).getAttribute();
+        return attribute.equals(EventCausalityEstablished.EVENT.getAttribute()) ||
+                attribute.equals(EventCausalityEstablished.COMMAND.getAttribute());
+    }
+
+    /**
+     * Derives a UUID for causality recorded in a compact form. Inverting the lower half of event's UUID
+     * changes its variant, so the result never collides with UUIDs generated for entities.
+     */
+    static UUID uuid(UUID event) {
+        return new UUID(event.getMostSignificantBits(), ~event.getLeastSignificantBits());
+    }
+
+    private List<EntityHandle<EventCausalityEstablished>> compact(UUID value) {
+        List<EntityHandle<EventCausalityEstablished>> result = new ArrayList<>();
+        if (byEvent) {
+            journal.getCausingCommand(value).ifPresent(command -> result.add(handle(value, command)));
+        } else {
+            try (CloseableIterator<UUID> iterator = journal.getCausedEvents(value)) {
+                while (iterator.hasNext()) {
+                    result.add(handle(iterator.next(), value));
+                }
+            }
+        }
+        return result;
+    }
+
+    private EntityHandle<EventCausalityEstablished> handle(UUID event, UUID command) {
+        EventCausalityEstablished causality = EventCausalityEstablished.builder().event(event).command(command)
+                                                                       .build();
+        causality.uuid(uuid(event));
+        return new ResolvedEntityHandle<>(causality);
+    }
+
+    @Override
+    public ResultSet<EntityHandle<EventCausalityEstablished>> retrieve(
+            Query<EntityHandle<EventCausalityEstablished>> query, QueryOptions queryOptions) {
+        ResultSet<EntityHandle<EventCausalityEstablished>> journalled = index.retrieve(query, queryOptions);
+        @SuppressWarnings("unchecked")
+        List<EntityHandle<EventCausalityEstablished>> compact =
+                compact(((Equal<EntityHandle<EventCausalityEstablished>, UUID>) query).getValue());
+        if (compact.isEmpty()) {
+            return journalled;
+        }
+        return new ResultSet<EntityHandle<EventCausalityEstablished>>() {
+            @Override public Iterator<EntityHandle<EventCausalityEstablished>> iterator() {
+                return Iterators.concat(journalled.iterator(), compact.iterator());
+            }
+
+            @Override public boolean contains(EntityHandle<EventCausalityEstablished> object) {
+                return journalled.contains(object) ||
+                        compact.stream().anyMatch(handle -> handle.uuid().equals(object.uuid()));
+            }
+
+            @Override public boolean matches(EntityHandle<EventCausalityEstablished> object) {
+                return query.matches(object, queryOptions);
+            }
+
+            @Override public Query<EntityHandle<EventCausalityEstablished>> getQuery() {
+                return query;
+            }
+
+            @Override public QueryOptions getQueryOptions() {
+                return queryOptions;
+            }
+
+            @Override public int getRetrievalCost() {
+                return journalled.getRetrievalCost();
+            }
+
+            @Override public int getMergeCost() {
+                return journalled.getMergeCost() + compact.size();
+            }
+
+            @Override public int size() {
+                return journalled.size() + compact.size();
+            }
+
+            @Override public void close() {
+                journalled.close();
+            }
+        };
+    }
+
+    @Override public boolean isMutable() {
+        return index.isMutable();
+    }
+
+    @Override public boolean isQuantized() {
+        return index.isQuantized();
+    }
+
+    @Override public Index<EntityHandle<EventCausalityEstablished>> getEffectiveIndex() {
+        return this;
+    }
+
+    @Override public boolean addAll(ObjectSet<EntityHandle<EventCausalityEstablished>> objects,
+                                    QueryOptions queryOptions) {
+        return index.addAll(objects, queryOptions);
+    }
+
+    @Override public boolean removeAll(ObjectSet<EntityHandle<EventCausalityEstablished>> objects,
+                                       QueryOptions queryOptions) {
+        return index.removeAll(objects, queryOptions);
+    }
+
+    @Override public void clear(QueryOptions queryOptions) {
+        index.clear(queryOptions);
+    }
+
+    @Override public void init(ObjectStore<EntityHandle<EventCausalityEstablished>> objectStore,
+                               QueryOptions queryOptions) {
+        index.init(objectStore, queryOptions);
+    }
+}
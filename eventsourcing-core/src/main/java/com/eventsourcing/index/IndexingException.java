@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.index;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+import lombok.Getter;
+
+/**
+ * Signals that entities of a journalled command couldn't be added to indices, so queries
+ * may not reflect the command (see {@link com.eventsourcing.Repository#awaitIndexed(HybridTimestamp)})
+ */
+public class IndexingException extends RuntimeException {
+    /**
+     * Timestamp of the command that failed to be indexed
+     */
+    @Getter
+    private final HybridTimestamp timestamp;
+
+    public IndexingException(HybridTimestamp timestamp, Throwable cause) {
+        super("Failed to index command timestamped " + timestamp, cause);
+        this.timestamp = timestamp;
+    }
+}
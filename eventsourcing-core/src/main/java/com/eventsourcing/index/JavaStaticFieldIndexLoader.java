@@ -113,6 +113,10 @@ public class JavaStaticFieldIndexLoader implements IndexLoader {
         @Override public Object getValue(Entity object, QueryOptions queryOptions) {
             return ((SimpleIndex) index).getValue(object, queryOptions);
         }
+
+        EntityIndex getIndex() {
+            return index;
+        }
     }
 
     class MultiValueEntityAttribute extends MultiValueAttribute<Entity, Object> {
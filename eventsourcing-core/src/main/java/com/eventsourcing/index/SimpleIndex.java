@@ -8,6 +8,7 @@
 package com.eventsourcing.index;
 
 import com.eventsourcing.Entity;
+import com.eventsourcing.hlc.HybridTimestamp;
 import com.googlecode.cqengine.query.option.QueryOptions;
 
 import java.util.Collections;
@@ -34,6 +35,15 @@ import java.util.function.BiFunction;
  * </code>
  * </pre>
  *
+ * Event timestamps can be indexed with {@link SimpleIndex#timestamp()}:
+ *
+ * <pre>
+ * <code>
+ * &#64;Index({EQ, LT, GT})
+ * public static SimpleIndex&lt;TestEvent, HybridTimestamp&gt; TIMESTAMP = SimpleIndex.timestamp();
+ * </code>
+ * </pre>
+ *
  * @param <O> entity type
  * @param <A> attribute type
  */
@@ -64,6 +74,18 @@ public interface SimpleIndex<O extends Entity, A> extends EntityIndex<O, A> {
         };
     }
 
+    /**
+     * Creates a SimpleIndex over entity's timestamp. On events, if the journal keeps them ordered by
+     * timestamps, such an index is served by the journal (see {@link TimestampIndex}) and doesn't
+     * have to be maintained by the index engine.
+     *
+     * @param <O>
+     * @return
+     */
+    static <O extends Entity> SimpleIndex<O, HybridTimestamp> timestamp() {
+        return new TimestampIndex.EntityTimestamp<>();
+    }
+
     default Iterable<A> getValues(O object, QueryOptions queryOptions) {
         return Collections.singletonList(getValue(object, queryOptions));
     }
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.index;
+
+import com.eventsourcing.Entity;
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.Event;
+import com.eventsourcing.Journal;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.googlecode.cqengine.index.AttributeIndex;
+import com.googlecode.cqengine.index.Index;
+import com.googlecode.cqengine.index.support.AbstractAttributeIndex;
+import com.googlecode.cqengine.index.support.CloseableIterator;
+import com.googlecode.cqengine.persistence.support.ObjectSet;
+import com.googlecode.cqengine.persistence.support.ObjectStore;
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.option.QueryOptions;
+import com.googlecode.cqengine.query.simple.Between;
+import com.googlecode.cqengine.query.simple.Equal;
+import com.googlecode.cqengine.query.simple.GreaterThan;
+import com.googlecode.cqengine.query.simple.LessThan;
+import com.googlecode.cqengine.resultset.ResultSet;
+
+import java.util.*;
+
+/**
+ * Virtual index on event's timestamp, declared with {@link SimpleIndex#timestamp()}.
+ * <p>
+ * If the journal keeps events ordered by their timestamps (see {@link Journal#isTimestampOrderSupported()}),
+ * {@link Equal}, {@link LessThan}, {@link GreaterThan} and {@link Between} queries are answered
+ * with {@link Journal#eventIterator(Class, HybridTimestamp, HybridTimestamp)} range scans, so nothing
+ * is written to the index when events are journalled. Since it is not a sorted index, it can't be used
+ * for index ordering; a navigable index over {@link com.eventsourcing.StandardEntity#timestamp()}
+ * should be declared instead if that is required.
+ */
+public class TimestampIndex<T extends Event> extends AbstractAttributeIndex<HybridTimestamp, EntityHandle<T>> {
+
+    /**
+     * Retrieval cost of a range scan, the same as of a navigable index
+     */
+    static final int INDEX_RETRIEVAL_COST = 40;
+
+    private final Journal journal;
+    private final Class<T> klass;
+
+    public TimestampIndex(Journal journal, Attribute<T, HybridTimestamp> attribute) {
+        super(attribute, new HashSet<Class<? extends Query>>(Arrays.asList(Equal.class, LessThan.class,
+                                                                            GreaterThan.class, Between.class)));
+        this.journal = journal;
+        this.klass = attribute.getEffectiveObjectType();
+    }
+
+    /**
+     * @param index
+     * @return <code>true</code> if the index is declared with {@link SimpleIndex#timestamp()} on an event
+     */
+    public static boolean isApplicable(Index<?> index) {
+        if (!(index instanceof AttributeIndex)) {
+            return false;
+        }
+        Object attribute = ((AttributeIndex) index).getAttribute();
+        return attribute instanceof JavaStaticFieldIndexLoader.EntitySimpleAttribute &&
+                ((JavaStaticFieldIndexLoader.EntitySimpleAttribute) attribute).getIndex() instanceof EntityTimestamp &&
+                Event.class.isAssignableFrom(((Attribute) attribute).getEffectiveObjectType());
+    }
+
+    /**
+     * {@link SimpleIndex} over entity's timestamp, see {@link SimpleIndex#timestamp()}
+     */
+    static class EntityTimestamp<O extends Entity> implements SimpleIndex<O, HybridTimestamp> {
+        @Override public HybridTimestamp getValue(O object) {
+            return object.timestamp();
+        }
+    }
+
+    /**
+     * Exclusive bounds are turned into inclusive ones by taking the next (or the previous) timestamp
+     * in the order of {@link HybridTimestamp#compareTo(HybridTimestamp)}
+     *
+     * @return <code>null</code> if there's no such timestamp
+     */
+    static HybridTimestamp next(HybridTimestamp timestamp) {
+        if (timestamp.getLogicalCounter() != Long.MAX_VALUE) {
+            return new HybridTimestamp(timestamp.getLogicalTime(), timestamp.getLogicalCounter() + 1);
+        }
+        if (timestamp.getLogicalTime() == -1) {
+            return null;
+        }
+        return new HybridTimestamp(timestamp.getLogicalTime() + 1, Long.MIN_VALUE);
+    }
+
+    static HybridTimestamp previous(HybridTimestamp timestamp) {
+        if (timestamp.getLogicalCounter() != Long.MIN_VALUE) {
+            return new HybridTimestamp(timestamp.getLogicalTime(), timestamp.getLogicalCounter() - 1);
+        }
+        if (timestamp.getLogicalTime() == 0) {
+            return null;
+        }
+        return new HybridTimestamp(timestamp.getLogicalTime() - 1, Long.MAX_VALUE);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public ResultSet<EntityHandle<T>> retrieve(Query<EntityHandle<T>> query, QueryOptions queryOptions) {
+        HybridTimestamp from = null;
+        HybridTimestamp to = null;
+        boolean empty = false;
+        if (query instanceof Equal) {
+            from = to = ((Equal<EntityHandle<T>, HybridTimestamp>) query).getValue();
+        } else if (query instanceof GreaterThan) {
+            GreaterThan<EntityHandle<T>, HybridTimestamp> greaterThan =
+                    (GreaterThan<EntityHandle<T>, HybridTimestamp>) query;
+            from = greaterThan.isValueInclusive() ? greaterThan.getValue() : next(greaterThan.getValue());
+            empty = from == null;
+        } else if (query instanceof LessThan) {
+            LessThan<EntityHandle<T>, HybridTimestamp> lessThan = (LessThan<EntityHandle<T>, HybridTimestamp>) query;
+            to = lessThan.isValueInclusive() ? lessThan.getValue() : previous(lessThan.getValue());
+            empty = to == null;
+        } else if (query instanceof Between) {
+            Between<EntityHandle<T>, HybridTimestamp> between = (Between<EntityHandle<T>, HybridTimestamp>) query;
+            from = between.isLowerInclusive() ? between.getLowerValue() : next(between.getLowerValue());
+            to = between.isUpperInclusive() ? between.getUpperValue() : previous(between.getUpperValue());
+            empty = from == null || to == null;
+        } else {
+            throw new IllegalArgumentException("Unsupported query: " + query);
+        }
+        return resultSet(query, queryOptions, from, to, empty);
+    }
+
+    private ResultSet<EntityHandle<T>> resultSet(Query<EntityHandle<T>> query, QueryOptions queryOptions,
+                                                 HybridTimestamp from, HybridTimestamp to, boolean empty) {
+        List<CloseableIterator<EntityHandle<T>>> iterators = new ArrayList<>();
+        return new ResultSet<EntityHandle<T>>() {
+            @Override public Iterator<EntityHandle<T>> iterator() {
+                if (empty) {
+                    return Collections.emptyIterator();
+                }
+                CloseableIterator<EntityHandle<T>> iterator = journal.eventIterator(klass, from, to);
+                iterators.add(iterator);
+                return iterator;
+            }
+
+            @Override public boolean contains(EntityHandle<T> object) {
+                return !empty && query.matches(object, queryOptions);
+            }
+
+            @Override public boolean matches(EntityHandle<T> object) {
+                return query.matches(object, queryOptions);
+            }
+
+            @Override public Query<EntityHandle<T>> getQuery() {
+                return query;
+            }
+
+            @Override public QueryOptions getQueryOptions() {
+                return queryOptions;
+            }
+
+            @Override public int getRetrievalCost() {
+                return INDEX_RETRIEVAL_COST;
+            }
+
+            @Override public int getMergeCost() {
+                return size();
+            }
+
+            @Override public int size() {
+                if (empty) {
+                    return 0;
+                }
+                int size = 0;
+                try (CloseableIterator<EntityHandle<T>> iterator = journal.eventIterator(klass, from, to)) {
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                        size++;
+                    }
+                }
+                return size;
+            }
+
+            @Override public void close() {
+                iterators.forEach(CloseableIterator::close);
+            }
+        };
+    }
+
+    @Override public boolean isMutable() {
+        return true;
+    }
+
+    @Override public boolean isQuantized() {
+        return false;
+    }
+
+    @Override public Index<EntityHandle<T>> getEffectiveIndex() {
+        return this;
+    }
+
+    @Override public boolean addAll(ObjectSet<EntityHandle<T>> objects, QueryOptions queryOptions) {
+        return false;
+    }
+
+    @Override public boolean removeAll(ObjectSet<EntityHandle<T>> objects, QueryOptions queryOptions) {
+        return false;
+    }
+
+    @Override public void clear(QueryOptions queryOptions) {
+    }
+
+    @Override public void init(ObjectStore<EntityHandle<T>> objectStore, QueryOptions queryOptions) {
+    }
+}
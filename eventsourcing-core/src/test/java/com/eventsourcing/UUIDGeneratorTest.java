@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+import org.apache.commons.net.ntp.TimeStamp;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class UUIDGeneratorTest {
+
+    @Test
+    public void random() {
+        assertRandom(UUIDGenerator.RANDOM);
+    }
+
+    @Test
+    public void threadLocalRandom() {
+        assertRandom(UUIDGenerator.THREAD_LOCAL_RANDOM);
+    }
+
+    private void assertRandom(UUIDGenerator generator) {
+        Set<UUID> uuids = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            UUID uuid = generator.generate(null);
+            assertEquals(uuid.version(), 4);
+            assertEquals(uuid.variant(), 2);
+            uuids.add(uuid);
+        }
+        assertEquals(uuids.size(), 10000);
+    }
+
+    @Test
+    public void timeOrdered() {
+        Set<UUID> uuids = new HashSet<>();
+        long millis = System.currentTimeMillis();
+        UUID previous = null;
+        for (int i = 0; i < 10000; i++) {
+            HybridTimestamp timestamp = new HybridTimestamp(TimeStamp.getNtpTime(millis + i / 10).ntpValue(), i);
+            UUID uuid = UUIDGenerator.TIME_ORDERED.generate(timestamp);
+            assertEquals(uuid.version(), 7);
+            assertEquals(uuid.variant(), 2);
+            assertEquals(uuid.getMostSignificantBits() >>> 16, millis + i / 10);
+            if (previous != null) {
+                assertTrue(previous.getMostSignificantBits() <= uuid.getMostSignificantBits());
+            }
+            previous = uuid;
+            uuids.add(uuid);
+        }
+        assertEquals(uuids.size(), 10000);
+    }
+
+    @Test
+    public void timeOrderedWithoutTimestamp() {
+        long before = System.currentTimeMillis();
+        UUID uuid = UUIDGenerator.TIME_ORDERED.generate(null);
+        long after = System.currentTimeMillis();
+        assertEquals(uuid.version(), 7);
+        long millis = uuid.getMostSignificantBits() >>> 16;
+        assertTrue(millis >= before && millis <= after);
+    }
+
+    @Test
+    public void standardEntity() {
+        UUIDGenerator generator = StandardEntity.getUUIDGenerator();
+        try {
+            StandardEntity.setUUIDGenerator(UUIDGenerator.TIME_ORDERED);
+            assertEquals(new StandardEntity() {}.uuid().version(), 7);
+        } finally {
+            StandardEntity.setUUIDGenerator(generator);
+        }
+    }
+}
@@ -8,10 +8,13 @@
 package com.eventsourcing.h2;
 
 import com.eventsourcing.*;
+import com.eventsourcing.hlc.HybridTimestamp;
 import com.eventsourcing.layout.Layout;
 import com.eventsourcing.layout.ObjectSerializer;
 import com.eventsourcing.layout.Serialization;
 import com.eventsourcing.layout.binary.BinarySerialization;
+import com.eventsourcing.utils.CloseableWrappingIterator;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.io.BaseEncoding;
 import com.google.common.primitives.Bytes;
@@ -34,10 +37,25 @@ import org.osgi.service.component.annotations.Deactivate;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
-import java.util.function.Consumer;
 import java.util.function.Function;
 
+/**
+ * MVStore-based {@link Journal} implementation.
+ * <p>
+ * Every layout is assigned a small numeric ID, recorded in the <code>layoutIds</code> map
+ * (layout hash to ID). Entities of every layout are stored in a separate <code>layout_&lt;id&gt;</code>
+ * map (UUID to serialized payload), so iterating over entities of one type is a sequential scan of
+ * that map that doesn't need to look anything up. <code>entityLayouts</code> maps entity UUIDs to their
+ * layout IDs to support {@link #get(UUID)}. UUID keys are stored as 16 bytes (see {@link UUIDDataType}).
+ * <code>sequence</code> maps journal positions to entity UUIDs to support {@link #tail(long, boolean)}.
+ * Events of every layout are also ordered by their timestamps in a <code>timestamps_&lt;id&gt;</code> map
+ * (see {@link TimestampDataType}) to support {@link #eventIterator(Class, HybridTimestamp, HybridTimestamp)};
+ * layouts with events ordered this way are recorded in the <code>orderedLayouts</code> map.
+ * <p>
+ * The format version is kept in the <code>info</code> map, older journals are upgraded when opened.
+ */
 @Component(
         service = Journal.class,
         property = {"filename=journal.db", "type=MVStoreJournal", "jmx.objectname=com.eventsourcing:type=journal,name=MVStoreJournal"})
@@ -46,20 +64,30 @@ public class MVStoreJournal extends AbstractService implements Journal {
     @Getter @Setter
     private Repository repository;
 
-    private final EntityLayoutExtractor entityLayoutExtractor = new EntityLayoutExtractor();
-
     @Getter(AccessLevel.PACKAGE) @Setter(AccessLevel.PACKAGE) // getter and setter for tests
     private MVStore store;
-    private TransactionMap<UUID, ByteBuffer> commandPayloads;
-    private TransactionMap<UUID, byte[]> commandHashes;
-    private TransactionMap<byte[], Boolean> hashCommands;
-    private TransactionMap<UUID, ByteBuffer> eventPayloads;
-    private TransactionMap<byte[], Boolean> hashEvents;
-    private TransactionMap<UUID, byte[]> eventHashes;
+    private MVMap<byte[], Integer> layoutIds;
+    private MVMap<Integer, Boolean> orderedLayouts;
+    private TransactionMap<UUID, Integer> entityLayouts;
+    private final Map<Integer, TransactionMap<UUID, ByteBuffer>> payloads = new ConcurrentHashMap<>();
+    private final Map<Integer, TransactionMap<TimestampDataType.Key, Boolean>> timestamps = new ConcurrentHashMap<>();
+    private TransactionMap<UUID, UUID> eventCommands;
+    private TransactionMap<byte[], Boolean> commandEvents;
+    private TransactionMap<Integer, Long> layoutSizes;
+    private TransactionMap<Long, UUID> sequence;
+
+    private final Map<Class<?>, Integer> layoutIdsByClass = new ConcurrentHashMap<>();
+    private final Map<Integer, Layout<?>> layoutsById = new ConcurrentHashMap<>();
 
     private TransactionStore transactionStore;
     TransactionStore.Transaction readTx;
 
+    /**
+     * Serializes updates of {@link #layoutSizes} and {@link #sequence} (see {@link Transaction#commit()}),
+     * notified after every such commit
+     */
+    private final Object commitLock = new Object();
+
     public MVStoreJournal(MVStore store) {
         this();
         this.store = store;
@@ -98,34 +126,120 @@ public class MVStoreJournal extends AbstractService implements Journal {
 
     @Override
     public void onCommandsAdded(Set<Class<? extends Command>> commands) {
-        commands.forEach(entityLayoutExtractor);
+        commands.forEach(this::layoutId);
     }
 
     @Override
     public void onEventsAdded(Set<Class<? extends Event>> events) {
-        events.forEach(entityLayoutExtractor);
+        events.forEach(this::layoutId);
     }
 
 
+    static final int VERSION = 4;
+    static final String LAYOUT_MAP_PREFIX = "layout_";
+    static final String TIMESTAMP_MAP_PREFIX = "timestamps_";
+
     void initializeStore() {
         MVMap<String, Object> info = store.openMap("info");
-        info.putIfAbsent("version", 1);
+        Integer version = (Integer) info.putIfAbsent("version", VERSION);
         store.commit();
 
+        layoutIds = store.openMap("layoutIds");
+        orderedLayouts = store.openMap("orderedLayouts");
+
         transactionStore = new TransactionStore(this.store);
         transactionStore.init();
 
+        if (version != null && version < VERSION) {
+            if (version < 3) {
+                upgrade(version);
+            } else {
+                sequence();
+            }
+            info.put("version", VERSION);
+            store.commit();
+        }
+
         initReadTx();
     }
 
+    /**
+     * Upgrades version 1 (payloads in shared <code>commandPayloads</code> and <code>eventPayloads</code>
+     * maps) or version 2 (payloads in <code>layout_&lt;hash&gt;</code> maps) journal. In both, UUIDs
+     * are mapped to layout hashes by <code>commandHashes</code> and <code>eventHashes</code>. Payloads
+     * are moved to maps with numeric layout IDs, entities of every layout are (re)counted
+     * and assigned journal positions (in the order of their UUIDs, as the order of commits is not known),
+     * and all obsolete maps are removed.
+     */
+    private void upgrade(int version) {
+        Set<String> obsolete = new HashSet<>(Arrays.asList("commandPayloads", "hashCommands", "commandHashes",
+                                                           "eventPayloads", "hashEvents", "eventHashes"));
+        if (store.hasMap("layoutSizes")) {
+            // keyed by layout hashes, entities will be recounted
+            store.removeMap(store.openMap("layoutSizes"));
+        }
+        Transaction tx = new Transaction(transactionStore.begin(), commitLock);
+        upgrade(version, tx, "commandPayloads", "commandHashes", obsolete);
+        upgrade(version, tx, "eventPayloads", "eventHashes", obsolete);
+        tx.commit();
+        for (String name : obsolete) {
+            if (store.hasMap(name)) {
+                store.removeMap(store.openMap(name));
+            }
+        }
+    }
+
+    private void upgrade(int version, Transaction tx, String payloadsName, String hashesName, Set<String> obsolete) {
+        Map<String, TransactionMap<UUID, ByteBuffer>> sources = new HashMap<>();
+        TransactionMap<UUID, byte[]> txHashes = tx.getTx().openMap(hashesName);
+        Iterator<Map.Entry<UUID, byte[]>> iterator = txHashes.entryIterator(null);
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, byte[]> entry = iterator.next();
+            String name = version == 1 ? payloadsName :
+                    LAYOUT_MAP_PREFIX + BaseEncoding.base16().encode(entry.getValue());
+            obsolete.add(name);
+            ByteBuffer payload = sources.computeIfAbsent(name, n -> tx.getTx().openMap(n, new ObjectDataType(),
+                                                                                      new ByteBufferDataType()))
+                                        .get(entry.getKey());
+            int id = layoutId(entry.getValue());
+            tx.payloads(id).put(entry.getKey(), payload);
+            tx.txEntityLayouts.put(entry.getKey(), id);
+            tx.increment(id);
+            tx.append(entry.getKey());
+        }
+    }
+
+    /**
+     * Assigns journal positions to entities of a version 3 journal, in the order of their UUIDs
+     */
+    private void sequence() {
+        Transaction tx = new Transaction(transactionStore.begin(), commitLock);
+        Iterator<UUID> iterator = tx.txEntityLayouts.keyIterator(null);
+        while (iterator.hasNext()) {
+            tx.append(iterator.next());
+        }
+        tx.commit();
+    }
+
     private void initReadTx() {
         readTx = transactionStore.begin();
-        commandPayloads = readTx.openMap("commandPayloads", new ObjectDataType(), new ByteBufferDataType());
-        commandHashes = readTx.openMap("commandHashes");
-        hashCommands = readTx.openMap("hashCommands");
-        eventPayloads = readTx.openMap("eventPayloads", new ObjectDataType(), new ByteBufferDataType());
-        eventHashes = readTx.openMap("eventHashes");
-        hashEvents = readTx.openMap("hashEvents");
+        entityLayouts = readTx.openMap("entityLayouts", new UUIDDataType(), new ObjectDataType());
+        eventCommands = readTx.openMap("eventCommands");
+        commandEvents = readTx.openMap("commandEvents");
+        layoutSizes = readTx.openMap("layoutSizes");
+        sequence = readTx.openMap("sequence", new ObjectDataType(), new UUIDDataType());
+        payloads.clear();
+        timestamps.clear();
+    }
+
+    private TransactionMap<UUID, ByteBuffer> payloads(int id) {
+        return payloads.computeIfAbsent(id, i -> readTx.openMap(LAYOUT_MAP_PREFIX + i, new UUIDDataType(),
+                                                                new ByteBufferDataType()));
+    }
+
+    private TransactionMap<TimestampDataType.Key, Boolean> timestamps(int id) {
+        return timestamps.computeIfAbsent(id, i -> readTx.openMap(TIMESTAMP_MAP_PREFIX + i, new TimestampDataType(),
+                                                                  new ObjectDataType()));
     }
 
     @Override
@@ -135,41 +249,120 @@ public class MVStoreJournal extends AbstractService implements Journal {
         notifyStopped();
     }
 
-    private Map<String, Layout> layoutsByHash = new HashMap<>();
-    private Map<String, Layout> layoutsByClass = new HashMap<>();
-    
-    private Layout getLayout(Class<? extends Entity> klass) {
-        Layout layout = layoutsByClass.computeIfAbsent(klass.getName(), new LayoutFunction<>(klass));
-        if (getLayout(layout.getHash()) == null) {
-            String encoded = BaseEncoding.base16().encode(layout.getHash());
-            layoutsByHash.put(encoded, layout);
+    /**
+     * Returns layout's ID, registering the layout if necessary
+     */
+    @SneakyThrows
+    private int layoutId(Class<?> klass) {
+        Integer id = layoutIdsByClass.get(klass);
+        if (id == null) {
+            Layout<?> layout = Layout.forClass(klass);
+            id = layoutId(layout.getHash());
+            layoutsById.put(id, layout);
+            if (Event.class.isAssignableFrom(klass)) {
+                order(id, layout);
+            }
+            layoutIdsByClass.put(klass, id);
         }
-        return layout;
+        return id;
     }
 
-    private Layout getLayout(byte[] hash) {
-        String encoded = BaseEncoding.base16().encode(hash);
-        return layoutsByHash.get(encoded);
+    /**
+     * Orders events of a layout journalled before timestamp order was introduced
+     */
+    private synchronized void order(int id, Layout<?> layout) {
+        if (orderedLayouts.containsKey(id)) {
+            return;
+        }
+        Transaction tx = new Transaction(transactionStore.begin(), commitLock);
+        Iterator<Map.Entry<UUID, ByteBuffer>> iterator = tx.payloads(id).entryIterator(null);
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, ByteBuffer> entry = iterator.next();
+            Entity entity = deserialize(layout, entry.getKey(), entry.getValue());
+            if (entity.timestamp() != null) {
+                tx.timestamps(id).put(new TimestampDataType.Key(entity.timestamp(), entry.getKey()), true);
+            }
+        }
+        tx.commit();
+        orderedLayouts.put(id, true);
+        store.commit();
+    }
+
+    private synchronized int layoutId(byte[] hash) {
+        Integer id = layoutIds.get(hash);
+        if (id == null) {
+            id = layoutIds.size() + 1;
+            layoutIds.put(hash, id);
+            store.commit();
+        }
+        return id;
     }
 
     static class Transaction implements Journal.Transaction {
         @Getter
         final TransactionStore.Transaction tx;
 
-        private final TransactionMap<UUID, byte[]> txEventHashes;
-        private final TransactionMap<byte[], Boolean> txHashEvents;
-        private final TransactionMap<UUID, ByteBuffer> txEventPayloads;
+        private final TransactionMap<UUID, Integer> txEntityLayouts;
+        private final Map<Integer, TransactionMap<UUID, ByteBuffer>> txPayloads = new HashMap<>();
+        private final Map<Integer, TransactionMap<TimestampDataType.Key, Boolean>> txTimestamps = new HashMap<>();
+
+        private final Object commitLock;
+        private final Map<Integer, Long> sizes = new TreeMap<>();
+        private final List<UUID> appended = new ArrayList<>();
 
-        Transaction(TransactionStore.Transaction tx) {
+        Transaction(TransactionStore.Transaction tx, Object commitLock) {
             this.tx = tx;
-            txEventPayloads = tx.openMap("eventPayloads", new ObjectDataType(), new ByteBufferDataType());
-            txHashEvents = tx.openMap("hashEvents");
-            txEventHashes = tx.openMap("eventHashes");
+            this.commitLock = commitLock;
+            txEntityLayouts = tx.openMap("entityLayouts", new UUIDDataType(), new ObjectDataType());
         }
 
+        TransactionMap<UUID, ByteBuffer> payloads(int id) {
+            return txPayloads.computeIfAbsent(id, i -> tx.openMap(LAYOUT_MAP_PREFIX + i, new UUIDDataType(),
+                                                                  new ByteBufferDataType()));
+        }
+
+        TransactionMap<TimestampDataType.Key, Boolean> timestamps(int id) {
+            return txTimestamps.computeIfAbsent(id, i -> tx.openMap(TIMESTAMP_MAP_PREFIX + i, new TimestampDataType(),
+                                                                    new ObjectDataType()));
+        }
+
+        void increment(int id) {
+            sizes.merge(id, 1L, Long::sum);
+        }
+
+        void append(UUID uuid) {
+            appended.add(uuid);
+        }
+
+        /**
+         * Entity counters and journal positions are updated in the same MVStore transaction as
+         * the entities themselves. Since an uncommitted change locks the entry for other transactions
+         * (and positions have to be assigned in the order of commits), they are only touched right
+         * before the commit, while holding a journal-wide lock.
+         */
         @Override public void commit() {
-            tx.prepare();
-            tx.commit();
+            if (sizes.isEmpty() && appended.isEmpty()) {
+                tx.prepare();
+                tx.commit();
+                return;
+            }
+            synchronized (commitLock) {
+                TransactionMap<Integer, Long> txLayoutSizes = tx.openMap("layoutSizes");
+                for (Map.Entry<Integer, Long> entry : sizes.entrySet()) {
+                    Long size = txLayoutSizes.get(entry.getKey());
+                    txLayoutSizes.put(entry.getKey(), size == null ? entry.getValue() : size + entry.getValue());
+                }
+                TransactionMap<Long, UUID> txSequence = tx.openMap("sequence", new ObjectDataType(),
+                                                                   new UUIDDataType());
+                Long last = txSequence.lastKey();
+                long position = last == null ? 0 : last;
+                for (UUID uuid : appended) {
+                    txSequence.put(++position, uuid);
+                }
+                tx.prepare();
+                tx.commit();
+                commitLock.notifyAll();
+            }
         }
 
         @Override public void rollback() {
@@ -178,30 +371,25 @@ public class MVStoreJournal extends AbstractService implements Journal {
     }
 
     @Override public Transaction beginTransaction() {
-        return new Transaction(transactionStore.begin());
+        return new Transaction(transactionStore.begin(), commitLock);
     }
 
     @Override public <S, T> Command<S, T> journal(Journal.Transaction tx, Command<S, T> command) {
-        TransactionStore.Transaction tx0 = ((Transaction) tx).getTx();
-        TransactionMap<UUID, ByteBuffer> txCommandPayloads = tx0.openMap("commandPayloads", new ObjectDataType(),
-                                                                        new ByteBufferDataType());
-        TransactionMap<byte[], Boolean> txHashCommands = tx0.openMap("hashCommands");
-        TransactionMap<UUID, byte[]> txCommandHashes = tx0.openMap("commandHashes");
-
-        Layout commandLayout = getLayout(command.getClass());
-
-        ByteBuffer hashBuffer = ByteBuffer.allocate(16 + 20); // based on SHA-1
-        hashBuffer.put(commandLayout.getHash());
-        hashBuffer.putLong(command.uuid().getMostSignificantBits());
-        hashBuffer.putLong(command.uuid().getLeastSignificantBits());
+        Transaction tx0 = ((Transaction) tx);
+        int id = layoutId(command.getClass());
 
         ByteBuffer buffer = serialization.getSerializer(command.getClass()).serialize(command);
         buffer.rewind();
 
-        txCommandPayloads.tryPut(command.uuid(), ByteBuffer.wrap(buffer.array()));
-
-        txHashCommands.tryPut(hashBuffer.array(), true);
-        txCommandHashes.tryPut(command.uuid(), commandLayout.getHash());
+        if (!tx0.txEntityLayouts.containsKey(command.uuid())) {
+            tx0.increment(id);
+            tx0.append(command.uuid());
+        }
+        tx0.payloads(id).tryPut(command.uuid(), ByteBuffer.wrap(buffer.array()));
+        tx0.txEntityLayouts.tryPut(command.uuid(), id);
+        if (layoutsById.get(id).isImmutable()) {
+            return command;
+        }
         buffer.rewind();
         Command command1 = (Command) serialization.getDeserializer(command.getClass()).deserialize(buffer);
         command1.uuid(command.uuid());
@@ -211,7 +399,7 @@ public class MVStoreJournal extends AbstractService implements Journal {
     @SneakyThrows
     @Override public Event journal(Journal.Transaction tx, Event event) {
         Transaction tx0 = ((Transaction) tx);
-        Layout layout = getLayout(event.getClass());
+        int id = layoutId(event.getClass());
 
         ObjectSerializer serializer = serialization.getSerializer(event.getClass());
         int size = serializer.size(event);
@@ -220,132 +408,226 @@ public class MVStoreJournal extends AbstractService implements Journal {
         serializer.serialize(event, payloadBuffer);
         payloadBuffer.rewind();
 
-        tx0.txEventPayloads.tryPut(event.uuid(), ByteBuffer.wrap(payloadBuffer.array()));
-
-        ByteBuffer hashBuffer = ByteBuffer.allocate(20 + 16); // Based on SHA-1
-
-        hashBuffer.rewind();
-        hashBuffer.put(layout.getHash());
-        hashBuffer.putLong(event.uuid().getMostSignificantBits());
-        hashBuffer.putLong(event.uuid().getLeastSignificantBits());
-
-
-        tx0.txHashEvents.tryPut(hashBuffer.array(), true);
-        tx0.txEventHashes.tryPut(event.uuid(), layout.getHash());
+        if (!tx0.txEntityLayouts.containsKey(event.uuid())) {
+            tx0.increment(id);
+            tx0.append(event.uuid());
+            if (event.timestamp() != null) {
+                tx0.timestamps(id).tryPut(new TimestampDataType.Key(event.timestamp(), event.uuid()), true);
+            }
+        }
+        tx0.payloads(id).tryPut(event.uuid(), ByteBuffer.wrap(payloadBuffer.array()));
+        tx0.txEntityLayouts.tryPut(event.uuid(), id);
+        if (layoutsById.get(id).isImmutable()) {
+            return event;
+        }
         payloadBuffer.rewind();
         Event event1 = (Event) serialization.getDeserializer(event.getClass()).deserialize(payloadBuffer);
         event1.uuid(event.uuid());
         return event1;
     }
 
+    @Override public boolean isCompactCausalitySupported() {
+        return true;
+    }
+
+    /**
+     * Compact causality is stored in two maps:
+     * <p>
+     * <table>
+     * <tr>
+     * <th>Map</th>
+     * <th>Key</th>
+     * <th>Value</th>
+     * </tr>
+     * <tbody>
+     * <tr>
+     * <td>eventCommands</td>
+     * <td>event UUID</td>
+     * <td>command UUID</td>
+     * </tr>
+     * <tr>
+     * <td>commandEvents</td>
+     * <td>command UUID (16 bytes) followed by event UUID (16 bytes)</td>
+     * <td>true</td>
+     * </tr>
+     * </tbody>
+     * </table>
+     */
+    @Override public Event journal(Journal.Transaction tx, Event event, UUID command) {
+        Event event1 = journal(tx, event);
+        TransactionStore.Transaction tx0 = ((Transaction) tx).getTx();
+        TransactionMap<UUID, UUID> txEventCommands = tx0.openMap("eventCommands");
+        TransactionMap<byte[], Boolean> txCommandEvents = tx0.openMap("commandEvents");
+        txEventCommands.tryPut(event.uuid(), command);
+        txCommandEvents.tryPut(causalityKey(command, event.uuid()), true);
+        return event1;
+    }
+
+    private static byte[] causalityKey(UUID command, UUID event) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 16);
+        buffer.putLong(command.getMostSignificantBits());
+        buffer.putLong(command.getLeastSignificantBits());
+        buffer.putLong(event.getMostSignificantBits());
+        buffer.putLong(event.getLeastSignificantBits());
+        return buffer.array();
+    }
 
+    @Override public Optional<UUID> getCausingCommand(UUID event) {
+        return Optional.ofNullable(eventCommands.get(event));
+    }
+
+    @Override public CloseableIterator<UUID> getCausedEvents(UUID command) {
+        byte[] prefix = Arrays.copyOf(causalityKey(command, new UUID(0, 0)), 16);
+        Iterator<Map.Entry<byte[], Boolean>> iterator = commandEvents.entryIterator(commandEvents.higherKey(prefix));
+        return new EntityHandleIterator<>(iterator, bytes -> Bytes.indexOf(bytes, prefix) == 0,
+                                          (bytes, value) -> {
+                                              ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                                              return new UUID(buffer.getLong(16), buffer.getLong(24));
+                                          });
+    }
 
     @Override
-    @SneakyThrows @SuppressWarnings("unchecked")
     public <T extends Entity> Optional<T> get(UUID uuid) {
-        if (commandPayloads.containsKey(uuid)) {
-            ByteBuffer payload = commandPayloads.get(uuid);
-            payload.rewind();
-            assert payload.array().length > 0;
-            byte[] bytes = commandHashes.get(uuid);
-            Layout<Command<?, ?>> layout = getLayout(bytes);
-            Command command = (Command) serialization.getDeserializer(layout.getLayoutClass()).deserialize(payload);
-            command.uuid(uuid);
-            return Optional.of((T) command);
-        }
-        if (eventPayloads.containsKey(uuid)) {
-            ByteBuffer payload = eventPayloads.get(uuid);
-            payload.rewind();
-            assert payload.array().length > 0;
-            byte[] bytes = eventHashes.get(uuid);
-            Layout<Event> layout = getLayout(bytes);
-            Event event = (Event) serialization.getDeserializer(layout.getLayoutClass()).deserialize(payload);
-            event.uuid(uuid);
-            return Optional.of((T) event);
-        }
-        return Optional.empty();
+        Integer id = entityLayouts.get(uuid);
+        if (id == null) {
+            return Optional.empty();
+        }
+        ByteBuffer payload = payloads(id).get(uuid);
+        if (payload == null) {
+            return Optional.empty();
+        }
+        return Optional.of(deserialize(layoutsById.get(id), uuid, payload));
+    }
 
+    @SuppressWarnings("unchecked")
+    private static <T extends Entity> T deserialize(Layout<?> layout, UUID uuid, ByteBuffer payload) {
+        // payloads can be shared by concurrent readers, so they are never read directly
+        ByteBuffer buffer = payload.duplicate();
+        buffer.rewind();
+        T entity = (T) serialization.getDeserializer(layout.getLayoutClass()).deserialize(buffer);
+        entity.uuid(uuid);
+        return entity;
     }
 
     @Override
     public <T extends Command<?, ?>> CloseableIterator<EntityHandle<T>> commandIterator(Class<T> klass) {
-        return entityIterator(klass, hashCommands);
+        return entityIterator(klass);
     }
 
     @Override
     public <T extends Event> CloseableIterator<EntityHandle<T>> eventIterator(Class<T> klass) {
-        return entityIterator(klass, hashEvents);
+        return entityIterator(klass);
     }
 
-    @SneakyThrows
-    private <T extends Entity> CloseableIterator<EntityHandle<T>> entityIterator(Class<T> klass,  TransactionMap map) {
-        Layout layout = getLayout(klass);
-        if (layout == null) {
-            layout = Layout.forClass(klass);
-            layoutsByClass.put(klass.getName(), layout);
-        }
-        byte[] hash = layout.getHash();
-        Iterator<Map.Entry<byte[], Boolean>> iterator = map.entryIterator(map.higherKey(hash));
-        return new EntityHandleIterator<>(iterator, bytes -> Bytes.indexOf(bytes, hash) == 0,
-                                          new EntityFunction<>(hash));
+    /**
+     * Scans the layout's map sequentially. Returned handles hold the payloads they were read with,
+     * so resolving them doesn't involve any further lookups.
+     */
+    private <T extends Entity> CloseableIterator<EntityHandle<T>> entityIterator(Class<T> klass) {
+        int id = layoutId(klass);
+        Layout<?> layout = layoutsById.get(id);
+        Iterator<Map.Entry<UUID, ByteBuffer>> iterator = payloads(id).entryIterator(null);
+        return new CloseableWrappingIterator<>(
+                Iterators.transform(iterator, entry -> (EntityHandle<T>) new PayloadEntityHandle<T>(layout,
+                                                                                                    entry.getKey(),
+                                                                                                    entry.getValue())));
     }
 
+    @Override public boolean isTimestampOrderSupported() {
+        return true;
+    }
+
+    /**
+     * Scans the layout's <code>timestamps_&lt;id&gt;</code> map from the lower bound until the upper bound
+     * is exceeded.
+     */
     @Override
-    public void clear() {
-        commandPayloads.clear();
-        hashCommands.clear();
-        eventPayloads.clear();
-        eventHashes.clear();
-        hashEvents.clear();
+    public <T extends Event> CloseableIterator<EntityHandle<T>> eventIterator(Class<T> klass, HybridTimestamp from,
+                                                                               HybridTimestamp to) {
+        int id = layoutId(klass);
+        Layout<?> layout = layoutsById.get(id);
+        TransactionMap<UUID, ByteBuffer> payloads = payloads(id);
+        Iterator<TimestampDataType.Key> keys = timestamps(id)
+                .keyIterator(from == null ? null : new TimestampDataType.Key(from, null));
+        return new CloseableWrappingIterator<>(new AbstractIterator<EntityHandle<T>>() {
+            @Override protected EntityHandle<T> computeNext() {
+                if (keys.hasNext()) {
+                    TimestampDataType.Key key = keys.next();
+                    if (to == null || key.compareTo(to) <= 0) {
+                        return new PayloadEntityHandle<>(layout, key.getUuid(), payloads.get(key.getUuid()));
+                    }
+                }
+                return endOfData();
+            }
+        });
     }
 
-    @Override @SuppressWarnings("unchecked")
-    public <T extends Entity> long size(Class<T> klass) {
-        if (Event.class.isAssignableFrom(klass)) {
-            return Iterators.size(eventIterator((Class<Event>) klass));
+    private static class PayloadEntityHandle<T extends Entity> implements EntityHandle<T> {
+        private final Layout<?> layout;
+        private final UUID uuid;
+        private final ByteBuffer payload;
+
+        PayloadEntityHandle(Layout<?> layout, UUID uuid, ByteBuffer payload) {
+            this.layout = layout;
+            this.uuid = uuid;
+            this.payload = payload;
+        }
+
+        @Override public Optional<T> getOptional() {
+            return Optional.of(deserialize(layout, uuid, payload));
         }
-        if (Command.class.isAssignableFrom(klass)) {
-            return Iterators.size(commandIterator((Class<Command<?, ?>>) klass));
+
+        @Override public UUID uuid() {
+            return uuid;
         }
-        throw new IllegalArgumentException();
     }
 
     @Override
-    public <T extends Entity> boolean isEmpty(Class<T> klass) {
-        if (Event.class.isAssignableFrom(klass)) {
-            return !eventIterator((Class<Event>) klass).hasNext();
-        }
-        if (Command.class.isAssignableFrom(klass)) {
-            return !commandIterator((Class<Command<?, ?>>) klass).hasNext();
+    public void clear() {
+        for (String name : store.getMapNames()) {
+            if (name.startsWith(LAYOUT_MAP_PREFIX)) {
+                payloads(Integer.parseInt(name.substring(LAYOUT_MAP_PREFIX.length()))).clear();
+            }
+            if (name.startsWith(TIMESTAMP_MAP_PREFIX)) {
+                timestamps(Integer.parseInt(name.substring(TIMESTAMP_MAP_PREFIX.length()))).clear();
+            }
         }
-        throw new IllegalArgumentException();
+        entityLayouts.clear();
+        eventCommands.clear();
+        commandEvents.clear();
+        layoutSizes.clear();
+        sequence.clear();
     }
 
-
-    private static class LayoutFunction<X> implements Function<X, Layout> {
-        private final Class<? extends Entity> klass;
-
-        public LayoutFunction(Class<? extends Entity> klass) {this.klass = klass;}
-
-        @SneakyThrows
-        @Override public Layout apply(X n) {return Layout.forClass(klass);}
+    @Override public Cursor tail(long position, boolean follow) {
+        return new JournalCursor(position, follow, commitLock) {
+            @Override protected SortedMap<Long, EntityHandle<Entity>> fetch(long position, int limit) {
+                SortedMap<Long, EntityHandle<Entity>> entities = new TreeMap<>();
+                Iterator<Map.Entry<Long, UUID>> iterator = sequence.entryIterator(position + 1);
+                while (iterator.hasNext() && entities.size() < limit) {
+                    Map.Entry<Long, UUID> entry = iterator.next();
+                    entities.put(entry.getKey(), new JournalEntityHandle<>(MVStoreJournal.this, entry.getValue()));
+                }
+                return entities;
+            }
+        };
     }
 
-
-    private class EntityLayoutExtractor implements Consumer<Class<? extends Entity>> {
-
-        @Override
-        @SneakyThrows
-        public void accept(Class<? extends Entity> aClass) {
-            Layout<? extends Entity> layout = Layout.forClass(aClass);
-            byte[] hash = layout.getHash();
-            String encodedHash = BaseEncoding.base16().encode(hash);
-            layoutsByHash.put(encodedHash, layout);
-            layoutsByClass.put(aClass.getName(), layout);
+    @Override
+    public <T extends Entity> long size(Class<T> klass) {
+        if (!Event.class.isAssignableFrom(klass) && !Command.class.isAssignableFrom(klass)) {
+            throw new IllegalArgumentException();
         }
+        Long size = layoutSizes.get(layoutId(klass));
+        return size == null ? 0 : size;
+    }
 
+    @Override
+    public <T extends Entity> boolean isEmpty(Class<T> klass) {
+        return size(klass) == 0;
     }
 
+
     static private class EntityHandleIterator<K, V, R> implements CloseableIterator<R> {
 
         private final Iterator<Map.Entry<K, V>> iterator;
@@ -385,19 +667,4 @@ public class MVStoreJournal extends AbstractService implements Journal {
 
         }
     }
-
-    private class EntityFunction<T extends Entity, V> implements BiFunction<byte[], V, EntityHandle<T>> {
-        private final byte[] hash;
-
-        public EntityFunction(byte[] hash) {
-            this.hash = hash;
-        }
-
-        @Override
-        public EntityHandle<T> apply(byte[] bytes, V value) {
-            ByteBuffer buffer = ByteBuffer.wrap(bytes);
-            UUID uuid = new UUID(buffer.getLong(hash.length), buffer.getLong(hash.length + 8));
-            return new JournalEntityHandle<>(MVStoreJournal.this, uuid);
-        }
-    }
 }
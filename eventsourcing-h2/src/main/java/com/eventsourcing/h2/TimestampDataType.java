@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.h2;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+import lombok.Value;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Fixed-width (32 bytes) data type of {@link Key}s that order entities by their timestamps
+ * (in the same way as {@link HybridTimestamp#compareTo(HybridTimestamp)}) and then by their UUIDs.
+ */
+public class TimestampDataType implements DataType {
+
+    /**
+     * Timestamp key. A key with a <code>null</code> UUID is never stored, but sorts before all other
+     * keys with the same timestamp, so it can be used as a lower bound.
+     */
+    @Value
+    public static class Key {
+        private final long logicalTime;
+        private final long logicalCounter;
+        private final UUID uuid;
+
+        public Key(long logicalTime, long logicalCounter, UUID uuid) {
+            this.logicalTime = logicalTime;
+            this.logicalCounter = logicalCounter;
+            this.uuid = uuid;
+        }
+
+        public Key(HybridTimestamp timestamp, UUID uuid) {
+            this(timestamp.getLogicalTime(), timestamp.getLogicalCounter(), uuid);
+        }
+
+        /**
+         * @param timestamp
+         * @return negative if the key is before <code>timestamp</code>, positive if it is after,
+         * 0 if it has the same timestamp
+         */
+        public int compareTo(HybridTimestamp timestamp) {
+            int result = HybridTimestamp.compare(logicalTime, timestamp.getLogicalTime());
+            return result == 0 ? Long.compare(logicalCounter, timestamp.getLogicalCounter()) : result;
+        }
+    }
+
+    @Override public int compare(Object a, Object b) {
+        Key key1 = (Key) a;
+        Key key2 = (Key) b;
+        int result = HybridTimestamp.compare(key1.getLogicalTime(), key2.getLogicalTime());
+        if (result == 0) {
+            result = Long.compare(key1.getLogicalCounter(), key2.getLogicalCounter());
+        }
+        if (result == 0) {
+            if (key1.getUuid() == null) {
+                result = key2.getUuid() == null ? 0 : -1;
+            } else {
+                result = key2.getUuid() == null ? 1 : key1.getUuid().compareTo(key2.getUuid());
+            }
+        }
+        return result;
+    }
+
+    @Override public int getMemory(Object obj) {
+        return 32;
+    }
+
+    @Override public void write(WriteBuffer buff, Object obj) {
+        Key key = (Key) obj;
+        buff.putLong(key.getLogicalTime());
+        buff.putLong(key.getLogicalCounter());
+        buff.putLong(key.getUuid().getMostSignificantBits());
+        buff.putLong(key.getUuid().getLeastSignificantBits());
+    }
+
+    @Override public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override public Object read(ByteBuffer buff) {
+        return new Key(buff.getLong(), buff.getLong(), new UUID(buff.getLong(), buff.getLong()));
+    }
+
+    @Override public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+}
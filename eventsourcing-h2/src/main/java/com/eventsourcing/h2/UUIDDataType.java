@@ -0,0 +1,50 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.h2;
+
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Fixed-width (16 bytes) {@link UUID} data type. Unlike {@link org.h2.mvstore.type.ObjectDataType},
+ * it doesn't store a type tag and doesn't serialize UUIDs as objects.
+ */
+public class UUIDDataType implements DataType {
+    @Override public int compare(Object a, Object b) {
+        return ((UUID) a).compareTo((UUID) b);
+    }
+
+    @Override public int getMemory(Object obj) {
+        return 16;
+    }
+
+    @Override public void write(WriteBuffer buff, Object obj) {
+        UUID uuid = (UUID) obj;
+        buff.putLong(uuid.getMostSignificantBits());
+        buff.putLong(uuid.getLeastSignificantBits());
+    }
+
+    @Override public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override public Object read(ByteBuffer buff) {
+        return new UUID(buff.getLong(), buff.getLong());
+    }
+
+    @Override public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+}
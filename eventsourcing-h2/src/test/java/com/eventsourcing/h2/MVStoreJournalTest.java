@@ -7,11 +7,28 @@
  */
 package com.eventsourcing.h2;
 
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.Journal;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.layout.Layout;
+import com.eventsourcing.layout.binary.BinarySerialization;
 import com.eventsourcing.repository.JournalTest;
+import com.google.common.primitives.Bytes;
+import com.googlecode.cqengine.index.support.CloseableIterator;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.TransactionStore;
+import org.h2.mvstore.type.ObjectDataType;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.testng.Assert.*;
+
 @Slf4j
 @Test
 public class MVStoreJournalTest extends JournalTest<MVStoreJournal> {
@@ -23,4 +40,107 @@ public class MVStoreJournalTest extends JournalTest<MVStoreJournal> {
         store = journal.getStore();
     }
 
-}
\ No newline at end of file
+    @Test
+    @SneakyThrows
+    public void upgradeFromVersion1() {
+        String fileName = temporaryFile();
+        MVStore store = MVStore.open(fileName);
+        store.openMap("info").put("version", 1);
+
+        // version 1 kept all payloads in one map and indexed them by layout hash followed by UUID
+        TestCommand command = TestCommand.builder().build();
+        byte[] hash = Layout.forClass(TestCommand.class).getHash();
+        ByteBuffer payload = BinarySerialization.getInstance().getSerializer(TestCommand.class).serialize(command);
+        ByteBuffer uuid = ByteBuffer.allocate(16);
+        uuid.putLong(command.uuid().getMostSignificantBits());
+        uuid.putLong(command.uuid().getLeastSignificantBits());
+
+        TransactionStore transactionStore = new TransactionStore(store);
+        transactionStore.init();
+        TransactionStore.Transaction tx = transactionStore.begin();
+        tx.<UUID, ByteBuffer>openMap("commandPayloads", new ObjectDataType(), new ByteBufferDataType())
+                .put(command.uuid(), ByteBuffer.wrap(payload.array()));
+        tx.<UUID, byte[]>openMap("commandHashes").put(command.uuid(), hash);
+        tx.<byte[], Boolean>openMap("hashCommands").put(Bytes.concat(hash, uuid.array()), true);
+        tx.prepare();
+        tx.commit();
+        transactionStore.close();
+        store.close();
+
+        // another TransactionStore can't be opened on the same store instance
+        store = MVStore.open(fileName);
+        MVMap<String, Object> info = store.openMap("info");
+
+        MVStoreJournal journal = new MVStoreJournal(store);
+        journal.setRepository(repository);
+        journal.startAsync().awaitRunning();
+        journal.onCommandsAdded(repository.getCommands());
+        journal.onEventsAdded(repository.getEvents());
+
+        assertEquals(info.get("version"), MVStoreJournal.VERSION);
+        assertFalse(store.hasMap("commandPayloads"));
+        assertFalse(store.hasMap("hashCommands"));
+        assertFalse(store.hasMap("commandHashes"));
+
+        assertTrue(journal.get(command.uuid()).isPresent());
+        assertEquals(journal.size(TestCommand.class), 1);
+        try (CloseableIterator<EntityHandle<TestCommand>> iterator = journal.commandIterator(TestCommand.class)) {
+            assertTrue(iterator.hasNext());
+            assertEquals(iterator.next().get().uuid(), command.uuid());
+            assertFalse(iterator.hasNext());
+        }
+        try (Journal.Cursor cursor = journal.tail(0)) {
+            assertEquals(cursor.next().uuid(), command.uuid());
+        }
+
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    @SneakyThrows
+    public void orderingJournalledEvents() {
+        String fileName = temporaryFile();
+        MVStore store = MVStore.open(fileName);
+        store.openMap("info").put("version", 4);
+
+        // events journalled before timestamp order was introduced
+        TestEvent event = TestEvent.builder().timestamp(new HybridTimestamp(1, 0)).build();
+        ByteBuffer payload = BinarySerialization.getInstance().getSerializer(TestEvent.class).serialize(event);
+        store.<byte[], Integer>openMap("layoutIds").put(Layout.forClass(TestEvent.class).getHash(), 1);
+
+        TransactionStore transactionStore = new TransactionStore(store);
+        transactionStore.init();
+        TransactionStore.Transaction tx = transactionStore.begin();
+        tx.<UUID, ByteBuffer>openMap(MVStoreJournal.LAYOUT_MAP_PREFIX + 1, new UUIDDataType(),
+                                     new ByteBufferDataType())
+                .put(event.uuid(), ByteBuffer.wrap(payload.array()));
+        tx.<UUID, Integer>openMap("entityLayouts", new UUIDDataType(), new ObjectDataType()).put(event.uuid(), 1);
+        tx.prepare();
+        tx.commit();
+        transactionStore.close();
+        store.close();
+
+        store = MVStore.open(fileName);
+        MVStoreJournal journal = new MVStoreJournal(store);
+        journal.setRepository(repository);
+        journal.startAsync().awaitRunning();
+        journal.onEventsAdded(repository.getEvents());
+
+        try (CloseableIterator<EntityHandle<TestEvent>> iterator =
+                     journal.eventIterator(TestEvent.class, new HybridTimestamp(1, 0), null)) {
+            assertTrue(iterator.hasNext());
+            assertEquals(iterator.next().uuid(), event.uuid());
+            assertFalse(iterator.hasNext());
+        }
+
+        journal.stopAsync().awaitTerminated();
+    }
+
+    @SneakyThrows
+    private static String temporaryFile() {
+        File file = File.createTempFile("journal", ".db");
+        file.deleteOnExit();
+        return file.getPath();
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.h2;
+
+import com.eventsourcing.hlc.HybridTimestamp;
+import org.h2.mvstore.WriteBuffer;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TimestampDataTypeTest {
+    @Test
+    public void testCompare() throws Exception {
+        TimestampDataType dataType = new TimestampDataType();
+        UUID uuid = new UUID(0, 1);
+        // logical time is compared as an unsigned value
+        TimestampDataType.Key k1 = new TimestampDataType.Key(1, 5, uuid);
+        TimestampDataType.Key k2 = new TimestampDataType.Key(-1, 0, uuid);
+        assertTrue(dataType.compare(k1, k2) < 0);
+        assertEquals(Integer.signum(dataType.compare(k1, k2)),
+                     Integer.signum(new HybridTimestamp(1, 5).compareTo(new HybridTimestamp(-1, 0))));
+        // then logical counter
+        assertTrue(dataType.compare(new TimestampDataType.Key(1, 4, uuid), k1) < 0);
+        // then UUID, with no UUID being the lowest
+        assertTrue(dataType.compare(k1, new TimestampDataType.Key(1, 5, new UUID(0, 2))) < 0);
+        assertTrue(dataType.compare(new TimestampDataType.Key(1, 5, null), k1) < 0);
+        assertEquals(dataType.compare(k1, new TimestampDataType.Key(1, 5, new UUID(0, 1))), 0);
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        TimestampDataType.Key key = new TimestampDataType.Key(new HybridTimestamp(1, 2), UUID.randomUUID());
+        WriteBuffer writeBuffer = new WriteBuffer();
+        TimestampDataType dataType = new TimestampDataType();
+        dataType.write(writeBuffer, key);
+        ByteBuffer rb = writeBuffer.getBuffer();
+        assertEquals(rb.position(), 32);
+        rb.rewind();
+        assertEquals(dataType.read(rb), key);
+
+        rb.rewind();
+
+        TimestampDataType.Key[] keys = new TimestampDataType.Key[1];
+        dataType.read(rb, keys, 1, false);
+
+        assertEquals(keys[0], key);
+    }
+
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.h2;
+
+import org.h2.mvstore.WriteBuffer;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+
+public class UUIDDataTypeTest {
+    @Test
+    public void testCompare() throws Exception {
+        UUID u1 = new UUID(0, 1);
+        UUID u2 = new UUID(0, 2);
+        assertEquals(new UUIDDataType().compare(u1, u2), u1.compareTo(u2));
+        assertEquals(new UUIDDataType().compare(u1, new UUID(0, 1)), 0);
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        WriteBuffer writeBuffer = new WriteBuffer();
+        UUIDDataType uuidDataType = new UUIDDataType();
+        uuidDataType.write(writeBuffer, uuid);
+        ByteBuffer rb = writeBuffer.getBuffer();
+        assertEquals(rb.position(), 16);
+        rb.rewind();
+        assertEquals(uuidDataType.read(rb), uuid);
+
+        rb.rewind();
+
+        UUID[] uuids = new UUID[1];
+        uuidDataType.read(rb, uuids, 1, false);
+
+        assertEquals(uuids[0], uuid);
+    }
+
+}
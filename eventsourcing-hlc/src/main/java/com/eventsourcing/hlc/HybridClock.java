@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.hlc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free <a href="http://www.cse.buffalo.edu/tech-reports/2014-04.pdf">Hybrid Logical Clock</a>.
+ * <p>
+ * The state of the clock is packed into a single <code>long</code> laid out the same way
+ * as {@link HybridTimestamp#timestamp()}: upper 48 bits of the NTP logical time followed by
+ * a 16-bit logical counter. Concurrent updates are resolved with compare-and-set, and none of
+ * the operations (except for {@link #timestamp()} and {@link #toHybridTimestamp(long)}) allocate.
+ * <p>
+ * Physical time is rounded up to the resolution of the packed logical time, so a timestamp issued
+ * by the clock is never earlier than a (full precision) {@link HybridTimestamp} taken before it.
+ * <p>
+ * Packed timestamps can be compared with {@link #compare(long, long)}.
+ */
+public class HybridClock {
+
+    static final int COUNTER_BITS = 16;
+    static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+    static final long TIME_MASK = ~COUNTER_MASK;
+
+    private final PhysicalTimeProvider physicalTimeProvider;
+    private final AtomicLong state;
+
+    public HybridClock(PhysicalTimeProvider physicalTimeProvider) {
+        this(physicalTimeProvider, new HybridTimestamp(physicalTimeProvider));
+    }
+
+    public HybridClock(PhysicalTimeProvider physicalTimeProvider, HybridTimestamp timestamp) {
+        this.physicalTimeProvider = physicalTimeProvider;
+        this.state = new AtomicLong(pack(timestamp.getLogicalTime(), timestamp.getLogicalCounter()));
+    }
+
+    /**
+     * @return current packed timestamp
+     */
+    public long get() {
+        return state.get();
+    }
+
+    /**
+     * Advances the clock for a local or send event
+     *
+     * @return packed timestamp
+     */
+    public long tick() {
+        return reserve(1);
+    }
+
+    /**
+     * Reserves a range of consecutive timestamps for local or send events. Timestamps
+     * <code>first</code> to <code>first + ticks - 1</code> (where <code>first</code> is the returned value)
+     * are guaranteed to be unique and greater than any timestamp issued by this clock before.
+     *
+     * @param ticks number of timestamps to reserve, from 1 to 65536
+     * @return first packed timestamp of the range
+     */
+    public long reserve(int ticks) {
+        if (ticks < 1 || ticks > COUNTER_MASK + 1) {
+            throw new IllegalArgumentException("Can't reserve " + ticks + " ticks");
+        }
+        long physicalTime = physicalTime();
+        while (true) {
+            long current = state.get();
+            long first;
+            if (compare(current & TIME_MASK, physicalTime) < 0) {
+                first = physicalTime;
+            } else if ((current & COUNTER_MASK) + ticks > COUNTER_MASK) {
+                // the counter would overflow, move on to the next logical time unit
+                first = (current & TIME_MASK) + COUNTER_MASK + 1;
+            } else {
+                first = current + 1;
+            }
+            if (state.compareAndSet(current, first + ticks - 1)) {
+                return first;
+            }
+        }
+    }
+
+    /**
+     * Updates the clock for a received event
+     *
+     * @param timestamp packed timestamp of the received event
+     * @return updated packed timestamp
+     */
+    public long update(long timestamp) {
+        long physicalTime = physicalTime();
+        long eventTime = timestamp & TIME_MASK;
+        long eventCounter = timestamp & COUNTER_MASK;
+        while (true) {
+            long current = state.get();
+            long currentTime = current & TIME_MASK;
+            long currentCounter = current & COUNTER_MASK;
+
+            long time = max(max(currentTime, eventTime), physicalTime);
+            long counter;
+            if (time == currentTime && time == eventTime) {
+                counter = Math.max(currentCounter, eventCounter) + 1;
+            } else if (time == currentTime) {
+                counter = currentCounter + 1;
+            } else if (time == eventTime) {
+                counter = eventCounter + 1;
+            } else {
+                counter = 0;
+            }
+
+            // if the counter overflows, it carries over to the logical time
+            long next = time + counter;
+            if (state.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Updates the clock for a received event
+     *
+     * @param timestamp received event's timestamp
+     * @return updated packed timestamp
+     */
+    public long update(HybridTimestamp timestamp) {
+        return update(pack(timestamp.getLogicalTime(), timestamp.getLogicalCounter()));
+    }
+
+    /**
+     * @return a snapshot of the current state of the clock
+     */
+    public HybridTimestamp timestamp() {
+        return toHybridTimestamp(get());
+    }
+
+    /**
+     * Converts a packed timestamp to {@link HybridTimestamp} bound to this clock's physical time provider
+     *
+     * @param timestamp packed timestamp
+     * @return new HybridTimestamp
+     */
+    public HybridTimestamp toHybridTimestamp(long timestamp) {
+        return new HybridTimestamp(physicalTimeProvider, timestamp & TIME_MASK, timestamp & COUNTER_MASK);
+    }
+
+    /**
+     * Packs logical time and counter into a 64-bit timestamp. Lower 16 bits of the logical
+     * time are discarded.
+     *
+     * @param logicalTime    NTP logical time
+     * @param logicalCounter logical counter
+     * @return packed timestamp
+     */
+    public static long pack(long logicalTime, long logicalCounter) {
+        return (logicalTime & TIME_MASK) | (logicalCounter & COUNTER_MASK);
+    }
+
+    /**
+     * Compares two packed timestamps (or two NTP timestamps) without allocating
+     *
+     * @param time1
+     * @param time2
+     * @return 0 if equal, less than 0 if time1 &lt; time2, more than 0 if time1 &gt; time2
+     */
+    public static int compare(long time1, long time2) {
+        return Long.compareUnsigned(time1, time2);
+    }
+
+    private long physicalTime() {
+        return (physicalTimeProvider.getPhysicalTime() + COUNTER_MASK) & TIME_MASK;
+    }
+
+    private static long max(long time1, long time2) {
+        return compare(time1, time2) >= 0 ? time1 : time2;
+    }
+}
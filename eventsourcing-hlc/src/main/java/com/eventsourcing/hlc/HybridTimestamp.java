@@ -67,23 +67,22 @@ public class HybridTimestamp implements Comparable<HybridTimestamp>, Serializabl
     public int compareTo(HybridTimestamp o) {
         int ntpComparison = compare(logicalTime, o.logicalTime);
         if (ntpComparison == 0) {
-            return new Long(logicalCounter).compareTo(o.logicalCounter);
+            return Long.compare(logicalCounter, o.logicalCounter);
         } else {
             return ntpComparison;
         }
     }
 
     /**
-     * Compares two NTP timestamps (non-numerically)
+     * Compares two NTP timestamps (non-numerically). Since seconds occupy the upper 32 bits
+     * and the fraction occupies the lower 32 bits, this is an unsigned comparison of raw values.
      *
      * @param time1
      * @param time2
      * @return 0 if equal, less than 0 if time1 &lt; time2, more than 0 if time1 &gt; time2
      */
     public static int compare(long time1, long time2) {
-        TimeStamp t1 = new TimeStamp(time1);
-        TimeStamp t2 = new TimeStamp(time2);
-        return compare(t1, t2);
+        return HybridClock.compare(time1, time2);
     }
 
     public static int compare(TimeStamp t1, TimeStamp t2) {
@@ -154,7 +153,7 @@ public class HybridTimestamp implements Comparable<HybridTimestamp>, Serializabl
      * @return 64-bit timestamp
      */
     public long timestamp() {
-        return (logicalTime >> 16 << 16) | (logicalCounter << 48 >> 48);
+        return HybridClock.pack(logicalTime, logicalCounter);
     }
 
 
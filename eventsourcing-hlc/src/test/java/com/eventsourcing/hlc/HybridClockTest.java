@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.hlc;
+
+import com.google.common.util.concurrent.AbstractService;
+import lombok.SneakyThrows;
+import org.apache.commons.net.ntp.TimeStamp;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.*;
+
+public class HybridClockTest {
+
+    class TestPhysicalTimeProvider extends AbstractService implements PhysicalTimeProvider {
+
+        private volatile long physicalTime = 0;
+
+        @Override
+        public long getPhysicalTime() {
+            return physicalTime;
+        }
+
+        public void setPhysicalTime(long physicalTime) {
+            this.physicalTime = physicalTime;
+        }
+
+        @Override
+        protected void doStart() {
+            notifyStarted();
+        }
+
+        @Override
+        protected void doStop() {
+            notifyStopped();
+        }
+    }
+
+    private TestPhysicalTimeProvider physicalTimeProvider;
+    private HybridClock clock;
+
+    @BeforeMethod
+    public void setup() {
+        physicalTimeProvider = new TestPhysicalTimeProvider();
+        clock = new HybridClock(physicalTimeProvider, new HybridTimestamp(physicalTimeProvider, 0, 0));
+    }
+
+    @Test
+    public void compare() {
+        long[] times = new long[]{0, 1, (long) 1 << 32, (long) 1 << 32 | 1, Long.MAX_VALUE, Long.MIN_VALUE, -1};
+        for (long time1 : times) {
+            for (long time2 : times) {
+                assertEquals(Integer.signum(HybridClock.compare(time1, time2)),
+                             Integer.signum(HybridTimestamp.compare(new TimeStamp(time1), new TimeStamp(time2))));
+            }
+        }
+    }
+
+    @Test
+    public void tick() {
+        long ts = (long) 1 << 32;
+        physicalTimeProvider.setPhysicalTime(ts);
+        assertEquals(clock.tick(), ts);
+
+        // clock didn't move
+        assertEquals(clock.tick(), ts | 1);
+
+        // clock moved back
+        physicalTimeProvider.setPhysicalTime(1);
+        assertEquals(clock.tick(), ts | 2);
+
+        // clock moved ahead
+        ts = (long) 2 << 32;
+        physicalTimeProvider.setPhysicalTime(ts);
+        assertEquals(clock.tick(), ts);
+    }
+
+    @Test
+    public void physicalTimeRounding() {
+        long ts = new TimeStamp(new Date()).ntpValue() | 1;
+        physicalTimeProvider.setPhysicalTime(ts);
+        HybridTimestamp timestamp = new HybridTimestamp(physicalTimeProvider);
+        timestamp.update();
+        // lower bits of the physical time don't fit, it is rounded up
+        assertEquals(clock.tick(), (ts & HybridClock.TIME_MASK) + 0x10000);
+        assertTrue(timestamp.compareTo(clock.timestamp()) < 0);
+    }
+
+    @Test
+    public void reserve() {
+        long ts = (long) 1 << 32;
+        physicalTimeProvider.setPhysicalTime(ts);
+        assertEquals(clock.reserve(10), ts);
+        assertEquals(clock.get(), ts | 9);
+        assertEquals(clock.tick(), ts | 10);
+    }
+
+    @Test
+    public void counterOverflow() {
+        long ts = (long) 1 << 32;
+        physicalTimeProvider.setPhysicalTime(ts);
+        clock.reserve(65535);
+        assertEquals(clock.get(), ts | 0xFFFE);
+        assertEquals(clock.tick(), ts | 0xFFFF);
+        assertEquals(clock.tick(), ts + 0x10000);
+        // reservation doesn't fit into the counter
+        assertEquals(clock.reserve(0x10000), ts + 0x20000);
+        assertEquals(clock.get(), ts + 0x2FFFF);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void reserveNothing() {
+        clock.reserve(0);
+    }
+
+    @Test
+    public void update() {
+        long ts = (long) 3 << 32;
+        physicalTimeProvider.setPhysicalTime(ts);
+
+        // event happens, but wall ahead
+        assertEquals(clock.update((long) 1 << 32 | 3), ts);
+        // event happens, wall ahead but unchanged
+        assertEquals(clock.update((long) 1 << 32 | 3), ts | 1);
+        // event happens at wall, which is still unchanged
+        assertEquals(clock.update(ts | 1), ts | 2);
+        // event with larger logical, wall unchanged
+        assertEquals(clock.update(ts | 99), ts | 100);
+        // event with larger wall, our wall behind
+        assertEquals(clock.update((long) 4 << 32 | 100), (long) 4 << 32 | 101);
+        // event at state, lower logical than state
+        physicalTimeProvider.setPhysicalTime(0);
+        assertEquals(clock.update((long) 4 << 32 | 50), (long) 4 << 32 | 102);
+    }
+
+    @Test
+    public void hybridTimestamp() {
+        long ts = (long) 1 << 32;
+        physicalTimeProvider.setPhysicalTime(ts);
+        long tick = clock.tick();
+        clock.tick();
+        HybridTimestamp timestamp = clock.toHybridTimestamp(tick);
+        assertEquals(timestamp.timestamp(), tick);
+        assertTrue(timestamp.compareTo(clock.timestamp()) < 0);
+        assertEquals(clock.update(clock.timestamp()), ts | 2);
+    }
+
+    @Test @SneakyThrows
+    public void concurrentTicks() {
+        physicalTimeProvider.setPhysicalTime((long) 1 << 32);
+        Set<Long> ticks = ConcurrentHashMap.newKeySet();
+        int threads = 4;
+        int iterations = 10000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                for (int j = 0; j < iterations; j++) {
+                    ticks.add(clock.tick());
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        assertEquals(ticks.size(), threads * iterations);
+    }
+}
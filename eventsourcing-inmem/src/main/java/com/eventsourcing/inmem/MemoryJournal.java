@@ -8,6 +8,8 @@
 package com.eventsourcing.inmem;
 
 import com.eventsourcing.*;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.layout.Layout;
 import com.eventsourcing.layout.ObjectDeserializer;
 import com.eventsourcing.layout.ObjectSerializer;
 import com.eventsourcing.layout.Serialization;
@@ -21,11 +23,11 @@ import lombok.Setter;
 import org.osgi.service.component.annotations.Component;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Memory-based {@link Journal} implementation. Not meant to be used in production.
@@ -34,12 +36,30 @@ import java.util.concurrent.ConcurrentHashMap;
 public class MemoryJournal extends AbstractService implements Journal {
 
     private static final Serialization serialization = BinarySerialization.getInstance();
+    private static final Map<Class<?>, Boolean> immutable = new ConcurrentHashMap<>();
 
     @Getter @Setter
     private Repository repository;
 
     private Map<UUID, Command> commands = new ConcurrentHashMap<>();
     private Map<UUID, Event> events = new ConcurrentHashMap<>();
+    private Map<UUID, UUID> causes = new ConcurrentHashMap<>();
+    private Map<UUID, Queue<UUID>> effects = new ConcurrentHashMap<>();
+    /**
+     * Number of journalled entities per class, maintained on commit so that
+     * {@link #size(Class)} doesn't need to iterate over the journal
+     */
+    private Map<Class<?>, LongAdder> sizes = new ConcurrentHashMap<>();
+    /**
+     * UUIDs of journalled entities in the order of commits (position is index + 1).
+     * Guarded by itself, notified on every commit.
+     */
+    private final List<UUID> log = new ArrayList<>();
+    /**
+     * UUIDs of journalled events per class, ordered by their timestamps
+     * (see {@link #eventIterator(Class, HybridTimestamp, HybridTimestamp)})
+     */
+    private Map<Class<?>, NavigableMap<HybridTimestamp, Queue<UUID>>> timestamps = new ConcurrentHashMap<>();
 
     @Override
     protected void doStart() {
@@ -55,9 +75,8 @@ public class MemoryJournal extends AbstractService implements Journal {
     }
 
     static class Transaction implements Journal.Transaction {
-        private final Map<UUID, Event> events = new HashMap<>();
-        @Setter
-        private Command command;
+        private final Map<UUID, Entity> entities = new LinkedHashMap<>();
+        private final Map<UUID, UUID> causes = new LinkedHashMap<>();
         private final MemoryJournal journal;
 
         Transaction(MemoryJournal journal) {this.journal = journal;}
@@ -66,39 +85,91 @@ public class MemoryJournal extends AbstractService implements Journal {
         }
 
         @Override public void commit() {
-            journal.events.putAll(events);
-            journal.commands.put(command.uuid(), command);
+            synchronized (journal.log) {
+                for (Entity entity : entities.values()) {
+                    Entity previous = entity instanceof Command ?
+                            journal.commands.put(entity.uuid(), (Command) entity) :
+                            journal.events.put(entity.uuid(), (Event) entity);
+                    if (previous == null) {
+                        journal.increment(entity.getClass());
+                        journal.log.add(entity.uuid());
+                        if (entity instanceof Event && entity.timestamp() != null) {
+                            journal.order((Event) entity);
+                        }
+                    }
+                }
+                for (Map.Entry<UUID, UUID> entry : causes.entrySet()) {
+                    journal.causes.put(entry.getKey(), entry.getValue());
+                    journal.effects.computeIfAbsent(entry.getValue(), command -> new ConcurrentLinkedQueue<>())
+                                   .add(entry.getKey());
+                }
+                journal.log.notifyAll();
+            }
         }
     }
 
-    @Override public <S, T> Command<S, T> journal(Journal.Transaction tx, Command<S, T> command) {
-        ObjectSerializer<Command> serializer = serialization.getSerializer(command.getClass());
-        ObjectDeserializer<Command> deserializer = serialization.getDeserializer(command.getClass());
-
-        ByteBuffer buffer = serializer.serialize(command);
-        buffer.rewind();
-        Command command1 = deserializer.deserialize(buffer);
-        command1.uuid(command.uuid());
+    private void increment(Class<?> klass) {
+        sizes.computeIfAbsent(klass, k -> new LongAdder()).increment();
+    }
 
-        ((Transaction) tx).setCommand(command1);
+    private void order(Event event) {
+        // timestamps are mutable, so the key is a copy
+        HybridTimestamp timestamp = new HybridTimestamp(event.timestamp().getLogicalTime(),
+                                                        event.timestamp().getLogicalCounter());
+        timestamps.computeIfAbsent(event.getClass(), k -> new ConcurrentSkipListMap<>())
+                  .computeIfAbsent(timestamp, t -> new ConcurrentLinkedQueue<>())
+                  .add(event.uuid());
+    }
 
+    @Override public <S, T> Command<S, T> journal(Journal.Transaction tx, Command<S, T> command) {
+        Command command1 = copy(command);
+        ((Transaction) tx).entities.put(command1.uuid(), command1);
         return command1;
     }
 
     @Override public Event journal(Journal.Transaction tx, Event event) {
-        ObjectSerializer<Event> serializer = serialization.getSerializer(event.getClass());
-        ObjectDeserializer<Event> deserializer = serialization.getDeserializer(event.getClass());
-
-        ByteBuffer buffer = serializer.serialize(event);
-        buffer.rewind();
-        Event event1 = deserializer.deserialize(buffer);
-        event1.uuid(event.uuid());
+        Event event1 = copy(event);
+        ((Transaction) tx).entities.put(event1.uuid(), event1);
+        return event1;
+    }
 
-        ((Transaction) tx).events.put(event1.uuid(), event1);
+    @Override public boolean isCompactCausalitySupported() {
+        return true;
+    }
 
+    @Override public Event journal(Journal.Transaction tx, Event event, UUID command) {
+        Event event1 = journal(tx, event);
+        ((Transaction) tx).causes.put(event1.uuid(), command);
         return event1;
     }
 
+    @Override public Optional<UUID> getCausingCommand(UUID event) {
+        return Optional.ofNullable(causes.get(event));
+    }
+
+    @Override public CloseableIterator<UUID> getCausedEvents(UUID command) {
+        Queue<UUID> events = effects.get(command);
+        return new CloseableWrappingIterator<>(events == null ? Collections.emptyIterator() : events.iterator());
+    }
+
+    /**
+     * Returns a copy of an entity, as it would be retrieved from the journal. Instances of
+     * {@link com.eventsourcing.layout.Immutable} layouts are returned as is.
+     */
+    private <T extends Entity> T copy(T entity) {
+        if (immutable.computeIfAbsent(entity.getClass(), Layout::isImmutable)) {
+            return entity;
+        }
+        ObjectSerializer<T> serializer = serialization.getSerializer(entity.getClass());
+        ObjectDeserializer<T> deserializer = serialization.getDeserializer(entity.getClass());
+
+        ByteBuffer buffer = serializer.serialize(entity);
+        buffer.rewind();
+        T entity1 = deserializer.deserialize(buffer);
+        entity1.uuid(entity.uuid());
+        return entity1;
+    }
+
     @Override public Journal.Transaction beginTransaction() {
         return new Transaction(this);
     }
@@ -131,32 +202,78 @@ public class MemoryJournal extends AbstractService implements Journal {
                                                      .iterator());
     }
 
+    @Override public boolean isTimestampOrderSupported() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only events of <code>klass</code> itself (not of its subclasses) are returned.
+     */
+    @Override
+    public <T extends Event> CloseableIterator<EntityHandle<T>> eventIterator(Class<T> klass, HybridTimestamp from,
+                                                                               HybridTimestamp to) {
+        NavigableMap<HybridTimestamp, Queue<UUID>> ordered = timestamps.get(klass);
+        if (ordered == null || (from != null && to != null && from.compareTo(to) > 0)) {
+            return new CloseableWrappingIterator<>(Collections.emptyIterator());
+        }
+        if (from != null) {
+            ordered = ordered.tailMap(from, true);
+        }
+        if (to != null) {
+            ordered = ordered.headMap(to, true);
+        }
+        Iterator<UUID> uuids = Iterators.concat(Iterators.transform(ordered.values().iterator(), Queue::iterator));
+        return new CloseableWrappingIterator<>(
+                Iterators.transform(uuids, uuid -> (EntityHandle<T>) new JournalEntityHandle<T>(this, uuid)));
+    }
+
     @Override
     public void clear() {
-        events.clear();
-        commands.clear();
+        synchronized (log) {
+            events.clear();
+            commands.clear();
+            causes.clear();
+            effects.clear();
+            sizes.clear();
+            log.clear();
+            timestamps.clear();
+        }
     }
 
-    @Override @SuppressWarnings("unchecked")
+    @Override public Cursor tail(long position, boolean follow) {
+        return new JournalCursor(position, follow, log) {
+            @Override protected SortedMap<Long, EntityHandle<Entity>> fetch(long position, int limit) {
+                SortedMap<Long, EntityHandle<Entity>> entities = new TreeMap<>();
+                synchronized (log) {
+                    for (int i = (int) position; i < log.size() && entities.size() < limit; i++) {
+                        entities.put((long) i + 1, new JournalEntityHandle<>(MemoryJournal.this, log.get(i)));
+                    }
+                }
+                return entities;
+            }
+        };
+    }
+
+    /**
+     * Sums up counters of all journalled classes assignable to <code>klass</code>,
+     * so it takes time proportional to the number of entity classes, not entities.
+     */
+    @Override
     public <T extends Entity> long size(Class<T> klass) {
-        if (Event.class.isAssignableFrom(klass)) {
-            return Iterators.size(eventIterator((Class<Event>) klass));
-        }
-        if (Command.class.isAssignableFrom(klass)) {
-            return Iterators.size(commandIterator((Class<Command<?, ?>>) klass));
+        long size = 0;
+        for (Map.Entry<Class<?>, LongAdder> entry : sizes.entrySet()) {
+            if (klass.isAssignableFrom(entry.getKey())) {
+                size += entry.getValue().sum();
+            }
         }
-        return 0;
+        return size;
     }
 
-    @Override @SuppressWarnings("unchecked")
+    @Override
     public <T extends Entity> boolean isEmpty(Class<T> klass) {
-        if (Event.class.isAssignableFrom(klass)) {
-            return !eventIterator((Class<Event>) klass).hasNext();
-        }
-        if (Command.class.isAssignableFrom(klass)) {
-            return !commandIterator((Class<Command<?, ?>>) klass).hasNext();
-        }
-        return true;
+        return size(klass) == 0;
     }
 
 }
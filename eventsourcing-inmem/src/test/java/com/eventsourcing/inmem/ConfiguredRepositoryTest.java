@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.PackageCommandSetProvider;
+import com.eventsourcing.PackageEventSetProvider;
+import com.eventsourcing.hlc.NTPServerTimeProvider;
+import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * Tests a memory journal-based {@link StandardRepository} with a specific configuration,
+ * with commands and events of {@link RepositoryTest} and of the test's own package
+ */
+public abstract class ConfiguredRepositoryTest {
+
+    protected StandardRepository repository;
+
+    /**
+     * Configures the repository under test
+     *
+     * @param builder builder with the journal, index engine and physical time provider already set
+     * @return builder
+     */
+    protected abstract StandardRepository.StandardRepositoryBuilder configure(
+            StandardRepository.StandardRepositoryBuilder builder);
+
+    @BeforeClass
+    public void setUpEnv() throws Exception {
+        repository = configure(StandardRepository.builder()
+                                                 .journal(new MemoryJournal())
+                                                 .indexEngine(new MemoryIndexEngine())
+                                                 .physicalTimeProvider(
+                                                         new NTPServerTimeProvider(new String[]{"localhost"})))
+                .build();
+        Package[] packages = new Package[]{RepositoryTest.class.getPackage(), getClass().getPackage()};
+        repository.addCommandSetProvider(new PackageCommandSetProvider(packages));
+        repository.addEventSetProvider(new PackageEventSetProvider(packages));
+        repository.startAsync().awaitRunning();
+    }
+
+    @AfterClass
+    public void tearDownEnv() throws Exception {
+        repository.stopAsync().awaitTerminated();
+    }
+
+}
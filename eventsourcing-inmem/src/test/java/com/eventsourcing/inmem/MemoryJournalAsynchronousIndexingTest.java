@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import com.googlecode.cqengine.resultset.ResultSet;
+import lombok.SneakyThrows;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.eventsourcing.index.EntityQueryFactory.equal;
+import static org.testng.Assert.assertEquals;
+
+public class MemoryJournalAsynchronousIndexingTest extends ConfiguredRepositoryTest {
+
+    @Override
+    protected StandardRepository.StandardRepositoryBuilder configure(
+            StandardRepository.StandardRepositoryBuilder builder) {
+        return builder.asynchronousIndexing(true);
+    }
+
+    @Test
+    @SneakyThrows
+    public void readYourWrites() {
+        List<RepositoryTest.RepositoryTestCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            RepositoryTest.RepositoryTestCommand command = RepositoryTest.RepositoryTestCommand.builder()
+                                                                                               .value("async" + i)
+                                                                                               .build();
+            repository.publish(command);
+            commands.add(command);
+        }
+        for (int i = 0; i < 100; i++) {
+            try (ResultSet<EntityHandle<RepositoryTest.TestEvent>> resultSet = repository
+                    .query(RepositoryTest.TestEvent.class, equal(RepositoryTest.TestEvent.ATTR, "async" + i),
+                           commands.get(i).timestamp())) {
+                assertEquals(resultSet.size(), 1);
+            }
+        }
+        assertEquals(repository.getPendingIndexUpdates(), 0);
+    }
+
+    @Test(timeOut = 10000)
+    @SneakyThrows
+    public void publishAll() {
+        List<RepositoryTest.RepositoryTestCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            commands.add(RepositoryTest.RepositoryTestCommand.builder().value("asyncBatch" + i).build());
+        }
+        for (CompletableFuture<?> future : repository.publishAll(commands)) {
+            future.get();
+        }
+        repository.awaitIndexed(commands.get(commands.size() - 1).timestamp());
+        for (int i = 0; i < 3; i++) {
+            try (ResultSet<EntityHandle<RepositoryTest.TestEvent>> resultSet = repository
+                    .query(RepositoryTest.TestEvent.class, equal(RepositoryTest.TestEvent.ATTR, "asyncBatch" + i))) {
+                assertEquals(resultSet.size(), 1);
+            }
+        }
+        assertEquals(repository.getPendingIndexUpdates(), 0);
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.PackageCommandSetProvider;
+import com.eventsourcing.PackageEventSetProvider;
+import com.eventsourcing.hlc.NTPServerTimeProvider;
+import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.repository.CommandDeduplication;
+import com.eventsourcing.repository.DuplicateCommandException;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import com.googlecode.cqengine.resultset.ResultSet;
+import lombok.SneakyThrows;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static com.eventsourcing.index.EntityQueryFactory.equal;
+import static org.testng.Assert.*;
+
+public class MemoryJournalCommandDeduplicationTest {
+
+    private StandardRepository repository;
+
+    @BeforeClass
+    public void setUpEnv() throws Exception {
+        repository = StandardRepository.builder()
+                                       .journal(new MemoryJournal())
+                                       .indexEngine(new MemoryIndexEngine())
+                                       .physicalTimeProvider(new NTPServerTimeProvider(new String[]{"localhost"}))
+                                       .commandDeduplication(new CommandDeduplication(1))
+                                       .build();
+        repository.addCommandSetProvider(new PackageCommandSetProvider(new Package[]{RepositoryTest.class
+                .getPackage()}));
+        repository.addEventSetProvider(new PackageEventSetProvider(new Package[]{RepositoryTest.class.getPackage()}));
+        repository.startAsync().awaitRunning();
+    }
+
+    @AfterClass
+    public void tearDownEnv() throws Exception {
+        repository.stopAsync().awaitTerminated();
+    }
+
+    private int count(String value) {
+        try (ResultSet<EntityHandle<RepositoryTest.TestEvent>> resultSet = repository
+                .query(RepositoryTest.TestEvent.class, equal(RepositoryTest.TestEvent.ATTR, value))) {
+            return resultSet.size();
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void retainedDuplicate() {
+        RepositoryTest.RepositoryTestCommand command = RepositoryTest.RepositoryTestCommand.builder()
+                                                                                           .value("dedup")
+                                                                                           .build();
+        CompletableFuture<String> future = repository.publish(command);
+        RepositoryTest.RepositoryTestCommand retry = RepositoryTest.RepositoryTestCommand.builder()
+                                                                                         .value("dedup")
+                                                                                         .build();
+        retry.uuid(command.uuid());
+        assertSame(repository.publish(retry), future);
+        assertEquals(future.get(), "hello, world");
+        assertEquals(count("dedup"), 1);
+    }
+
+    @Test
+    @SneakyThrows
+    public void journalledDuplicate() {
+        RepositoryTest.RepositoryTestCommand command = RepositoryTest.RepositoryTestCommand.builder()
+                                                                                           .value("dedupJournal")
+                                                                                           .build();
+        repository.publish(command).get();
+        // evicts the command from the cache
+        repository.publish(RepositoryTest.RepositoryTestCommand.builder().value("dedupOther").build()).get();
+        try {
+            repository.publish(command).get();
+            fail("duplicate command was executed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DuplicateCommandException);
+            assertEquals(((DuplicateCommandException) e.getCause()).getCommand().uuid(), command.uuid());
+        }
+        assertEquals(count("dedupJournal"), 1);
+    }
+
+    @Test
+    @SneakyThrows
+    public void batchDuplicate() {
+        RepositoryTest.RepositoryTestCommand command = RepositoryTest.RepositoryTestCommand.builder()
+                                                                                           .value("dedupBatch")
+                                                                                           .build();
+        List<CompletableFuture<?>> futures = repository.publishAll(Arrays.asList(command, command));
+        assertSame(futures.get(1), futures.get(0));
+        futures.get(0).get();
+        assertEquals(count("dedupBatch"), 1);
+    }
+
+}
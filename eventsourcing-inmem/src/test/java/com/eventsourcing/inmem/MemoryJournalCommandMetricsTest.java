@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.PackageCommandSetProvider;
+import com.eventsourcing.PackageEventSetProvider;
+import com.eventsourcing.hlc.NTPServerTimeProvider;
+import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.repository.CommandMetrics;
+import com.eventsourcing.repository.HistogramCommandMetrics;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import lombok.SneakyThrows;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.management.openmbean.TabularData;
+
+import static org.testng.Assert.*;
+
+public class MemoryJournalCommandMetricsTest {
+
+    private StandardRepository repository;
+    private HistogramCommandMetrics metrics;
+
+    @BeforeClass
+    public void setUpEnv() throws Exception {
+        metrics = new HistogramCommandMetrics();
+        repository = StandardRepository.builder()
+                                       .journal(new MemoryJournal())
+                                       .indexEngine(new MemoryIndexEngine())
+                                       .physicalTimeProvider(new NTPServerTimeProvider(new String[]{"localhost"}))
+                                       .commandMetrics(metrics)
+                                       .build();
+        repository.addCommandSetProvider(new PackageCommandSetProvider(new Package[]{RepositoryTest.class
+                .getPackage()}));
+        repository.addEventSetProvider(new PackageEventSetProvider(new Package[]{RepositoryTest.class.getPackage()}));
+        repository.startAsync().awaitRunning();
+    }
+
+    @AfterClass
+    public void tearDownEnv() throws Exception {
+        repository.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    @SneakyThrows
+    public void phases() {
+        for (int i = 0; i < 100; i++) {
+            repository.publish(RepositoryTest.RepositoryTestCommand.builder().value("metrics" + i).build()).get();
+        }
+        Class<RepositoryTest.RepositoryTestCommand> klass = RepositoryTest.RepositoryTestCommand.class;
+        assertEquals(metrics.getCompleted(klass), 100);
+        assertEquals(metrics.getFailed(klass), 0);
+        for (CommandMetrics.Phase phase : CommandMetrics.Phase.values()) {
+            assertEquals(metrics.getCount(klass, phase), 100, phase.name());
+        }
+        long p50 = metrics.getLatency(klass, CommandMetrics.Phase.TOTAL, 50);
+        long p99 = metrics.getLatency(klass, CommandMetrics.Phase.TOTAL, 99);
+        assertTrue(p50 > 0);
+        assertTrue(p50 <= p99);
+        assertTrue(metrics.getLatency(klass, CommandMetrics.Phase.JOURNAL, 50) <= p99);
+
+        TabularData data = repository.getCommandLatencies();
+        assertNotNull(data.get(new Object[]{klass.getName(), CommandMetrics.Phase.TOTAL.name()}));
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.Journal;
+import com.eventsourcing.repository.CommandExecutors;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+
+@Test
+public class MemoryJournalExecutorRepositoryTest extends RepositoryTest<StandardRepository> {
+
+    private final StandardRepository repository;
+    private ExecutorService executor;
+
+    public MemoryJournalExecutorRepositoryTest() {
+        this(StandardRepository.builder().build());
+    }
+
+    private MemoryJournalExecutorRepositoryTest(StandardRepository repository) {
+        super(repository);
+        this.repository = repository;
+    }
+
+    @BeforeClass
+    @Override
+    public void setUpEnv() throws Exception {
+        if (!CommandExecutors.isVirtualThreadPerCommandSupported()) {
+            throw new SkipException("Virtual threads require Java 21 or newer");
+        }
+        executor = CommandExecutors.virtualThreadPerCommand();
+        repository.setExecutor(executor);
+        super.setUpEnv();
+    }
+
+    // overridden so that a skipped class doesn't skip the configuration methods
+    // of RepositoryTest for the rest of the suite
+    @BeforeMethod
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    @AfterClass
+    @Override
+    public void tearDownEnv() throws Exception {
+        try {
+            super.tearDownEnv();
+        } finally {
+            // the repository doesn't shut down executors it was given
+            executor.shutdown();
+        }
+    }
+
+    protected Journal createJournal() {
+        return new MemoryJournal();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.EventStream;
+import com.eventsourcing.StandardCommand;
+import com.eventsourcing.StandardEvent;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.index.Index;
+import com.eventsourcing.index.IndexingException;
+import com.eventsourcing.index.SimpleIndex;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import com.googlecode.cqengine.resultset.ResultSet;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.experimental.Accessors;
+import org.testng.annotations.Test;
+
+import static com.eventsourcing.index.EntityQueryFactory.equal;
+import static com.eventsourcing.index.IndexEngine.IndexFeature.EQ;
+import static org.testng.Assert.*;
+
+public class MemoryJournalIndexingFailureTest extends ConfiguredRepositoryTest {
+
+    @Override
+    protected StandardRepository.StandardRepositoryBuilder configure(
+            StandardRepository.StandardRepositoryBuilder builder) {
+        return builder.asynchronousIndexing(true);
+    }
+
+    @Accessors(fluent = true)
+    public static class UnindexableEvent extends StandardEvent {
+        @Getter
+        private final String string;
+
+        @Index({EQ})
+        public static SimpleIndex<UnindexableEvent, String> ATTR = unindexableEvent -> {
+            throw new IllegalStateException("unindexable");
+        };
+
+        @Builder
+        public UnindexableEvent(HybridTimestamp timestamp, String string) {
+            super(timestamp);
+            this.string = string;
+        }
+    }
+
+    public static class UnindexableCommand extends StandardCommand<Void, Void> {
+        @Builder
+        public UnindexableCommand(HybridTimestamp timestamp) {
+            super(timestamp);
+        }
+
+        @Override
+        public EventStream<Void> events() {
+            return EventStream.of(UnindexableEvent.builder().string("test").build());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void failedCommand() {
+        RepositoryTest.RepositoryTestCommand indexed = RepositoryTest.RepositoryTestCommand.builder()
+                                                                                           .value("indexed")
+                                                                                           .build();
+        repository.publish(indexed).get();
+        UnindexableCommand unindexable = UnindexableCommand.builder().build();
+        // the command itself is journalled
+        repository.publish(unindexable).get();
+
+        try {
+            repository.awaitIndexed(unindexable.timestamp());
+            fail("failed command is reported as indexed");
+        } catch (IndexingException e) {
+            assertEquals(e.getTimestamp().compareTo(unindexable.timestamp()), 0);
+            assertEquals(e.getCause().getMessage(), "unindexable");
+        }
+        // commands timestamped before it are not affected
+        try (ResultSet<EntityHandle<RepositoryTest.TestEvent>> resultSet = repository
+                .query(RepositoryTest.TestEvent.class, equal(RepositoryTest.TestEvent.ATTR, "indexed"),
+                       indexed.timestamp())) {
+            assertEquals(resultSet.size(), 1);
+        }
+        assertEquals(repository.getPendingIndexUpdates(), 0);
+    }
+
+}
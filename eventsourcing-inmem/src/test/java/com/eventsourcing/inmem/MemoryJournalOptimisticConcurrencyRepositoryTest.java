@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.Journal;
+import com.eventsourcing.repository.OptimisticConcurrency;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import org.testng.annotations.Test;
+
+@Test
+public class MemoryJournalOptimisticConcurrencyRepositoryTest extends RepositoryTest<StandardRepository> {
+    public MemoryJournalOptimisticConcurrencyRepositoryTest() {
+        super(StandardRepository.builder().optimisticConcurrency(new OptimisticConcurrency(100)).build());
+    }
+
+    protected Journal createJournal() {
+        return new MemoryJournal();
+    }
+}
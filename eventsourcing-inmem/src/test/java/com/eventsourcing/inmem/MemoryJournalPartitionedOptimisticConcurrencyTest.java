@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.*;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.hlc.NTPServerTimeProvider;
+import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.repository.CommandPartitioner;
+import com.eventsourcing.repository.OptimisticConcurrency;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StandardRepository;
+import com.googlecode.cqengine.resultset.ResultSet;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.eventsourcing.index.EntityQueryFactory.equal;
+import static com.eventsourcing.index.EntityQueryFactory.startsWith;
+import static org.testng.Assert.*;
+
+public class MemoryJournalPartitionedOptimisticConcurrencyTest {
+
+    private static final AtomicBoolean interfered = new AtomicBoolean();
+
+    private StandardRepository repository;
+
+    @BeforeClass
+    public void setUpEnv() throws Exception {
+        repository = StandardRepository.builder()
+                                       .journal(new MemoryJournal())
+                                       .indexEngine(new MemoryIndexEngine())
+                                       .physicalTimeProvider(new NTPServerTimeProvider(new String[]{"localhost"}))
+                                       .partitioner(CommandPartitioner.PARTITIONED)
+                                       .optimisticConcurrency(new OptimisticConcurrency(10))
+                                       .build();
+        repository.addCommandSetProvider(new PackageCommandSetProvider(new Package[]{RepositoryTest.class
+                .getPackage(), getClass().getPackage()}));
+        repository.addEventSetProvider(new PackageEventSetProvider(new Package[]{RepositoryTest.class.getPackage(),
+                getClass().getPackage()}));
+        repository.startAsync().awaitRunning();
+    }
+
+    @AfterClass
+    public void tearDownEnv() throws Exception {
+        repository.stopAsync().awaitTerminated();
+    }
+
+    /**
+     * Records its position within the partition. The first command of partition "a" publishes
+     * a command of partition "b" the first time it's executed, so that it conflicts with it.
+     */
+    public static class OrderedCommand extends StandardCommand<Void, Void> implements Partitioned {
+
+        @Getter
+        private final String partition;
+        @Getter
+        private final int index;
+
+        @Builder
+        public OrderedCommand(HybridTimestamp timestamp, String partition, int index) {
+            super(timestamp);
+            this.partition = partition;
+            this.index = index;
+        }
+
+        @Override public Object partitionKey() {
+            return partition;
+        }
+
+        @SneakyThrows
+        @Override public EventStream<Void> events(Repository repository, LockProvider lockProvider) {
+            lockProvider.lock("ORDER");
+            int position;
+            try (ResultSet<EntityHandle<RepositoryTest.TestEvent>> resultSet = repository
+                    .query(RepositoryTest.TestEvent.class, startsWith(RepositoryTest.TestEvent.ATTR,
+                                                                       partition + "-"))) {
+                position = resultSet.size();
+            }
+            if (partition.equals("a") && index == 0 && interfered.compareAndSet(false, true)) {
+                repository.publish(OrderedCommand.builder().partition("b").build()).get();
+            }
+            return EventStream.of(RepositoryTest.TestEvent.builder()
+                                                          .string(partition + "-" + index + "@" + position)
+                                                          .build());
+        }
+    }
+
+    private int count(String value) {
+        try (ResultSet<EntityHandle<RepositoryTest.TestEvent>> resultSet = repository
+                .query(RepositoryTest.TestEvent.class, equal(RepositoryTest.TestEvent.ATTR, value))) {
+            return resultSet.size();
+        }
+    }
+
+    @Test(timeOut = 20000)
+    @SneakyThrows
+    public void conflictKeepsPartitionOrder() {
+        CompletableFuture<Void> first = repository.publish(OrderedCommand.builder().partition("a").index(0).build());
+        CompletableFuture<Void> second = repository.publish(OrderedCommand.builder().partition("a").index(1).build());
+        first.get();
+        second.get();
+        assertTrue(interfered.get());
+        assertEquals(count("b-0@0"), 1);
+        // the conflicting command was executed again before the next command of its partition
+        assertEquals(count("a-0@0"), 1);
+        assertEquals(count("a-1@1"), 1);
+    }
+
+}
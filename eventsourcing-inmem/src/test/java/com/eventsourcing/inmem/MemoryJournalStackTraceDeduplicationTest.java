@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.inmem;
+
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.Event;
+import com.eventsourcing.Journal;
+import com.eventsourcing.PackageCommandSetProvider;
+import com.eventsourcing.PackageEventSetProvider;
+import com.eventsourcing.events.JavaExceptionOccurred;
+import com.eventsourcing.events.JavaStackTraceRecorded;
+import com.eventsourcing.hlc.NTPServerTimeProvider;
+import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.repository.RepositoryTest;
+import com.eventsourcing.repository.StackTraceDeduplication;
+import com.eventsourcing.repository.StandardRepository;
+import com.googlecode.cqengine.resultset.ResultSet;
+import lombok.SneakyThrows;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.eventsourcing.index.EntityQueryFactory.all;
+import static org.testng.Assert.*;
+
+public class MemoryJournalStackTraceDeduplicationTest {
+
+    private StandardRepository repository;
+
+    @BeforeClass
+    public void setUpEnv() throws Exception {
+        repository = StandardRepository.builder()
+                                       .journal(new MemoryJournal())
+                                       .indexEngine(new MemoryIndexEngine())
+                                       .physicalTimeProvider(new NTPServerTimeProvider(new String[]{"localhost"}))
+                                       .stackTraceDeduplication(new StackTraceDeduplication(5))
+                                       .build();
+        repository.addCommandSetProvider(new PackageCommandSetProvider(new Package[]{RepositoryTest.class
+                .getPackage()}));
+        repository.addEventSetProvider(new PackageEventSetProvider(new Package[]{RepositoryTest.class.getPackage()}));
+        repository.startAsync().awaitRunning();
+    }
+
+    @AfterClass
+    public void tearDownEnv() throws Exception {
+        repository.stopAsync().awaitTerminated();
+    }
+
+    @Test
+    @SneakyThrows
+    public void deduplication() {
+        int captured = 0;
+        for (int i = 0; i < 20; i++) {
+            RepositoryTest.ExceptionalCommand command = RepositoryTest.ExceptionalCommand.builder().build();
+            Object o = repository.publish(command).exceptionally(throwable -> throwable).get();
+            assertTrue(o instanceof IllegalStateException);
+            assertTrue(command.hasTerminatedExceptionally(repository));
+            JavaExceptionOccurred cause = command.exceptionalTerminationCause(repository);
+            assertEquals(cause.getClassName(), IllegalStateException.class.getName());
+            if (!cause.getStacktrace().isEmpty()) {
+                captured++;
+            }
+        }
+        // capture is rate-limited
+        assertTrue(captured >= 1);
+        assertTrue(captured < 20);
+        // identical stack traces are recorded once
+        try (ResultSet<EntityHandle<JavaStackTraceRecorded>> resultSet = repository
+                .query(JavaStackTraceRecorded.class, all(JavaStackTraceRecorded.class))) {
+            assertEquals(resultSet.size(), 1);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void failedRecording() {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        MemoryJournal journal = new MemoryJournal() {
+            @Override public Event journal(Journal.Transaction tx, Event event) {
+                if (failing.get() && event instanceof JavaStackTraceRecorded) {
+                    throw new IllegalStateException("unjournallable");
+                }
+                return super.journal(tx, event);
+            }
+        };
+        StandardRepository repository = StandardRepository.builder()
+                                                           .journal(journal)
+                                                           .indexEngine(new MemoryIndexEngine())
+                                                           .physicalTimeProvider(new NTPServerTimeProvider(
+                                                                   new String[]{"localhost"}))
+                                                           .stackTraceDeduplication(new StackTraceDeduplication(100))
+                                                           .build();
+        repository.addCommandSetProvider(new PackageCommandSetProvider(new Package[]{RepositoryTest.class
+                .getPackage()}));
+        repository.addEventSetProvider(new PackageEventSetProvider(new Package[]{RepositoryTest.class.getPackage()}));
+        repository.startAsync().awaitRunning();
+        try {
+            Object o = repository.publish(RepositoryTest.ExceptionalCommand.builder().build())
+                                 .exceptionally(throwable -> throwable).get();
+            assertEquals(((Exception) o).getMessage(), "unjournallable");
+            failing.set(false);
+
+            // the stack trace wasn't journalled, so it is recorded again
+            RepositoryTest.ExceptionalCommand command = RepositoryTest.ExceptionalCommand.builder().build();
+            repository.publish(command).exceptionally(throwable -> throwable).get();
+            JavaExceptionOccurred cause = command.exceptionalTerminationCause(repository);
+            assertFalse(cause.getStacktrace().isEmpty());
+            try (ResultSet<EntityHandle<JavaStackTraceRecorded>> resultSet = repository
+                    .query(JavaStackTraceRecorded.class, all(JavaStackTraceRecorded.class))) {
+                assertEquals(resultSet.size(), 1);
+            }
+        } finally {
+            repository.stopAsync().awaitTerminated();
+        }
+    }
+
+}
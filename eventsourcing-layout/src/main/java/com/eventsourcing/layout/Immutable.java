@@ -0,0 +1,26 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.layout;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a layout as immutable: its instances are never modified after construction and
+ * are always constructed with canonical property values (the same ones deserialization
+ * would produce; for example, an empty {@link java.util.Optional} instead of <code>null</code>).
+ * <p>
+ * Instances of such layouts can be shared instead of being copied, for example, journals
+ * return the journalled instance itself instead of its deserialized copy.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Immutable {
+}
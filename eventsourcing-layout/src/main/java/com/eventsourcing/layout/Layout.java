@@ -87,6 +87,12 @@ public class Layout<T> {
     @Getter
     private Class<T> layoutClass;
 
+    /**
+     * <code>true</code> if the layout is {@link Immutable}
+     */
+    @Getter
+    private boolean immutable;
+
     private TypeResolver typeResolver;
     private MethodHandles.Lookup methodHandles;
 
@@ -134,6 +140,8 @@ public class Layout<T> {
         // Prepare the hash
         MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
 
+        immutable = isImmutable(klass);
+
         name = klass.isAnnotationPresent(LayoutName.class) ? klass.getAnnotation(LayoutName.class)
                                                                   .value() : klass.getName();
 
@@ -150,6 +158,14 @@ public class Layout<T> {
         this.hash = digest.digest();
     }
 
+    /**
+     * @param klass
+     * @return <code>true</code> if <code>klass</code> is {@link Immutable}
+     */
+    public static boolean isImmutable(Class<?> klass) {
+        return klass.isAnnotationPresent(Immutable.class);
+    }
+
     @SneakyThrows
     private <X> ClassAnalyzer.Constructor findLayoutConstructor(Class<X> klass) {
         ClassAnalyzer analyzer = new JavaClassAnalyzer();
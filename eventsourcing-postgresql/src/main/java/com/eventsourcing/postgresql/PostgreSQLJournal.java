@@ -8,6 +8,7 @@
 package com.eventsourcing.postgresql;
 
 import com.eventsourcing.*;
+import com.eventsourcing.hlc.HybridTimestamp;
 import com.eventsourcing.layout.Layout;
 import com.eventsourcing.layout.Property;
 import com.eventsourcing.layout.TypeHandler;
@@ -72,24 +73,77 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
         events.forEach(entityLayoutExtractor);
     }
 
+    /**
+     * Advisory lock that serializes assignment of journal positions, see {@link Transaction#commit()}
+     */
+    static final long JOURNAL_LOCK = 0x6a6f75726e616cL;
+
+    /**
+     * Notified after every commit, see {@link #tail(long, boolean)}
+     */
+    private final Object commits = new Object();
+
     @Value
     static class Transaction implements Journal.Transaction {
         private final Connection connection;
         private final Savepoint savepoint;
+        private final Object commits;
+        private final Map<String, Long> sizes = new TreeMap<>();
+        private final List<UUID> appended = new ArrayList<>();
 
         @SneakyThrows
-        public Transaction(DataSource dataSource) {
+        public Transaction(DataSource dataSource, Object commits) {
+            this.commits = commits;
             connection = dataSource.getConnection();
             connection.setAutoCommit(false);
             savepoint = connection.setSavepoint();
         }
 
 
+        void increment(String hash, UUID uuid) {
+            sizes.merge(hash, 1L, Long::sum);
+            appended.add(uuid);
+        }
+
+        /**
+         * Entity counters are updated in the same database transaction as the entities themselves.
+         * They are only touched right before the commit (in a consistent order, to avoid deadlocks)
+         * so that concurrent transactions don't hold counter row locks for longer than necessary.
+         * <p>
+         * Journal positions are assigned while holding {@link #JOURNAL_LOCK} until the end of the
+         * transaction, so that they are assigned in the order of commits.
+         */
         @SneakyThrows
         @Override public void commit() {
+            for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+                try (PreparedStatement s = connection
+                        .prepareStatement("INSERT INTO layout_sizes_v1 VALUES (?, ?) ON CONFLICT (layout) " +
+                                                  "DO UPDATE SET size = layout_sizes_v1.size + EXCLUDED.size")) {
+                    s.setBytes(1, BaseEncoding.base16().decode(entry.getKey()));
+                    s.setLong(2, entry.getValue());
+                    s.executeUpdate();
+                }
+            }
+            if (!appended.isEmpty()) {
+                try (PreparedStatement s = connection.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+                    s.setLong(1, JOURNAL_LOCK);
+                    s.execute();
+                }
+                try (PreparedStatement s = connection
+                        .prepareStatement("INSERT INTO journal_v1 (uuid) VALUES (?::UUID)")) {
+                    for (UUID uuid : appended) {
+                        s.setString(1, uuid.toString());
+                        s.addBatch();
+                    }
+                    s.executeBatch();
+                }
+            }
             connection.releaseSavepoint(savepoint);
             connection.commit();
             connection.close();
+            synchronized (commits) {
+                commits.notifyAll();
+            }
         }
 
         @SneakyThrows
@@ -101,13 +155,17 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
     }
 
     @Override public Journal.Transaction beginTransaction() {
-        return new Transaction(dataSource);
+        return new Transaction(dataSource, commits);
     }
 
     @Override public <S, T> Command<S, T> journal(Journal.Transaction tx, Command<S, T> command) {
         Layout layout = getLayout(command.getClass());
         String encoded = BaseEncoding.base16().encode(layout.getHash());
         insertFunctions.get(encoded).apply(command, ((Transaction)tx).getConnection());
+        ((Transaction) tx).increment(encoded, command.uuid());
+        if (layout.isImmutable()) {
+            return command;
+        }
         BinarySerialization serialization = BinarySerialization.getInstance();
         ByteBuffer s = serialization.getSerializer(command.getClass()).serialize(command);
         s.rewind();
@@ -121,6 +179,13 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
         String encoded = BaseEncoding.base16().encode(layout.getHash());
         InsertFunction insert = insertFunctions.get(encoded);
         insert.apply(event, ((Transaction)tx).getConnection());
+        ((Transaction) tx).increment(encoded, event.uuid());
+        if (event.timestamp() != null) {
+            order(((Transaction) tx).getConnection(), layout.getHash(), event);
+        }
+        if (layout.isImmutable()) {
+            return event;
+        }
         BinarySerialization serialization = BinarySerialization.getInstance();
         ByteBuffer s = serialization.getSerializer(event.getClass()).serialize(event);
         s.rewind();
@@ -129,6 +194,65 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
         return event1;
     }
 
+    /**
+     * Records event's timestamp in <code>timestamps_v1</code>, unless it's been recorded before. Logical time
+     * is stored with its sign bit flipped, so that it is ordered as an unsigned value.
+     */
+    @SneakyThrows
+    private static void order(Connection connection, byte[] hash, Event event) {
+        try (PreparedStatement s = connection
+                .prepareStatement("INSERT INTO timestamps_v1 VALUES (?, ?, ?, ?::UUID) ON CONFLICT DO NOTHING")) {
+            s.setBytes(1, hash);
+            s.setLong(2, event.timestamp().getLogicalTime() ^ Long.MIN_VALUE);
+            s.setLong(3, event.timestamp().getLogicalCounter());
+            s.setString(4, event.uuid().toString());
+            s.executeUpdate();
+        }
+    }
+
+    @Override public boolean isCompactCausalitySupported() {
+        return true;
+    }
+
+    @SneakyThrows
+    @Override public Event journal(Journal.Transaction tx, Event event, UUID command) {
+        Event event1 = journal(tx, event);
+        Connection connection = ((Transaction) tx).getConnection();
+        try (PreparedStatement s = connection.prepareStatement("INSERT INTO causality_v1 VALUES (?::UUID, ?::UUID)")) {
+            s.setString(1, event.uuid().toString());
+            s.setString(2, command.toString());
+            s.executeUpdate();
+        }
+        return event1;
+    }
+
+    @SneakyThrows
+    @Override public Optional<UUID> getCausingCommand(UUID event) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement s = connection.prepareStatement("SELECT command FROM causality_v1 WHERE event = ?::UUID")) {
+            s.setString(1, event.toString());
+            try (ResultSet resultSet = s.executeQuery()) {
+                if (resultSet.next()) {
+                    return Optional.of(UUID.fromString(resultSet.getString(1)));
+                }
+                return Optional.empty();
+            }
+        }
+    }
+
+    @SneakyThrows
+    @Override public CloseableIterator<UUID> getCausedEvents(UUID command) {
+        Connection connection = dataSource.getConnection();
+        PreparedStatement s = connection.prepareStatement("SELECT event FROM causality_v1 WHERE command = ?::UUID");
+        s.setString(1, command.toString());
+        return new PostgreSQLStatementIterator<UUID>(s, connection, true) {
+            @SneakyThrows
+            @Override protected UUID fetchNext() {
+                return UUID.fromString(resultSet.getString(1));
+            }
+        };
+    }
+
     @SneakyThrows
     @Override public <T extends Entity> Optional<T> get(UUID uuid) {
             Optional<T> result;
@@ -175,6 +299,36 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
         return entityIterator(klass);
     }
 
+    @Override public boolean isTimestampOrderSupported() {
+        return true;
+    }
+
+    @SneakyThrows
+    @Override public <T extends Event> CloseableIterator<EntityHandle<T>> eventIterator(Class<T> klass,
+                                                                                         HybridTimestamp from,
+                                                                                         HybridTimestamp to) {
+        Connection connection = dataSource.getConnection();
+
+        Layout layout = getLayout(klass);
+
+        String query = "SELECT uuid FROM timestamps_v1 WHERE layout = ?" +
+                (from == null ? "" : " AND (logical_time, logical_counter) >= (?, ?)") +
+                (to == null ? "" : " AND (logical_time, logical_counter) <= (?, ?)") +
+                " ORDER BY logical_time, logical_counter, uuid";
+        PreparedStatement s = connection.prepareStatement(query);
+        int i = 1;
+        s.setBytes(i++, layout.getHash());
+        if (from != null) {
+            s.setLong(i++, from.getLogicalTime() ^ Long.MIN_VALUE);
+            s.setLong(i++, from.getLogicalCounter());
+        }
+        if (to != null) {
+            s.setLong(i++, to.getLogicalTime() ^ Long.MIN_VALUE);
+            s.setLong(i, to.getLogicalCounter());
+        }
+        return new EntityIterator<>(this, s, connection);
+    }
+
     @SneakyThrows
     private <T extends Entity> CloseableIterator<EntityHandle<T>> entityIterator(Class<T> klass) {
         Connection connection = dataSource.getConnection();
@@ -225,6 +379,18 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
                 s.close();
             }
         }
+        try (PreparedStatement s = connection.prepareStatement("DELETE FROM causality_v1")) {
+            s.execute();
+        }
+        try (PreparedStatement s = connection.prepareStatement("DELETE FROM layout_sizes_v1")) {
+            s.execute();
+        }
+        try (PreparedStatement s = connection.prepareStatement("DELETE FROM journal_v1")) {
+            s.execute();
+        }
+        try (PreparedStatement s = connection.prepareStatement("DELETE FROM timestamps_v1")) {
+            s.execute();
+        }
         check.close();
         connection.close();
     }
@@ -232,26 +398,48 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
     @SneakyThrows
     @Override public <T extends Entity> long size(Class<T> klass) {
         Layout layout = getLayout(klass);
-        String hash = BaseEncoding.base16().encode(layout.getHash());
-        Connection connection = dataSource.getConnection();
-        PreparedStatement s = connection
-                .prepareStatement("SELECT count(uuid) FROM layout_v1_" + hash);
-
-        long size;
-        try (ResultSet resultSet = s.executeQuery()) {
-            resultSet.next();
-            size = resultSet.getLong(1);
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement s = connection.prepareStatement("SELECT size FROM layout_sizes_v1 WHERE layout = ?")) {
+            s.setBytes(1, layout.getHash());
+            try (ResultSet resultSet = s.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
         }
-
-        s.close();
-        connection.close();
-        return size;
     }
 
     @Override public <T extends Entity> boolean isEmpty(Class<T> klass) {
         return size(klass) == 0;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Commits done by other processes are picked up within {@link JournalCursor#FOLLOW_INTERVAL}.
+     */
+    @Override public Cursor tail(long position, boolean follow) {
+        return new JournalCursor(position, follow, commits) {
+            @SneakyThrows
+            @Override protected SortedMap<Long, EntityHandle<Entity>> fetch(long position, int limit) {
+                SortedMap<Long, EntityHandle<Entity>> entities = new TreeMap<>();
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement s = connection
+                             .prepareStatement("SELECT position, uuid FROM journal_v1 WHERE position > ? " +
+                                                       "ORDER BY position LIMIT ?")) {
+                    s.setLong(1, position);
+                    s.setInt(2, limit);
+                    try (ResultSet resultSet = s.executeQuery()) {
+                        while (resultSet.next()) {
+                            entities.put(resultSet.getLong(1),
+                                         new JournalEntityHandle<>(PostgreSQLJournal.this,
+                                                                   UUID.fromString(resultSet.getString(2))));
+                        }
+                    }
+                }
+                return entities;
+            }
+        };
+    }
+
     @Override protected void doStart() {
         if (repository == null) {
             notifyFailed(new IllegalStateException("repository == null"));
@@ -269,6 +457,13 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
     @SneakyThrows
     private void ensureLatestSchemaVersion() {
         try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE TABLE IF NOT EXISTS journal_v1 (\n" +
+                                              "  position BIGSERIAL PRIMARY KEY,\n" +
+                                              "  uuid     UUID NOT NULL\n" +
+                                              ")")) {
+                s.executeUpdate();
+            }
             try (PreparedStatement s = connection
                     .prepareStatement("CREATE TABLE IF NOT EXISTS layouts_v1 (\n" +
                                               "  uuid   UUID PRIMARY KEY,\n" +
@@ -276,6 +471,46 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
                                               ")")) {
                 s.executeUpdate();
             }
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE TABLE IF NOT EXISTS causality_v1 (\n" +
+                                              "  event   UUID PRIMARY KEY,\n" +
+                                              "  command UUID NOT NULL\n" +
+                                              ")")) {
+                s.executeUpdate();
+            }
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE INDEX IF NOT EXISTS causality_v1_command ON causality_v1 (command)")) {
+                s.executeUpdate();
+            }
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE TABLE IF NOT EXISTS layout_sizes_v1 (\n" +
+                                              "  layout BYTEA PRIMARY KEY,\n" +
+                                              "  size   BIGINT NOT NULL\n" +
+                                              ")")) {
+                s.executeUpdate();
+            }
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE TABLE IF NOT EXISTS timestamps_v1 (\n" +
+                                              "  layout          BYTEA  NOT NULL,\n" +
+                                              "  logical_time    BIGINT NOT NULL,\n" +
+                                              "  logical_counter BIGINT NOT NULL,\n" +
+                                              "  uuid            UUID   NOT NULL,\n" +
+                                              "  PRIMARY KEY (layout, logical_time, logical_counter, uuid)\n" +
+                                              ")")) {
+                s.executeUpdate();
+            }
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE TABLE IF NOT EXISTS sequenced_layouts_v1 (\n" +
+                                              "  layout BYTEA PRIMARY KEY\n" +
+                                              ")")) {
+                s.executeUpdate();
+            }
+            try (PreparedStatement s = connection
+                    .prepareStatement("CREATE TABLE IF NOT EXISTS ordered_layouts_v1 (\n" +
+                                              "  layout BYTEA PRIMARY KEY\n" +
+                                              ")")) {
+                s.executeUpdate();
+            }
             String timestampFunction = CharStreams.toString(new InputStreamReader(getClass().getResourceAsStream
                     ("timestamp_function.sql")));
             try (PreparedStatement s = connection.prepareStatement(timestampFunction)) {
@@ -400,15 +635,86 @@ public class PostgreSQLJournal extends AbstractService implements Journal {
                                                     layout.getName() + "'");
             s.execute();
             s.close();
+            // counts entities of layouts journalled before entity counters were introduced
+            s = connection.prepareStatement("INSERT INTO layout_sizes_v1 SELECT ?, count(uuid) FROM layout_v1_" +
+                                                    encoded + " ON CONFLICT (layout) DO NOTHING");
+            s.setBytes(1, fingerprint);
+            s.execute();
+            s.close();
             connection.close();
 
+            backfill("sequenced_layouts_v1", fingerprint, c -> sequence(c, encoded));
+
             InsertFunction insertFunction = new InsertFunction(layout);
             insertFunctions.put(encoded, insertFunction);
 
             ReaderFunction readerFunction = new ReaderFunction(layout);
             readerFunctions.put(encoded, readerFunction);
+
+            if (Event.class.isAssignableFrom(aClass)) {
+                backfill("ordered_layouts_v1", fingerprint, c -> order(c, aClass, fingerprint));
+            }
+        }
+
+    }
+
+    /**
+     * Runs <code>backfill</code> for a layout in one transaction, together with recording its completion
+     * in <code>table</code>, unless it has been completed before. Concurrent backfills of the same layout
+     * (in this or any other process) wait for each other, and an interrupted backfill is rolled back
+     * along with its record, so it is run again next time the layout is registered.
+     */
+    @SneakyThrows
+    private void backfill(String table, byte[] fingerprint, Consumer<Connection> backfill) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement s = connection
+                        .prepareStatement("INSERT INTO " + table + " VALUES (?) ON CONFLICT DO NOTHING")) {
+                    s.setBytes(1, fingerprint);
+                    if (s.executeUpdate() == 1) {
+                        backfill.accept(connection);
+                    }
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            }
         }
+    }
 
+    /**
+     * Assigns positions to entities journalled before journal positions were introduced, following
+     * their UUIDs. Positions are assigned under {@link #JOURNAL_LOCK}, just like on commit.
+     */
+    @SneakyThrows
+    private static void sequence(Connection connection, String encoded) {
+        try (PreparedStatement s = connection.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+            s.setLong(1, JOURNAL_LOCK);
+            s.execute();
+        }
+        try (PreparedStatement s = connection
+                .prepareStatement("INSERT INTO journal_v1 (uuid) SELECT uuid FROM layout_v1_" + encoded +
+                                          " l WHERE NOT EXISTS (SELECT 1 FROM journal_v1 j WHERE j.uuid = l.uuid)" +
+                                          " ORDER BY uuid")) {
+            s.executeUpdate();
+        }
+    }
+
+    /**
+     * Records timestamps of events journalled before timestamps were recorded
+     */
+    @SneakyThrows
+    private void order(Connection connection, Class<? extends Entity> klass, byte[] fingerprint) {
+        try (CloseableIterator<? extends EntityHandle<? extends Entity>> iterator = entityIterator(klass)) {
+            while (iterator.hasNext()) {
+                Event event = (Event) iterator.next().get();
+                if (event.timestamp() != null) {
+                    order(connection, fingerprint, event);
+                }
+            }
+        }
     }
 
     protected static String defineColumns(Connection connection, Layout<?> layout) {
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.Value;
+
+/**
+ * Admission control configuration for {@link StandardRepository}.
+ * <p>
+ * Limits the number of commands that have been published but haven't completed yet
+ * to {@link #getCapacity()}. What happens to a command published beyond that is determined
+ * by {@link #getPolicy()}.
+ */
+@Value
+public class AdmissionControl {
+    public enum Policy {
+        /**
+         * Block the publishing thread until there is capacity for the command
+         */
+        BLOCK,
+        /**
+         * Return a future completed exceptionally with
+         * {@link java.util.concurrent.RejectedExecutionException}
+         */
+        REJECT,
+        /**
+         * Same as {@link #REJECT}, but lower priority commands (see {@link com.eventsourcing.Priority})
+         * are rejected earlier: {@link com.eventsourcing.Priority.Level#LOW} commands once half
+         * of the capacity is taken, {@link com.eventsourcing.Priority.Level#NORMAL} commands
+         * at 80% of the capacity. {@link com.eventsourcing.Priority.Level#HIGH} commands
+         * can use the entire capacity.
+         */
+        SHED
+    }
+
+    /**
+     * Maximum number of pending commands
+     */
+    private final int capacity;
+    private final Policy policy;
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import com.eventsourcing.Priority;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admits commands according to {@link AdmissionControl}
+ */
+class AdmissionController {
+
+    private final AdmissionControl admissionControl;
+    private final Semaphore semaphore;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    AdmissionController(AdmissionControl admissionControl) {
+        this.admissionControl = admissionControl;
+        this.semaphore = new Semaphore(admissionControl.getCapacity(), true);
+    }
+
+    /**
+     * Admits a command, every admitted command should be {@link #release() released} once completed
+     *
+     * @param command
+     * @throws RejectedExecutionException if the command can't be admitted
+     * @throws InterruptedException if interrupted while waiting for capacity
+     */
+    void admit(Command<?, ?> command) throws RejectedExecutionException, InterruptedException {
+        switch (admissionControl.getPolicy()) {
+            case BLOCK:
+                if (!semaphore.tryAcquire()) {
+                    long start = System.nanoTime();
+                    semaphore.acquire();
+                    long waited = System.nanoTime() - start;
+                    waitTime.add(waited);
+                    maxWaitTime.accumulateAndGet(waited, Math::max);
+                }
+                break;
+            case REJECT:
+                if (!semaphore.tryAcquire()) {
+                    reject(command);
+                }
+                break;
+            case SHED:
+                if (getPending() >= limit(PriorityExecutor.priority(command)) || !semaphore.tryAcquire()) {
+                    reject(command);
+                }
+                break;
+        }
+        admitted.increment();
+    }
+
+    void release() {
+        semaphore.release();
+    }
+
+    /**
+     * @return number of admitted commands that haven't completed yet
+     */
+    int getPending() {
+        return admissionControl.getCapacity() - semaphore.availablePermits();
+    }
+
+    /**
+     * @return number of threads waiting for capacity
+     */
+    int getWaiting() {
+        return semaphore.getQueueLength();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return average time spent waiting for admission, in microseconds
+     */
+    long getAverageWaitTime() {
+        long count = admitted.sum();
+        return count == 0 ? 0 : waitTime.sum() / count / 1000;
+    }
+
+    /**
+     * @return maximum time spent waiting for admission, in microseconds
+     */
+    long getMaxWaitTime() {
+        return maxWaitTime.get() / 1000;
+    }
+
+    private void reject(Command<?, ?> command) {
+        rejected.increment();
+        throw new RejectedExecutionException("Command " + command.getClass().getName() + " rejected, " +
+                                                     getPending() + " commands pending");
+    }
+
+    private int limit(Priority.Level level) {
+        int capacity = admissionControl.getCapacity();
+        switch (level) {
+            case LOW:
+                return capacity / 2;
+            case NORMAL:
+                return capacity * 4 / 5;
+            default:
+                return capacity;
+        }
+    }
+}
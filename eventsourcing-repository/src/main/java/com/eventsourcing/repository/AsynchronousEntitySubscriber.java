@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Entity;
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.EntitySubscriber;
+import com.eventsourcing.JournalEntityHandle;
+import com.eventsourcing.Repository;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * {@link EntitySubscriber} that delivers entities to another subscriber asynchronously, so that
+ * a slow subscriber doesn't add its latency to command publishing.
+ * <p>
+ * Entities of every committed command are put onto a bounded queue and are delivered, in the order of
+ * commits, by a single task running on an executor. Entities of multiple commits waiting in the queue
+ * are delivered with one {@link EntitySubscriber#accept(Repository, Stream)} invocation, up to
+ * <code>maxBatchSize</code> entities at a time.
+ * <p>
+ * What happens when the queue is full is determined by {@link OverflowPolicy}.
+ * <p>
+ * Once the subscriber is no longer needed, it should be removed from the repository and closed
+ * (see {@link #close()}).
+ *
+ * @param <T>
+ */
+@Slf4j
+public class AsynchronousEntitySubscriber<T extends Entity> implements EntitySubscriber<T>, AutoCloseable {
+
+    public enum OverflowPolicy {
+        /**
+         * Block the committing command until there is room in the queue
+         */
+        BLOCK,
+        /**
+         * Discard entities that don't fit into the queue
+         */
+        DROP,
+        /**
+         * Keep only UUIDs of entities that don't fit into the queue and retrieve them from the journal
+         * upon delivery. Up to <code>spillCapacity</code> entities are kept this way, the rest are discarded.
+         */
+        SPILL
+    }
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024;
+    public static final int DEFAULT_SPILL_CAPACITY = 1024 * 1024;
+
+    private final EntitySubscriber<T> subscriber;
+    private final Executor executor;
+    /**
+     * Executor created by this subscriber, shut down when it is closed
+     */
+    private ExecutorService ownedExecutor;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxBatchSize;
+    private final int spillCapacity;
+
+    private final BlockingQueue<Batch<T>> queue;
+    private final Queue<Spilled> spill = new ArrayDeque<>();
+    /**
+     * Number of entities in {@link #spill}, guarded by it
+     */
+    private int spillSize;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final AtomicLong lag = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    /**
+     * Time between the commit and the delivery of the most recently delivered entities, in milliseconds
+     */
+    @Getter
+    private volatile long lastDeliveryDelay;
+
+    /**
+     * Creates an asynchronous subscriber delivering entities in a daemon thread of its own,
+     * which is shut down when the subscriber is closed
+     *
+     * @param subscriber     subscriber to deliver entities to
+     * @param capacity       maximum number of commits waiting for delivery
+     * @param overflowPolicy what to do when there are more commits waiting
+     */
+    public AsynchronousEntitySubscriber(EntitySubscriber<T> subscriber, int capacity,
+                                        OverflowPolicy overflowPolicy) {
+        this(subscriber, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                                                                   .setDaemon(true)
+                                                                   .setNameFormat("AsynchronousEntitySubscriber-%d")
+                                                                   .build()),
+             capacity, overflowPolicy, DEFAULT_MAX_BATCH_SIZE, DEFAULT_SPILL_CAPACITY);
+        ownedExecutor = (ExecutorService) executor;
+    }
+
+    /**
+     * @param subscriber     subscriber to deliver entities to
+     * @param executor       executor to deliver entities with
+     * @param capacity       maximum number of commits waiting for delivery
+     * @param overflowPolicy what to do when there are more commits waiting
+     * @param maxBatchSize   maximum number of entities delivered at once
+     */
+    public AsynchronousEntitySubscriber(EntitySubscriber<T> subscriber, Executor executor, int capacity,
+                                        OverflowPolicy overflowPolicy, int maxBatchSize) {
+        this(subscriber, executor, capacity, overflowPolicy, maxBatchSize, DEFAULT_SPILL_CAPACITY);
+    }
+
+    /**
+     * @param subscriber     subscriber to deliver entities to
+     * @param executor       executor to deliver entities with
+     * @param capacity       maximum number of commits waiting for delivery
+     * @param overflowPolicy what to do when there are more commits waiting
+     * @param maxBatchSize   maximum number of entities delivered at once
+     * @param spillCapacity  maximum number of entities spilled (see {@link OverflowPolicy#SPILL})
+     */
+    public AsynchronousEntitySubscriber(EntitySubscriber<T> subscriber, Executor executor, int capacity,
+                                        OverflowPolicy overflowPolicy, int maxBatchSize, int spillCapacity) {
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.overflowPolicy = overflowPolicy;
+        this.maxBatchSize = maxBatchSize;
+        this.spillCapacity = spillCapacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override public boolean matches(Repository repository, T entity) {
+        return subscriber.matches(repository, entity);
+    }
+
+    @Override public Collection<Class<? extends Entity>> entityClasses() {
+        return subscriber.entityClasses();
+    }
+
+    @SneakyThrows
+    @Override public void accept(Repository repository, Stream<EntityHandle<T>> entityStream) {
+        List<EntityHandle<T>> entities = entityStream.collect(Collectors.toList());
+        if (entities.isEmpty()) {
+            return;
+        }
+        if (closed) {
+            dropped.addAndGet(entities.size());
+            return;
+        }
+        Batch<T> batch = new Batch<>(repository, entities);
+        synchronized (spill) {
+            // once spilling, keep spilling until the spill is delivered to maintain the order
+            if (spill.isEmpty() && queue.offer(batch)) {
+                lag.addAndGet(entities.size());
+                schedule();
+                return;
+            }
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                if (spillSize + entities.size() > spillCapacity) {
+                    dropped.addAndGet(entities.size());
+                    return;
+                }
+                spill.add(new Spilled(batch));
+                spillSize += entities.size();
+                spilled.addAndGet(entities.size());
+                lag.addAndGet(entities.size());
+                schedule();
+                return;
+            }
+        }
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            lag.addAndGet(entities.size());
+            schedule();
+            queue.put(batch);
+            schedule();
+        } else {
+            dropped.addAndGet(entities.size());
+        }
+    }
+
+    /**
+     * @return number of entities committed but not yet delivered
+     */
+    public long getLag() {
+        return lag.get();
+    }
+
+    /**
+     * @return number of entities delivered
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return number of entities dropped because of an overflow (see {@link OverflowPolicy#DROP}
+     * and {@link OverflowPolicy#SPILL}) or because the subscriber was closed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of entities spilled because of an overflow (see {@link OverflowPolicy#SPILL})
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * Stops accepting entities (they are dropped instead) and shuts down the executor, if it was
+     * created by this subscriber. Entities accepted before are still delivered.
+     */
+    @Override public void close() {
+        closed = true;
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // closed while accepting
+                scheduled.set(false);
+                log.warn("Subscriber " + subscriber + " was closed with entities pending delivery");
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                List<EntityHandle<T>> entities = new ArrayList<>();
+                Repository repository = null;
+                long committed = 0;
+                Batch<T> batch;
+                while (entities.size() < maxBatchSize && (batch = queue.poll()) != null) {
+                    entities.addAll(batch.entities);
+                    repository = batch.repository;
+                    committed = batch.committed;
+                }
+                if (entities.isEmpty()) {
+                    synchronized (spill) {
+                        Spilled s;
+                        while (entities.size() < maxBatchSize && (s = spill.poll()) != null) {
+                            for (UUID uuid : s.uuids) {
+                                entities.add(new JournalEntityHandle<>(s.repository.getJournal(), uuid));
+                            }
+                            spillSize -= s.uuids.length;
+                            repository = s.repository;
+                            committed = s.committed;
+                        }
+                    }
+                }
+                if (entities.isEmpty()) {
+                    break;
+                }
+                try {
+                    subscriber.accept(repository, entities.stream());
+                } catch (Exception e) {
+                    log.error("Subscriber " + subscriber + " failed", e);
+                }
+                lag.addAndGet(-entities.size());
+                delivered.addAndGet(entities.size());
+                lastDeliveryDelay = System.currentTimeMillis() - committed;
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        boolean pending;
+        synchronized (spill) {
+            pending = !queue.isEmpty() || !spill.isEmpty();
+        }
+        if (pending) {
+            schedule();
+        }
+    }
+
+    private static class Batch<T extends Entity> {
+        private final Repository repository;
+        private final List<EntityHandle<T>> entities;
+        private final long committed = System.currentTimeMillis();
+
+        private Batch(Repository repository, List<EntityHandle<T>> entities) {
+            this.repository = repository;
+            this.entities = entities;
+        }
+    }
+
+    private static class Spilled {
+        private final Repository repository;
+        private final UUID[] uuids;
+        private final long committed;
+
+        private Spilled(Batch<?> batch) {
+            this.repository = batch.repository;
+            this.uuids = batch.entities.stream().map(EntityHandle::uuid).toArray(UUID[]::new);
+            this.committed = batch.committed;
+        }
+    }
+
+    @Override public String toString() {
+        return "AsynchronousEntitySubscriber[" + subscriber + "]";
+    }
+}
@@ -10,6 +10,9 @@ package com.eventsourcing.repository;
 import com.eventsourcing.Entity;
 import com.eventsourcing.EntitySubscriber;
 
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * {@link EntitySubscriber} that subscribes to all entities that are inherited from
  * a certain class.
@@ -27,4 +30,8 @@ public class ClassEntitySubscriber<T extends Entity> implements EntitySubscriber
         return klass.isAssignableFrom(entity.getClass());
     }
 
+    @Override public Collection<Class<? extends Entity>> entityClasses() {
+        return Collections.<Class<? extends Entity>>singleton(klass);
+    }
+
 }
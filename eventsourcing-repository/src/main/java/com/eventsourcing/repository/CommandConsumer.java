@@ -14,6 +14,7 @@ import com.google.common.util.concurrent.Service;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public interface CommandConsumer extends Service {
@@ -22,5 +23,18 @@ public interface CommandConsumer extends Service {
     }
     <T, S, C extends Command<S, T>> CompletableFuture<T> publish(C command, Collection<EntitySubscriber> subscribers);
 
+    List<CompletableFuture<?>> publishAll(Collection<? extends Command<?, ?>> commands,
+                                          Collection<EntitySubscriber> subscribers);
+
     HybridTimestamp getTimestamp();
+
+    /**
+     * Waits until all commands timestamped at or before <code>token</code> are indexed
+     *
+     * @param token
+     * @throws InterruptedException
+     * @throws com.eventsourcing.index.IndexingException if any of these commands failed to be indexed
+     */
+    default void awaitIndexed(HybridTimestamp token) throws InterruptedException {
+    }
 }
@@ -12,35 +12,97 @@ import com.eventsourcing.cep.events.DescriptionChanged;
 import com.eventsourcing.events.CommandTerminatedExceptionally;
 import com.eventsourcing.events.EventCausalityEstablished;
 import com.eventsourcing.events.JavaExceptionOccurred;
+import com.eventsourcing.hlc.HybridClock;
 import com.eventsourcing.hlc.HybridTimestamp;
 import com.eventsourcing.hlc.PhysicalTimeProvider;
 import com.eventsourcing.index.IndexEngine;
 import com.google.common.util.concurrent.AbstractService;
-import com.googlecode.cqengine.ConcurrentIndexedCollection;
 import com.googlecode.cqengine.IndexedCollection;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 @Slf4j
 class CommandConsumerImpl extends AbstractService implements CommandConsumer {
 
-    private Executor threadPool = Executors.newWorkStealingPool(Runtime.getRuntime().availableProcessors());
+    @Setter
+    private Executor threadPool;
+    private boolean ownThreadPool;
+
+    @Setter
+    private GroupCommit groupCommit;
+    private GroupCommitter groupCommitter;
+
+    @Setter
+    private CommandPartitioner partitioner;
+    private PartitionedExecutor partitionedExecutor;
+
+    @Setter
+    private AdmissionController admissionController;
+
+    @Setter
+    private PriorityScheduling priorityScheduling;
+    private PriorityExecutor priorityExecutor;
+
+    @Setter
+    private boolean asynchronousIndexing;
+    @Getter
+    private IndexUpdater indexUpdater;
+
+    @Setter
+    private boolean compactCausality;
+
+    @Setter
+    private int streamingBudget;
+
+    @Setter
+    private CommandMetrics metrics;
+
+    @Setter
+    private StackTraceDeduplication stackTraceDeduplication;
+    private StackTraceDeduplicator stackTraceDeduplicator;
+
+    @Setter
+    private OptimisticConcurrency optimisticConcurrency;
+    private KeyVersions keyVersions;
+
+    @Setter
+    private Pipeline pipeline;
+    private PipelineStage journalStage;
+    private PipelineStage indexStage;
+    private PipelineStage dispatchStage;
 
     private final Repository repository;
     private final Journal journal;
     private final IndexEngine indexEngine;
     private final LockProvider lockProvider;
 
-    @Getter
-    private HybridTimestamp timestamp;
+    /**
+     * Maximum number of timestamps that can be reserved at once (see {@link HybridClock#reserve(int)})
+     */
+    private static final int MAX_RESERVATION = 1 << 16;
+
+    /**
+     * Whether commands of a class are {@link Streaming}, looked up once per class
+     */
+    private static final ClassValue<Boolean> STREAMING = new ClassValue<Boolean>() {
+        @Override protected Boolean computeValue(Class<?> type) {
+            return type.isAnnotationPresent(Streaming.class);
+        }
+    };
 
+    private final HybridClock clock;
 
     @SneakyThrows
     public CommandConsumerImpl(Iterable<Class<? extends Command>> commandClasses,
@@ -51,8 +113,40 @@ class CommandConsumerImpl extends AbstractService implements CommandConsumer {
         this.journal = journal;
         this.indexEngine = indexEngine;
         this.lockProvider = lockProvider;
-        this.timestamp = new HybridTimestamp(timeProvider);
-        timestamp.update();
+        this.clock = new HybridClock(timeProvider);
+        clock.tick();
+    }
+
+    @Override
+    public HybridTimestamp getTimestamp() {
+        return clock.timestamp();
+    }
+
+    /**
+     * Timestamps a command with the repository clock (or updates the clock with command's own timestamp)
+     * and registers it for asynchronous indexing, if enabled
+     *
+     * @return command's transaction timestamp
+     */
+    private HybridTimestamp timestamp(Command<?, ?> command) {
+        if (indexUpdater == null) {
+            return timestamp(command, command.timestamp() == null ? clock.tick() : clock.update(command.timestamp()));
+        }
+        // commands have to be registered in the order of their timestamps
+        synchronized (indexUpdater) {
+            HybridTimestamp txTimestamp = timestamp(command, command.timestamp() == null ?
+                    clock.tick() : clock.update(command.timestamp()));
+            indexUpdater.register(command.timestamp());
+            return txTimestamp;
+        }
+    }
+
+    private HybridTimestamp timestamp(Command<?, ?> command, long timestamp) {
+        HybridTimestamp txTimestamp = clock.toHybridTimestamp(timestamp);
+        if (command.timestamp() == null) {
+            command.timestamp(txTimestamp.clone());
+        }
+        return txTimestamp;
     }
 
     private void timestamp(Entity entity, HybridTimestamp timestamp) {
@@ -60,80 +154,262 @@ class CommandConsumerImpl extends AbstractService implements CommandConsumer {
             timestamp.update();
             entity.timestamp(timestamp.clone());
         } else {
-            timestamp.update(timestamp.clone());
+            timestamp.update(timestamp.getLogicalTime(), timestamp.getLogicalCounter());
         }
 
     }
 
-    private <S> EventStream<S> exceptionalTerminationStream(Exception e) {
+    /**
+     * @return current time if metrics are collected, 0 otherwise
+     */
+    private long now() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * @return time elapsed since <code>start</code> (see {@link #now()}) if metrics are collected, 0 otherwise
+     */
+    private long elapsed(long start) {
+        return metrics == null ? 0 : System.nanoTime() - start;
+    }
+
+    private void record(Command<?, ?> command, CommandMetrics.Phase phase, long nanos) {
+        if (metrics != null) {
+            metrics.record(command.getClass(), phase, nanos);
+        }
+    }
+
+    /**
+     * @param recording receives the UUID of the stack trace recorded along with the exception, if any
+     *                  (see {@link StackTraceDeduplicator#events(Exception, Consumer)})
+     */
+    private <S> EventStream<S> exceptionalTerminationStream(Exception e, Consumer<UUID> recording) {
         CommandTerminatedExceptionally commandTerminatedExceptionally = new CommandTerminatedExceptionally();
-        return EventStream.of(Stream.of( new CommandTerminatedExceptionally(),
-                                                DescriptionChanged.builder()
+        DescriptionChanged descriptionChanged = DescriptionChanged.builder()
                                                                   .description(e.getMessage())
-                                                                  .reference(commandTerminatedExceptionally.uuid()).build(),
-                                                new JavaExceptionOccurred(e)));
+                                                                  .reference(commandTerminatedExceptionally.uuid())
+                                                                  .build();
+        Stream<Event> exceptionOccurred = stackTraceDeduplicator == null ? Stream.of(new JavaExceptionOccurred(e)) :
+                stackTraceDeduplicator.events(e, recording);
+        return EventStream.of(Stream.concat(Stream.of(commandTerminatedExceptionally, descriptionChanged),
+                                            exceptionOccurred));
     }
 
     private void onEvent(Event event,
-                         Map<Class<? extends Event>, IndexedCollection<EntityHandle<Event>>> txCollections,
+                         Map<Class<? extends Event>, List<EntityHandle<Event>>> txCollections,
                          Map<EntitySubscriber, Set<UUID>> subscriptions,
-                         Collection<EntitySubscriber> subscribers
+                         EntitySubscribers subscribers
                          ) {
-        IndexedCollection<EntityHandle<Event>> coll = txCollections
-                .computeIfAbsent(event.getClass(), klass -> new ConcurrentIndexedCollection<>());
+        List<EntityHandle<Event>> coll = txCollections.computeIfAbsent(event.getClass(), klass -> new ArrayList<>());
         coll.add(new ResolvedEntityHandle<>(event));
-        subscribers.stream()
-                      .filter(s -> s.matches(repository, event))
-                      .forEach(s -> subscriptions.get(s).add(event.uuid()));
+        subscribe(event, subscriptions, subscribers);
+    }
+
+    private void subscribe(Entity entity, Map<EntitySubscriber, Set<UUID>> subscriptions,
+                           EntitySubscribers subscribers) {
+        for (EntitySubscriber subscriber : subscribers.route(entity.getClass())) {
+            if (subscriber.matches(repository, entity)) {
+                subscriptions.computeIfAbsent(subscriber, s -> new LinkedHashSet<>()).add(entity.uuid());
+            }
+        }
+    }
+
+    private void dispatch(Map<EntitySubscriber, Set<UUID>> subscriptions) {
+        for (Map.Entry<EntitySubscriber, Set<UUID>> entry : subscriptions.entrySet()) {
+            entry.getKey().accept(repository, entry.getValue().stream()
+                                                   .map(uuid -> new JournalEntityHandle<>(journal, uuid)));
+        }
     }
 
 
     @Override
     public <T, S, C extends Command<S, T>> CompletableFuture<T> publish(C command, Collection<EntitySubscriber>
-            subscribers) {
+            entitySubscribers) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (!admit(command, future)) {
+            return future;
+        }
+
+        EntitySubscribers subscribers = EntitySubscribers.of(entitySubscribers);
         Map<EntitySubscriber, Set<UUID>> subscriptions = new HashMap<>();
-        subscribers.forEach(s -> subscriptions.put(s, new HashSet<>()));
 
-        Map<Class<? extends Event>, IndexedCollection<EntityHandle<Event>>> txCollections = new HashMap<>();
+        Map<Class<? extends Event>, List<EntityHandle<Event>>> txCollections = new HashMap<>();
 
-        CompletableFuture<T> future = new CompletableFuture<>();
-        HybridTimestamp txTimestamp;
-        synchronized (timestamp) {
-            timestamp(command, timestamp);
-            txTimestamp = timestamp.clone();
-        }
-        final HybridTimestamp commandTimestamp = txTimestamp.clone();
-        threadPool.execute(
-                new CommandHandler<>(commandTimestamp, command, txCollections, subscriptions, subscribers,
-                                     future,
-                                     txTimestamp));
+        // neither of the handler's timestamps is ever modified, so they can share the instance
+        HybridTimestamp txTimestamp = timestamp(command);
+        Object partitionKey = partitioner == null ? null : partitioner.partitionKey(command);
+        CommandHandler<S, T, C> handler = new CommandHandler<>(txTimestamp, command, txCollections,
+                                                               subscriptions, subscribers, future, txTimestamp,
+                                                               partitionKey);
+        handler.schedule();
 
         return future;
     }
 
+    @Override @SuppressWarnings("unchecked")
+    public List<CompletableFuture<?>> publishAll(Collection<? extends Command<?, ?>> commands,
+                                                 Collection<EntitySubscriber> entitySubscribers) {
+        EntitySubscribers subscribers = EntitySubscribers.of(entitySubscribers);
+        List<CompletableFuture<?>> futures = new ArrayList<>(commands.size());
+        if (partitioner != null) {
+            // partition lanes define the order of execution
+            for (Command command : commands) {
+                futures.add(publish(command, subscribers));
+            }
+            return futures;
+        }
+        List<CommandHandler> handlers = new ArrayList<>(commands.size());
+        List<Command> admitted = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            CompletableFuture future = new CompletableFuture();
+            futures.add(future);
+            if (admit(command, future)) {
+                admitted.add(command);
+                handlers.add(new CommandHandler(null, command, new HashMap<>(), new HashMap<>(), subscribers, future,
+                                                null, null));
+            }
+        }
+        if (indexUpdater == null && !handlers.isEmpty() && handlers.size() <= MAX_RESERVATION &&
+                admitted.stream().allMatch(command -> command.timestamp() == null)) {
+            // reserve timestamps for the entire batch at once
+            long first = clock.reserve(handlers.size());
+            for (int i = 0; i < handlers.size(); i++) {
+                handlers.get(i).setTimestamp(timestamp(admitted.get(i), first + i));
+            }
+        } else {
+            for (int i = 0; i < handlers.size(); i++) {
+                handlers.get(i).setTimestamp(timestamp(admitted.get(i)));
+            }
+        }
+        if (!handlers.isEmpty()) {
+            // the batch is executed with the highest priority of its commands
+            Priority.Level priority = admitted.stream().map(PriorityExecutor::priority).min(Comparator.naturalOrder())
+                                              .get();
+            execute(priority, new BatchHandler(handlers, subscribers));
+        }
+        return futures;
+    }
+
+    /**
+     * @return pipeline stages (empty if the pipeline is not configured)
+     */
+    List<PipelineStage> getPipelineStages() {
+        return journalStage == null ? Collections.emptyList() : Arrays.asList(journalStage, indexStage,
+                                                                              dispatchStage);
+    }
+
+    @Override
+    public void awaitIndexed(HybridTimestamp token) throws InterruptedException {
+        if (indexUpdater != null) {
+            indexUpdater.await(token);
+        }
+    }
+
+    private void execute(Priority.Level priority, Runnable task) {
+        if (priorityExecutor == null) {
+            threadPool.execute(task);
+        } else {
+            priorityExecutor.execute(priority, task);
+        }
+    }
+
+    private boolean admit(Command<?, ?> command, CompletableFuture<?> future) {
+        AdmissionController admissionController = this.admissionController;
+        if (admissionController != null) {
+            try {
+                admissionController.admit(command);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return false;
+            }
+            future.whenComplete((result, throwable) -> admissionController.release());
+        }
+        return true;
+    }
+
     @Override @SuppressWarnings("unchecked")
     protected void doStart() {
+        if (threadPool == null) {
+            threadPool = CommandExecutors.workStealing();
+            ownThreadPool = true;
+        }
+        if (groupCommit != null) {
+            groupCommitter = new GroupCommitter(journal, groupCommit);
+            groupCommitter.startAsync().awaitRunning();
+        }
+        if (partitioner != null) {
+            partitionedExecutor = new PartitionedExecutor(threadPool);
+        }
+        if (priorityScheduling != null) {
+            priorityExecutor = new PriorityExecutor(threadPool, priorityScheduling);
+        }
+        if (stackTraceDeduplication != null) {
+            stackTraceDeduplicator = new StackTraceDeduplicator(journal, stackTraceDeduplication);
+        }
+        if (optimisticConcurrency != null) {
+            keyVersions = new KeyVersions();
+        }
+        if (pipeline != null) {
+            journalStage = new PipelineStage("journal", pipeline.getJournalThreads(), pipeline.getQueueCapacity());
+            indexStage = new PipelineStage("index", pipeline.getIndexThreads(), pipeline.getQueueCapacity());
+            dispatchStage = new PipelineStage("dispatch", pipeline.getDispatchThreads(),
+                                              pipeline.getQueueCapacity());
+        }
+        if (asynchronousIndexing) {
+            indexUpdater = new IndexUpdater(indexEngine);
+            indexUpdater.startAsync().awaitRunning();
+        }
         notifyStarted();
     }
 
     @Override
     protected void doStop() {
+        if (journalStage != null) {
+            // stages are drained in the order of the pipeline
+            journalStage.shutdown();
+            indexStage.shutdown();
+            dispatchStage.shutdown();
+        }
+        if (groupCommitter != null) {
+            groupCommitter.stopAsync().awaitTerminated();
+        }
+        if (indexUpdater != null) {
+            indexUpdater.stopAsync().awaitTerminated();
+        }
+        if (ownThreadPool) {
+            ((ExecutorService) threadPool).shutdown();
+            threadPool = null;
+            ownThreadPool = false;
+        }
         notifyStopped();
     }
 
     private class CommandHandler<S, T, C extends Command<S, T>> implements Runnable {
-        private final HybridTimestamp commandTimestamp;
+        private HybridTimestamp commandTimestamp;
         private final C command;
-        private final Map<Class<? extends Event>, IndexedCollection<EntityHandle<Event>>> txCollections;
+        private final Map<Class<? extends Event>, List<EntityHandle<Event>>> txCollections;
         private final Map<EntitySubscriber, Set<UUID>> subscriptions;
-        private final Collection<EntitySubscriber> subscribers;
+        private final EntitySubscribers subscribers;
         private final CompletableFuture<T> future;
-        private final HybridTimestamp txTimestamp;
+        private HybridTimestamp txTimestamp;
+        private final Object partitionKey;
+        private final boolean streaming;
+        private final long published = now();
+        private long commitTime;
+        private int conflicts;
+        /**
+         * Stack trace recorded along with command's exceptional termination, see {@link StackTraceDeduplicator}
+         */
+        private UUID stackTrace;
 
         public CommandHandler(HybridTimestamp commandTimestamp, C command,
-                              Map<Class<? extends Event>, IndexedCollection<EntityHandle<Event>>> txCollections,
-                              Map<EntitySubscriber, Set<UUID>> subscriptions, Collection<EntitySubscriber> subscribers,
-                              CompletableFuture<T> future, HybridTimestamp txTimestamp) {
+                              Map<Class<? extends Event>, List<EntityHandle<Event>>> txCollections,
+                              Map<EntitySubscriber, Set<UUID>> subscriptions, EntitySubscribers subscribers,
+                              CompletableFuture<T> future, HybridTimestamp txTimestamp, Object partitionKey) {
             this.commandTimestamp = commandTimestamp;
             this.command = command;
             this.txCollections = txCollections;
@@ -141,96 +417,675 @@ class CommandConsumerImpl extends AbstractService implements CommandConsumer {
             this.subscribers = subscribers;
             this.future = future;
             this.txTimestamp = txTimestamp;
+            this.partitionKey = partitionKey;
+            this.streaming = STREAMING.get(command.getClass());
         }
 
-        @Override public void run() {
-            HybridTimestamp ts = commandTimestamp.clone();
-            HybridTimestamp startingTxTimestamp = ts.clone();
+        private void setTimestamp(HybridTimestamp timestamp) {
+            this.commandTimestamp = timestamp;
+            this.txTimestamp = timestamp.clone();
+        }
 
-            TrackingLockProvider lockProvider = new TrackingLockProvider(CommandConsumerImpl.this.lockProvider);
-            lockProvider.startAsync().awaitRunning();
+        private void schedule() {
+            if (partitionKey == null) {
+                CommandConsumerImpl.this.execute(PriorityExecutor.priority(command), this);
+            } else {
+                partitionedExecutor.execute(partitionKey, this);
+            }
+        }
+
+        @Override public void run() {
+            // streaming commands commit in chunks, so their locks can't be validated at once
+            TrackingLockProvider lockProvider = new TrackingLockProvider(CommandConsumerImpl.this.lockProvider,
+                                                                           partitionKey,
+                                                                           keyVersions, !streaming);
+            lockProvider.setTimed(metrics != null);
             EventStream<S> eventStream;
             Exception exception = null;
 
+            long start = now();
             try {
                 eventStream = command.events(repository, lockProvider);
             } catch (Exception e) {
-                eventStream = CommandConsumerImpl.this.exceptionalTerminationStream(e);
+                eventStream = CommandConsumerImpl.this.exceptionalTerminationStream(e, this::recording);
                 exception = e;
             }
+            record(command, CommandMetrics.Phase.EVENTS, elapsed(start) - lockProvider.getLockWaitTime());
+
+            // commands of the same partition must not overlap, so they can't be handed over to the pipeline
+            if (journalStage == null || streaming || partitionKey != null) {
+                execute(lockProvider, eventStream, exception);
+            } else {
+                executeStaged(lockProvider, eventStream, exception);
+            }
+        }
+
+        /**
+         * Journals and indexes command's events (or, if <code>exception</code> is not null, its exceptional
+         * termination) and completes the command
+         */
+        private void execute(TrackingLockProvider lockProvider, EventStream<S> eventStream, Exception exception) {
+            HybridTimestamp ts = commandTimestamp.clone();
 
             boolean pending = true;
+            boolean terminating = exception != null;
 
             main:
             while (pending) {
-                Journal.Transaction tx = journal.beginTransaction();
-                Stream<? extends Event> stream = eventStream.getStream();
-                Iterator<? extends Event> iterator = stream.iterator();
+                Command<S, T> command_;
 
+                long start = now();
+                commitTime = 0;
                 try {
-                    while (iterator.hasNext()) {
-                        Event event = iterator.next();
-                        CommandConsumerImpl.this.timestamp(event, ts);
-                        event = journal.journal(tx, event);
-                        EventCausalityEstablished causalityEstablished = EventCausalityEstablished.builder()
-                                                                                                  .event(event.uuid())
-                                                                                                  .command(
-                                                                                                          command.uuid())
-                                                                                                  .build();
-                        CommandConsumerImpl.this.timestamp(causalityEstablished, ts);
-                        causalityEstablished = (EventCausalityEstablished) journal.journal(tx, causalityEstablished);
-                        CommandConsumerImpl.this.onEvent(event, txCollections, subscriptions, subscribers);
-                        CommandConsumerImpl.this
-                                .onEvent(causalityEstablished, txCollections, subscriptions, subscribers);
+                    if (streaming) {
+                        command_ = journalStreaming(eventStream, ts);
+                    } else {
+                        // exceptional termination doesn't depend on what the command has read
+                        TrackingLockProvider validated = terminating ? null : lockProvider;
+                        command_ = groupCommitter == null ? journal(eventStream, ts, validated) :
+                                journalGrouped(eventStream, ts, validated);
                     }
+                    record(command, CommandMetrics.Phase.JOURNAL, elapsed(start) - commitTime);
+                    record(command, CommandMetrics.Phase.COMMIT, commitTime);
                 } catch (Exception e) {
                     txCollections.clear();
-                    tx.rollback();
-                    eventStream = CommandConsumerImpl.this.exceptionalTerminationStream(e);
-                    ts = startingTxTimestamp;
+                    subscriptions.clear();
+                    if (terminating) {
+                        fail(lockProvider, e);
+                        return;
+                    }
+                    if (e instanceof ConflictException) {
+                        if (retry(lockProvider)) {
+                            return;
+                        }
+                        e = conflicted();
+                    }
+                    eventStream = CommandConsumerImpl.this.exceptionalTerminationStream(e, this::recording);
+                    ts = commandTimestamp.clone();
                     exception = e;
+                    terminating = true;
                     continue main;
                 }
 
                 pending = false;
 
+                if (index(command_)) {
+                    dispatch();
+                }
+
+                clock.update(ts);
+
+
+                complete(eventStream, lockProvider, exception);
+            }
+
+        }
+
+        /**
+         * Same as {@link #execute(TrackingLockProvider, EventStream, Exception)}, but only materializes command's
+         * events on the current thread, while journalling, indexing and completion are done by the pipeline stages
+         * (see {@link Pipeline})
+         */
+        private void executeStaged(TrackingLockProvider lockProvider, EventStream<S> eventStream,
+                                   Exception exception) {
+            HybridTimestamp ts = commandTimestamp.clone();
+            List<Entity> entities;
+            long start = now();
+            try {
+                entities = entities(eventStream, ts);
+            } catch (Exception e) {
+                if (exception != null) {
+                    fail(lockProvider, e);
+                    return;
+                }
+                executeStaged(lockProvider, CommandConsumerImpl.this.exceptionalTerminationStream(e, this::recording),
+                              e);
+                return;
+            }
+            record(command, CommandMetrics.Phase.JOURNAL, elapsed(start));
+            journalStage.submit(() -> journalStaged(lockProvider, eventStream, exception, entities, ts));
+        }
+
+        /**
+         * Journal stage of {@link #executeStaged(TrackingLockProvider, EventStream, Exception)}
+         */
+        private void journalStaged(TrackingLockProvider lockProvider, EventStream<S> eventStream,
+                                   Exception exception, List<Entity> entities, HybridTimestamp ts) {
+            List<Entity> journalled;
+            long start = now();
+            try {
+                if (exception == null) {
+                    validate(lockProvider);
+                }
+                if (groupCommitter == null) {
+                    JournalBatch batch = new JournalBatch(journal);
+                    JournalBatch.Entry entry = new JournalBatch.Entry(entities, cause());
+                    batch.add(entry);
+                    batch.commit();
+                    journalled = entry.get();
+                } else {
+                    journalled = groupCommitter.journal(entities, cause()).get();
+                }
+            } catch (Exception e) {
+                Exception cause = e instanceof ExecutionException && e.getCause() instanceof Exception ?
+                        (Exception) e.getCause() : e;
+                if (exception != null) {
+                    // even the exceptional termination can't be journalled
+                    fail(lockProvider, cause);
+                    return;
+                }
+                if (cause instanceof ConflictException) {
+                    if (retry(lockProvider)) {
+                        return;
+                    }
+                    cause = conflicted();
+                }
+                EventStream<S> terminationStream = CommandConsumerImpl.this
+                        .exceptionalTerminationStream(cause, this::recording);
+                HybridTimestamp terminationTs = commandTimestamp.clone();
+                journalStaged(lockProvider, terminationStream, cause, entities(terminationStream, terminationTs),
+                              terminationTs);
+                return;
+            }
+            record(command, CommandMetrics.Phase.COMMIT, elapsed(start));
+            indexStage.submit(() -> {
+                Command<S, T> command_ = onJournalled(journalled, txCollections, subscriptions);
+                boolean dispatch = index(command_);
+                dispatchStage.submit(() -> {
+                    if (dispatch) {
+                        dispatch();
+                    }
+                    clock.update(ts);
+                    try {
+                        complete(eventStream, lockProvider, exception);
+                    } catch (Exception e) {
+                        // there's no caller to propagate this to
+                        lockProvider.release();
+                        completed(lockProvider, true);
+                        future.completeExceptionally(e);
+                    }
+                });
+            });
+        }
+
+        /**
+         * Indexes journalled events (collected in <code>txCollections</code>) and the command
+         * or, with asynchronous indexing, hands them over to the index updater
+         *
+         * @return <code>true</code> if subscribers are yet to be notified with {@link #dispatch()}
+         */
+        @SuppressWarnings("unchecked")
+        private boolean index(Command<S, T> command_) {
+            CommandConsumerImpl.this.subscribe(command_, subscriptions, subscribers);
+            if (indexUpdater != null) {
+                indexUpdater.submit(new IndexUpdater.Update(command.timestamp(), txCollections, command_,
+                                                            this::dispatch));
+                return false;
+            }
+            long start = now();
+            for (Map.Entry<Class<? extends Event>, List<EntityHandle<Event>>> pair :
+                    txCollections.entrySet()) {
+                indexEngine.getIndexedCollection((Class<Event>) pair.getKey()).addAll(pair.getValue());
+            }
+            IndexedCollection<EntityHandle<Command<S, T>>> coll = indexEngine
+                    .getIndexedCollection((Class<Command<S, T>>) command_.getClass());
+            coll.add(new ResolvedEntityHandle<>(command_));
+            record(command, CommandMetrics.Phase.INDEX, elapsed(start));
+            return true;
+        }
+
+        /**
+         * Notifies subscribers
+         */
+        private void dispatch() {
+            long start = now();
+            CommandConsumerImpl.this.dispatch(subscriptions);
+            record(command, CommandMetrics.Phase.DISPATCH, elapsed(start));
+        }
+
+        /**
+         * Validates keys read in optimistic mode (see {@link OptimisticConcurrency})
+         *
+         * @param lockProvider command's lock provider, <code>null</code> if there's nothing to validate
+         * @throws ConflictException if any of the keys were changed by another command
+         */
+        private void validate(TrackingLockProvider lockProvider) {
+            if (lockProvider != null && !lockProvider.validate()) {
+                throw ConflictException.INSTANCE;
+            }
+        }
+
+        /**
+         * Executes the command again after a conflict, unless it ran out of retries. Partitioned commands
+         * are executed again in place, as rescheduling would put them behind the rest of their partition.
+         *
+         * @return <code>false</code> if the command ran out of retries
+         */
+        private boolean retry(TrackingLockProvider lockProvider) {
+            if (conflicts == optimisticConcurrency.getRetries()) {
+                return false;
+            }
+            conflicts++;
+            lockProvider.release();
+            if (partitionKey == null) {
+                schedule();
+            } else {
+                run();
+            }
+            return true;
+        }
+
+        private Exception conflicted() {
+            return new ConcurrentModificationException("Command " + command + " conflicted with other commands " +
+                                                               (conflicts + 1) + " times");
+        }
+
+        /**
+         * Completes the command exceptionally when even its exceptional termination can't be journalled
+         */
+        private void fail(TrackingLockProvider lockProvider, Exception e) {
+            if (indexUpdater != null) {
+                indexUpdater.unregister(command.timestamp());
+            }
+            if (stackTrace != null) {
+                stackTraceDeduplicator.discarded(stackTrace);
+            }
+            lockProvider.release();
+            completed(lockProvider, true);
+            future.completeExceptionally(e);
+        }
+
+        private void complete(EventStream<S> eventStream, TrackingLockProvider lockProvider, Exception exception) {
+            if (exception == null) {
+                long start = now();
+                T result = command.result(eventStream.getState(), repository, lockProvider);
+                record(command, CommandMetrics.Phase.RESULT, elapsed(start));
+                lockProvider.release();
+                completed(lockProvider, false);
+                future.complete(result);
+            } else {
+                if (stackTrace != null) {
+                    stackTraceDeduplicator.recorded(stackTrace);
+                }
+                lockProvider.release();
+                completed(lockProvider, true);
+                future.completeExceptionally(exception);
+            }
+        }
+
+        private void recording(UUID stackTrace) {
+            this.stackTrace = stackTrace;
+        }
+
+        /**
+         * Records lock wait and total latency of the command
+         */
+        private void completed(TrackingLockProvider lockProvider, boolean failed) {
+            if (metrics != null) {
+                metrics.record(command.getClass(), CommandMetrics.Phase.LOCK, lockProvider.getLockWaitTime());
+                metrics.record(command.getClass(), CommandMetrics.Phase.TOTAL, System.nanoTime() - published);
+                if (failed) {
+                    metrics.failed(command.getClass());
+                }
+            }
+        }
+
+        /**
+         * Journals command's events (along with their causality) and the command itself
+         * in a transaction of its own
+         *
+         * @param lockProvider command's lock provider to validate before committing (see {@link #validate(TrackingLockProvider)})
+         */
+        private Command<S, T> journal(EventStream<S> eventStream, HybridTimestamp ts,
+                                      TrackingLockProvider lockProvider) {
+            Journal.Transaction tx = journal.beginTransaction();
+            try {
+                Iterator<? extends Event> iterator = eventStream.getStream().iterator();
+                while (iterator.hasNext()) {
+                    journalEvent(tx, iterator.next(), ts);
+                }
                 Command<S, T> command_ = journal.journal(tx, command);
-                tx.commit();
+                validate(lockProvider);
+                commit(tx);
+                return command_;
+            } catch (Exception e) {
+                rollback(tx);
+                throw e;
+            }
+        }
 
-                for (Map.Entry<Class<? extends Event>, IndexedCollection<EntityHandle<Event>>> pair :
-                        txCollections.entrySet()) {
-                    IndexedCollection<EntityHandle<Event>> value = pair.getValue();
-                    indexEngine.getIndexedCollection((Class<Event>) pair.getKey()).addAll(value);
+        /**
+         * Journals command's events (along with their causality) in chunks of up to
+         * <code>streamingBudget</code> entities (see {@link Streaming}). Every chunk is committed,
+         * indexed and dispatched to subscribers as soon as it is filled up. The last chunk is committed
+         * along with the command itself and, just like in
+         * {@link #journal(EventStream, HybridTimestamp, TrackingLockProvider)}, is left in
+         * <code>txCollections</code> and <code>subscriptions</code>.
+         */
+        private Command<S, T> journalStreaming(EventStream<S> eventStream, HybridTimestamp ts) {
+            Journal.Transaction tx = journal.beginTransaction();
+            try {
+                int chunk = 0;
+                Iterator<? extends Event> iterator = eventStream.getStream().iterator();
+                while (iterator.hasNext()) {
+                    if (chunk >= streamingBudget) {
+                        Journal.Transaction chunkTx = tx;
+                        tx = null;
+                        commit(chunkTx);
+                        flushChunk(ts);
+                        tx = journal.beginTransaction();
+                        chunk = 0;
+                    }
+                    chunk += journalEvent(tx, iterator.next(), ts);
+                }
+                Command<S, T> command_ = journal.journal(tx, command);
+                commit(tx);
+                return command_;
+            } catch (Exception e) {
+                if (tx != null) {
+                    rollback(tx);
                 }
-                IndexedCollection<EntityHandle<Command<S, T>>> coll = indexEngine
-                        .getIndexedCollection((Class<Command<S, T>>) command_.getClass());
-                EntityHandle<Command<?, ?>> commandHandle = new JournalEntityHandle<>(journal, command_.uuid());
-                coll.add(new ResolvedEntityHandle<>(command_));
-                subscriptions.entrySet().stream()
-                             .forEach(entry -> entry.getKey()
-                                                    .accept(repository, entry.getValue()
-                                                                 .stream()
-                                                                 .map(uuid -> new JournalEntityHandle<>(journal,
-                                                                                                        uuid))));
-                subscribers.stream()
-                           .filter(s -> s.matches(repository, command_))
-                           .forEach(s -> s.accept(repository, Stream.of(commandHandle)));
+                throw e;
+            }
+        }
 
-                synchronized (timestamp) {
-                    timestamp.update(txTimestamp);
+        /**
+         * Indexes and dispatches a committed chunk of a streaming command and releases it
+         */
+        @SuppressWarnings("unchecked")
+        private void flushChunk(HybridTimestamp ts) {
+            long start = now();
+            for (Map.Entry<Class<? extends Event>, List<EntityHandle<Event>>> pair :
+                    txCollections.entrySet()) {
+                indexEngine.getIndexedCollection((Class<Event>) pair.getKey()).addAll(pair.getValue());
+            }
+            record(command, CommandMetrics.Phase.INDEX, elapsed(start));
+            start = now();
+            CommandConsumerImpl.this.dispatch(subscriptions);
+            record(command, CommandMetrics.Phase.DISPATCH, elapsed(start));
+            txCollections.clear();
+            subscriptions.clear();
+            clock.update(ts);
+        }
+
+        private void commit(Journal.Transaction tx) {
+            long start = now();
+            tx.commit();
+            commitTime += elapsed(start);
+        }
+
+        /**
+         * Journals an event (along with its causality)
+         *
+         * @return number of entities journalled
+         */
+        private int journalEvent(Journal.Transaction tx, Event event, HybridTimestamp ts) {
+            CommandConsumerImpl.this.timestamp(event, ts);
+            if (compactCausality) {
+                event = journal.journal(tx, event, command.uuid());
+                CommandConsumerImpl.this.onEvent(event, txCollections, subscriptions, subscribers);
+                return 1;
+            }
+            event = journal.journal(tx, event);
+            EventCausalityEstablished causalityEstablished = causality(event, ts);
+            causalityEstablished = (EventCausalityEstablished) journal.journal(tx, causalityEstablished);
+            CommandConsumerImpl.this.onEvent(event, txCollections, subscriptions, subscribers);
+            CommandConsumerImpl.this.onEvent(causalityEstablished, txCollections, subscriptions, subscribers);
+            return 2;
+        }
+
+        /**
+         * Collects command's events (along with their causality) and the command itself
+         * and hands them over to the group committer
+         */
+        private Command<S, T> journalGrouped(EventStream<S> eventStream, HybridTimestamp ts,
+                                             TrackingLockProvider lockProvider) throws Exception {
+            List<Entity> entities = entities(eventStream, ts);
+            validate(lockProvider);
+            List<Entity> journalled;
+            long start = now();
+            try {
+                journalled = groupCommitter.journal(entities, cause()).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            } finally {
+                commitTime += elapsed(start);
+            }
+            return onJournalled(journalled, txCollections, subscriptions);
+        }
+
+        /**
+         * Materializes command's events (along with their causality) followed by the command itself
+         */
+        private List<Entity> entities(EventStream<S> eventStream, HybridTimestamp ts) {
+            List<Entity> entities = new ArrayList<>();
+            Iterator<? extends Event> iterator = eventStream.getStream().iterator();
+            while (iterator.hasNext()) {
+                Event event = iterator.next();
+                CommandConsumerImpl.this.timestamp(event, ts);
+                entities.add(event);
+                if (!compactCausality) {
+                    entities.add(causality(event, ts));
                 }
+            }
+            entities.add(command);
+            return entities;
+        }
 
+        /**
+         * Handles journalled entities (as returned by {@link #entities(EventStream, HybridTimestamp)})
+         *
+         * @return journalled command
+         */
+        @SuppressWarnings("unchecked")
+        private Command<S, T> onJournalled(List<Entity> journalled,
+                                           Map<Class<? extends Event>, List<EntityHandle<Event>>>
+                                                   txCollections,
+                                           Map<EntitySubscriber, Set<UUID>> subscriptions) {
+            int last = journalled.size() - 1;
+            for (Entity entity : journalled.subList(0, last)) {
+                CommandConsumerImpl.this.onEvent((Event) entity, txCollections, subscriptions, subscribers);
+            }
+            return (Command<S, T>) journalled.get(last);
+        }
 
-                if (exception == null) {
-                    T result = command.result(eventStream.getState(), repository, lockProvider);
-                    lockProvider.release();
-                    future.complete(result);
-                } else {
-                    lockProvider.release();
-                    future.completeExceptionally(exception);
+        /**
+         * @return command's UUID if causality is recorded in a compact form, <code>null</code> otherwise
+         */
+        private UUID cause() {
+            return compactCausality ? command.uuid() : null;
+        }
+
+        private EventCausalityEstablished causality(Event event, HybridTimestamp ts) {
+            ts.update();
+            return new EventCausalityEstablished(ts.clone(), event.uuid(), command.uuid());
+        }
+
+        private void rollback(Journal.Transaction tx) {
+            try {
+                tx.rollback();
+            } catch (Exception e) {
+                log.warn("Failed to roll back journal transaction", e);
+            }
+        }
+    }
+
+    /**
+     * Executes a batch of commands (see {@link #publishAll(Collection, Collection)}).
+     * <p>
+     * Commands are prepared (their events are generated) one after another and are accumulated
+     * in a segment. The segment is journalled in one transaction, indexed with one
+     * {@link IndexedCollection#addAll(Collection)} per entity class and dispatched to subscribers
+     * with one notification per subscriber. If a command locks a key that was locked by a command
+     * in the current segment, the segment is completed (and its locks are released) first.
+     */
+    private class BatchHandler implements Runnable {
+        private final List<CommandHandler> handlers;
+        private final EntitySubscribers subscribers;
+
+        private final List<Prepared> segment = new ArrayList<>();
+        private final Set<Object> segmentLocks = new HashSet<>();
+
+        private BatchHandler(List<CommandHandler> handlers, EntitySubscribers subscribers) {
+            this.handlers = handlers;
+            this.subscribers = subscribers;
+        }
+
+        @Override @SuppressWarnings("unchecked")
+        public void run() {
+            for (CommandHandler handler : handlers) {
+                if (handler.streaming) {
+                    // streaming commands are executed on their own
+                    flush();
+                    handler.run();
+                    continue;
                 }
+                BatchLockProvider lockProvider = new BatchLockProvider();
+                lockProvider.setTimed(metrics != null);
+                EventStream eventStream;
+                List<Entity> entities;
+                try {
+                    long start = now();
+                    eventStream = handler.command.events(repository, lockProvider);
+                    record(handler.command, CommandMetrics.Phase.EVENTS,
+                           elapsed(start) - lockProvider.getLockWaitTime());
+                    start = now();
+                    entities = handler.entities(eventStream, handler.commandTimestamp.clone());
+                    record(handler.command, CommandMetrics.Phase.JOURNAL, elapsed(start));
+                } catch (Exception e) {
+                    handler.execute(lockProvider, exceptionalTerminationStream(e, handler::recording), e);
+                    continue;
+                }
+                segment.add(new Prepared(handler, lockProvider, eventStream, entities));
+                segmentLocks.addAll(lockProvider.keys);
             }
+            flush();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void flush() {
+            if (segment.isEmpty()) {
+                return;
+            }
+            long start = now();
+            JournalBatch batch = new JournalBatch(journal);
+            for (Prepared prepared : segment) {
+                batch.add(prepared.entry);
+            }
+            batch.commit();
+            long commitTime = elapsed(start);
+
+            Map<Class<? extends Event>, List<EntityHandle<Event>>> txCollections = new HashMap<>();
+            Map<Class<? extends Command>, List<EntityHandle<Command>>> commandCollections =
+                    new HashMap<>();
+            Map<EntitySubscriber, Set<UUID>> subscriptions = new HashMap<>();
+
+            List<Prepared> journalled = new ArrayList<>(segment.size());
+            for (Prepared prepared : segment) {
+                List<Entity> entities;
+                try {
+                    entities = prepared.entry.join();
+                } catch (CompletionException e) {
+                    Exception exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    prepared.handler.execute(prepared.lockProvider,
+                                             exceptionalTerminationStream(exception, prepared.handler::recording),
+                                             exception);
+                    continue;
+                }
+                record(prepared.handler.command, CommandMetrics.Phase.COMMIT, commitTime);
+                Command command = prepared.handler.onJournalled(entities, txCollections, subscriptions);
+                commandCollections.computeIfAbsent(command.getClass(), klass -> new ArrayList<>())
+                                  .add(new ResolvedEntityHandle<>(command));
+                subscribe(command, subscriptions, subscribers);
+                journalled.add(prepared);
+            }
+
+            if (!journalled.isEmpty()) {
+                start = now();
+                for (Map.Entry<Class<? extends Event>, List<EntityHandle<Event>>> pair :
+                        txCollections.entrySet()) {
+                    indexEngine.getIndexedCollection((Class<Event>) pair.getKey()).addAll(pair.getValue());
+                }
+                for (Map.Entry<Class<? extends Command>, List<EntityHandle<Command>>> pair :
+                        commandCollections.entrySet()) {
+                    indexEngine.getIndexedCollection((Class<Command>) pair.getKey()).addAll(pair.getValue());
+                }
+                long indexTime = elapsed(start);
+                start = now();
+                CommandConsumerImpl.this.dispatch(subscriptions);
+                long dispatchTime = elapsed(start);
+                if (indexUpdater != null) {
+                    // the segment is indexed right away, but its commands are registered for
+                    // asynchronous indexing all the same
+                    for (Prepared prepared : journalled) {
+                        indexUpdater.unregister(prepared.handler.command.timestamp());
+                    }
+                }
+                for (Prepared prepared : journalled) {
+                    // the entire segment is indexed and dispatched at once
+                    record(prepared.handler.command, CommandMetrics.Phase.INDEX, indexTime);
+                    record(prepared.handler.command, CommandMetrics.Phase.DISPATCH, dispatchTime);
+                }
+                clock.update(journalled.get(journalled.size() - 1).handler.txTimestamp);
+                for (Prepared prepared : journalled) {
+                    try {
+                        prepared.handler.complete(prepared.eventStream, prepared.lockProvider, null);
+                    } catch (Exception e) {
+                        prepared.lockProvider.release();
+                        prepared.handler.completed(prepared.lockProvider, true);
+                        prepared.handler.future.completeExceptionally(e);
+                    }
+                }
+            }
+
+            segment.clear();
+            segmentLocks.clear();
+        }
+
+        private class Prepared {
+            private final CommandHandler handler;
+            private final BatchLockProvider lockProvider;
+            private final EventStream eventStream;
+            private final JournalBatch.Entry entry;
+
+            private Prepared(CommandHandler handler, BatchLockProvider lockProvider, EventStream eventStream,
+                             List<Entity> entities) {
+                this.handler = handler;
+                this.lockProvider = lockProvider;
+                this.eventStream = eventStream;
+                this.entry = new JournalBatch.Entry(entities, handler.cause());
+            }
+        }
+
+        private class BatchLockProvider extends TrackingLockProvider {
+            private final Set<Object> keys = new HashSet<>();
+
+            private BatchLockProvider() {
+                super(CommandConsumerImpl.this.lockProvider, null, keyVersions, false);
+            }
+
+            @Override
+            public Lock lock(Object lock) {
+                if (segmentLocks.contains(lock)) {
+                    // the lock is held by a command in the current segment,
+                    // complete the segment to release it
+                    flush();
+                }
+                keys.add(lock);
+                return super.lock(lock);
+            }
+        }
+    }
+
+    /**
+     * Signals an optimistic concurrency conflict (see {@link OptimisticConcurrency}), which is handled
+     * by retrying the command, so it carries no stack trace
+     */
+    static class ConflictException extends RuntimeException {
+        static final ConflictException INSTANCE = new ConflictException();
 
+        private ConflictException() {
+            super("Optimistic concurrency conflict", null, false, false);
         }
     }
 }
@@ -0,0 +1,27 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.Value;
+
+/**
+ * Command deduplication configuration for {@link StandardRepository}.
+ * <p>
+ * A command published with the UUID of a command that was already published (for example,
+ * when a client retries after a timeout) is not executed again. If the original command is
+ * still among the last {@link #getCacheSize()} published commands, the future returned for it
+ * is returned again. Otherwise, the journal is checked, and if the command is found there,
+ * the returned future is completed exceptionally with {@link DuplicateCommandException}.
+ */
+@Value
+public class CommandDeduplication {
+    /**
+     * Number of recently published commands whose futures are retained
+     */
+    private final int cacheSize;
+}
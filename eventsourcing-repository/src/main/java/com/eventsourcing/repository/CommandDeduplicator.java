@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import com.eventsourcing.Entity;
+import com.eventsourcing.Journal;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates published commands by their UUIDs according to {@link CommandDeduplication}
+ */
+class CommandDeduplicator {
+
+    private final Journal journal;
+    private final ConcurrentMap<UUID, CompletableFuture<?>> futures;
+
+    CommandDeduplicator(Journal journal, CommandDeduplication commandDeduplication) {
+        this.journal = journal;
+        Cache<UUID, CompletableFuture<?>> cache = CacheBuilder.newBuilder()
+                                                              .maximumSize(commandDeduplication.getCacheSize())
+                                                              .build();
+        this.futures = cache.asMap();
+    }
+
+    /**
+     * Publishes a command unless it is a duplicate
+     *
+     * @param command
+     * @param publish publishes the command
+     * @return future of the original command if the command is a duplicate, command's future otherwise
+     */
+    @SuppressWarnings("unchecked")
+    <C> CompletableFuture<C> publish(Command<?, C> command, Supplier<CompletableFuture<C>> publish) {
+        CompletableFuture<C> future = new CompletableFuture<>();
+        CompletableFuture<?> original = register(command, future);
+        if (original != null) {
+            return (CompletableFuture<C>) original;
+        }
+        complete(command.uuid(), future, publish.get());
+        return future;
+    }
+
+    /**
+     * Publishes commands that are not duplicates
+     *
+     * @param commands
+     * @param publish  publishes a list of commands
+     * @return futures of the original commands for duplicates and commands' futures otherwise,
+     * in the order of <code>commands</code>
+     */
+    @SuppressWarnings("unchecked")
+    List<CompletableFuture<?>> publishAll(Collection<? extends Command<?, ?>> commands,
+                                          Function<List<Command<?, ?>>, List<CompletableFuture<?>>> publish) {
+        List<CompletableFuture<?>> result = new ArrayList<>(commands.size());
+        List<Command<?, ?>> published = new ArrayList<>(commands.size());
+        List<CompletableFuture<Object>> futures = new ArrayList<>(commands.size());
+        for (Command<?, ?> command : commands) {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            CompletableFuture<?> original = register(command, future);
+            if (original == null) {
+                published.add(command);
+                futures.add(future);
+                result.add(future);
+            } else {
+                result.add(original);
+            }
+        }
+        if (!published.isEmpty()) {
+            List<CompletableFuture<?>> publishedFutures = publish.apply(published);
+            for (int i = 0; i < published.size(); i++) {
+                complete(published.get(i).uuid(), futures.get(i),
+                         (CompletableFuture<Object>) publishedFutures.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers command's future, unless the command is a duplicate
+     *
+     * @return future of the original command if the command is a duplicate, <code>null</code> otherwise
+     */
+    private CompletableFuture<?> register(Command<?, ?> command, CompletableFuture<?> future) {
+        CompletableFuture<?> original = futures.putIfAbsent(command.uuid(), future);
+        if (original != null) {
+            return original;
+        }
+        Optional<Entity> journalled = journal.get(command.uuid());
+        if (journalled.isPresent() && journalled.get() instanceof Command) {
+            future.completeExceptionally(new DuplicateCommandException((Command<?, ?>) journalled.get()));
+            return future;
+        }
+        return null;
+    }
+
+    private <C> void complete(UUID uuid, CompletableFuture<C> future, CompletableFuture<C> published) {
+        published.whenComplete((result, throwable) -> {
+            if (throwable == null) {
+                future.complete(result);
+            } else {
+                if (throwable instanceof RejectedExecutionException) {
+                    // the command was never executed, so it can be published again
+                    futures.remove(uuid, future);
+                }
+                future.completeExceptionally(throwable);
+            }
+        });
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors commands can be executed with (see {@link StandardRepository#setExecutor(java.util.concurrent.Executor)})
+ */
+public final class CommandExecutors {
+
+    private CommandExecutors() {}
+
+    /**
+     * Work-stealing pool sized to the number of available processors. This is the default.
+     * <p>
+     * Since commands can block (on locks, journal I/O or queries), a number of slow commands
+     * can occupy all threads of this pool.
+     *
+     * @return executor service
+     */
+    public static ExecutorService workStealing() {
+        return Executors.newWorkStealingPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Executes every command in a virtual thread of its own, which makes blocking
+     * in a command cheap. Requires Java 21 or newer.
+     *
+     * @return executor service
+     * @throws UnsupportedOperationException if virtual threads are not supported by the JVM
+     */
+    public static ExecutorService virtualThreadPerCommand() throws UnsupportedOperationException {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        try {
+            return (ExecutorService) method.invoke(null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Can't create a virtual thread executor", e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if {@link #virtualThreadPerCommand()} is supported by the JVM
+     */
+    public static boolean isVirtualThreadPerCommandSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
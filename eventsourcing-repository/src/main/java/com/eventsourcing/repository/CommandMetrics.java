@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+
+/**
+ * Receives latencies of command execution phases (see {@link StandardRepository#setCommandMetrics(CommandMetrics)}).
+ * <p>
+ * Implementations are invoked on command execution threads and should be thread-safe and cheap.
+ * {@link HistogramCommandMetrics} is the default implementation.
+ */
+public interface CommandMetrics {
+
+    enum Phase {
+        /**
+         * {@link Command#events(com.eventsourcing.Repository, com.eventsourcing.LockProvider)}
+         * (excluding lock waits, but not including the consumption of a lazy event stream)
+         */
+        EVENTS,
+        /**
+         * Waiting for locks
+         */
+        LOCK,
+        /**
+         * Journalling events, their causality and the command (including the consumption of the event stream)
+         */
+        JOURNAL,
+        /**
+         * Committing the journal transaction (or waiting for a group commit)
+         */
+        COMMIT,
+        /**
+         * Updating indices (not recorded with asynchronous indexing)
+         */
+        INDEX,
+        /**
+         * Notifying entity subscribers
+         */
+        DISPATCH,
+        /**
+         * {@link Command#result(Object, com.eventsourcing.Repository, com.eventsourcing.LockProvider)}
+         */
+        RESULT,
+        /**
+         * From publishing to completion
+         */
+        TOTAL
+    }
+
+    /**
+     * Records latency of a phase
+     *
+     * @param commandClass command class
+     * @param phase        execution phase
+     * @param nanos        latency, in nanoseconds
+     */
+    void record(Class<? extends Command> commandClass, Phase phase, long nanos);
+
+    /**
+     * Records a command completed exceptionally (its {@link Phase#TOTAL} latency is recorded as well)
+     *
+     * @param commandClass command class
+     */
+    void failed(Class<? extends Command> commandClass);
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import com.eventsourcing.Partitioned;
+
+/**
+ * Command partitioner determines a partition key for a command. Commands with the same partition key
+ * are executed one after another, in the order they were published, and don't need to lock
+ * the partition key. Commands with different partition keys (or with no partition key) are executed
+ * concurrently.
+ */
+public interface CommandPartitioner {
+
+    /**
+     * Partitions commands by the key they declare through {@link Partitioned}
+     */
+    CommandPartitioner PARTITIONED = command -> command instanceof Partitioned ?
+            ((Partitioned) command).partitionKey() : null;
+
+    /**
+     * @param command
+     * @return partition key or <code>null</code> if the command doesn't need to be partitioned
+     */
+    Object partitionKey(Command<?, ?> command);
+}
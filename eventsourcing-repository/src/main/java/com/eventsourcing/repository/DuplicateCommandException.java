@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import lombok.Getter;
+
+/**
+ * Signals that a command with the same UUID has already been journalled, but its result
+ * is no longer available (see {@link CommandDeduplication})
+ */
+public class DuplicateCommandException extends Exception {
+    /**
+     * Journalled command
+     */
+    @Getter
+    private final Command<?, ?> command;
+
+    public DuplicateCommandException(Command<?, ?> command) {
+        super("Command " + command.uuid() + " has already been journalled");
+        this.command = command;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Entity;
+import com.eventsourcing.EntitySubscriber;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable set of entity subscribers that routes entities by their class to
+ * subscribers that might be interested in them (see {@link EntitySubscriber#entityClasses()}).
+ * <p>
+ * Routes are computed once per entity class.
+ */
+class EntitySubscribers extends AbstractCollection<EntitySubscriber> {
+
+    static final EntitySubscribers EMPTY = new EntitySubscribers(Collections.emptyList());
+
+    private final List<EntitySubscriber> subscribers;
+    private final Map<EntitySubscriber, Collection<Class<? extends Entity>>> routed = new IdentityHashMap<>();
+    private final ConcurrentHashMap<Class<?>, List<EntitySubscriber>> routes = new ConcurrentHashMap<>();
+
+    private EntitySubscribers(Collection<EntitySubscriber> subscribers) {
+        this.subscribers = Collections.unmodifiableList(new ArrayList<>(subscribers));
+        for (EntitySubscriber subscriber : this.subscribers) {
+            @SuppressWarnings("unchecked")
+            Collection<Class<? extends Entity>> classes = subscriber.entityClasses();
+            if (classes != null) {
+                routed.put(subscriber, classes);
+            }
+        }
+    }
+
+    static EntitySubscribers of(Collection<EntitySubscriber> subscribers) {
+        if (subscribers instanceof EntitySubscribers) {
+            return (EntitySubscribers) subscribers;
+        }
+        return subscribers.isEmpty() ? EMPTY : new EntitySubscribers(subscribers);
+    }
+
+    EntitySubscribers with(EntitySubscriber subscriber) {
+        List<EntitySubscriber> list = new ArrayList<>(subscribers);
+        list.add(subscriber);
+        return new EntitySubscribers(list);
+    }
+
+    EntitySubscribers without(EntitySubscriber subscriber) {
+        List<EntitySubscriber> list = new ArrayList<>(subscribers);
+        list.remove(subscriber);
+        return list.isEmpty() ? EMPTY : new EntitySubscribers(list);
+    }
+
+    /**
+     * @param klass entity class
+     * @return subscribers that might be interested in entities of <code>klass</code>
+     */
+    List<EntitySubscriber> route(Class<?> klass) {
+        if (subscribers.isEmpty()) {
+            return subscribers;
+        }
+        return routes.computeIfAbsent(klass, this::computeRoute);
+    }
+
+    private List<EntitySubscriber> computeRoute(Class<?> klass) {
+        List<EntitySubscriber> route = new ArrayList<>();
+        for (EntitySubscriber subscriber : subscribers) {
+            Collection<Class<? extends Entity>> classes = routed.get(subscriber);
+            if (classes == null || classes.stream().anyMatch(c -> c.isAssignableFrom(klass))) {
+                route.add(subscriber);
+            }
+        }
+        return route.isEmpty() ? Collections.emptyList() : route;
+    }
+
+    @Override public Iterator<EntitySubscriber> iterator() {
+        return subscribers.iterator();
+    }
+
+    @Override public int size() {
+        return subscribers.size();
+    }
+}
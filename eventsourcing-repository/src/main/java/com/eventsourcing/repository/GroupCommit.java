@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.Value;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit configuration for {@link StandardRepository}.
+ * <p>
+ * When configured, commands that are being processed concurrently are journalled
+ * within a single journal transaction (and therefore a single commit), instead of
+ * one transaction per command. A batch is committed once either {@link #getMaxBatchSize()}
+ * commands were collected or {@link #getWindow()} has elapsed since the first command
+ * of the batch has arrived, whichever comes first.
+ * <p>
+ * Every command still gets its own result and, should journalling of its entities fail,
+ * its own rollback: a failing command is excluded from the batch and the rest of the batch
+ * is retried.
+ */
+@Value
+public class GroupCommit {
+    /**
+     * Maximum number of commands to be journalled within one transaction
+     */
+    private final int maxBatchSize;
+    /**
+     * Maximum time to wait for more commands to join a batch
+     */
+    private final long window;
+    private final TimeUnit windowUnit;
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Entity;
+import com.eventsourcing.Journal;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects entities of concurrently processed commands and journals them
+ * in batches (see {@link GroupCommit})
+ */
+class GroupCommitter extends AbstractExecutionThreadService {
+
+    private final Journal journal;
+    private final GroupCommit groupCommit;
+    private final BlockingQueue<JournalBatch.Entry> queue = new LinkedBlockingQueue<>();
+
+    GroupCommitter(Journal journal, GroupCommit groupCommit) {
+        this.journal = journal;
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Schedules entities for journalling
+     *
+     * @param entities entities of one command, in the order they should be journalled
+     * @param cause    command's UUID if causality is recorded in a compact form, <code>null</code> otherwise
+     * @return a future that will be completed with journalled entities once they are committed
+     */
+    CompletableFuture<List<Entity>> journal(List<? extends Entity> entities, UUID cause) {
+        JournalBatch.Entry entry = new JournalBatch.Entry(entities, cause);
+        if (!isRunning()) {
+            entry.completeExceptionally(new IllegalStateException("group committer is not running"));
+        } else {
+            queue.add(entry);
+        }
+        return entry;
+    }
+
+    @Override
+    protected void run() throws Exception {
+        long window = groupCommit.getWindowUnit().toNanos(groupCommit.getWindow());
+        while (isRunning()) {
+            JournalBatch.Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                continue;
+            }
+            JournalBatch batch = new JournalBatch(journal);
+            batch.add(first);
+            long deadline = System.nanoTime() + window;
+            while (batch.size() < groupCommit.getMaxBatchSize()) {
+                long remaining = deadline - System.nanoTime();
+                JournalBatch.Entry entry = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                if (entry == null) {
+                    break;
+                }
+                batch.add(entry);
+            }
+            batch.commit();
+        }
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        List<JournalBatch.Entry> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            JournalBatch batch = new JournalBatch(journal);
+            remaining.forEach(batch::add);
+            batch.commit();
+        }
+    }
+
+    @Override
+    protected String serviceName() {
+        return "GroupCommitter[" + journal.getClass().getSimpleName() + "]";
+    }
+}
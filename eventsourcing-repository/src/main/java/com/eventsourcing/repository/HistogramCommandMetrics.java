@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import lombok.SneakyThrows;
+
+import javax.management.openmbean.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a latency histogram for every phase of every command class, as well as counts of completed
+ * and failed commands. Exposed over JMX through {@link RepositoryMBean#getCommandLatencies()}.
+ */
+public class HistogramCommandMetrics implements CommandMetrics {
+
+    private static class Metrics {
+        private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+        private final LongAdder failed = new LongAdder();
+
+        private Metrics() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new LatencyHistogram();
+            }
+        }
+    }
+
+    private final ConcurrentHashMap<Class<? extends Command>, Metrics> metrics = new ConcurrentHashMap<>();
+
+    private Metrics metrics(Class<? extends Command> commandClass) {
+        Metrics m = metrics.get(commandClass);
+        return m == null ? metrics.computeIfAbsent(commandClass, klass -> new Metrics()) : m;
+    }
+
+    @Override
+    public void record(Class<? extends Command> commandClass, Phase phase, long nanos) {
+        metrics(commandClass).phases[phase.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void failed(Class<? extends Command> commandClass) {
+        metrics(commandClass).failed.increment();
+    }
+
+    /**
+     * @return number of completed commands of the class (including failed ones)
+     */
+    public long getCompleted(Class<? extends Command> commandClass) {
+        Metrics m = metrics.get(commandClass);
+        return m == null ? 0 : m.phases[Phase.TOTAL.ordinal()].getCount();
+    }
+
+    /**
+     * @return number of commands of the class completed exceptionally
+     */
+    public long getFailed(Class<? extends Command> commandClass) {
+        Metrics m = metrics.get(commandClass);
+        return m == null ? 0 : m.failed.sum();
+    }
+
+    /**
+     * @param percentile percentile, from 0 to 100
+     * @return (approximate) latency of the phase at the percentile, in nanoseconds
+     */
+    public long getLatency(Class<? extends Command> commandClass, Phase phase, double percentile) {
+        Metrics m = metrics.get(commandClass);
+        return m == null ? 0 : m.phases[phase.ordinal()].getPercentile(percentile);
+    }
+
+    /**
+     * @return number of times the phase was recorded
+     */
+    public long getCount(Class<? extends Command> commandClass, Phase phase) {
+        Metrics m = metrics.get(commandClass);
+        return m == null ? 0 : m.phases[phase.ordinal()].getCount();
+    }
+
+    private static final String[] ITEMS = new String[]{"command", "phase", "count", "failed", "mean", "p50", "p99",
+                                                       "p999", "max"};
+    private static final CompositeType ROW_TYPE;
+    private static final TabularType TABLE_TYPE;
+
+    static {
+        try {
+            OpenType<?>[] types = new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG,
+                                                    SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                                                    SimpleType.LONG, SimpleType.LONG, SimpleType.LONG};
+            String[] descriptions = new String[]{"Command class", "Execution phase", "Number of recordings",
+                                                 "Number of failed commands (TOTAL phase only)",
+                                                 "Mean latency (microseconds)", "Median latency (microseconds)",
+                                                 "99th percentile latency (microseconds)",
+                                                 "99.9th percentile latency (microseconds)",
+                                                 "Maximum latency (microseconds)"};
+            ROW_TYPE = new CompositeType("CommandPhaseMetrics", "Command execution phase latency", ITEMS,
+                                         descriptions, types);
+            TABLE_TYPE = new TabularType("CommandMetrics", "Command execution phase latencies", ROW_TYPE,
+                                         new String[]{"command", "phase"});
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * @return metrics of every recorded phase of every command class, latencies are in microseconds
+     */
+    @SneakyThrows
+    public TabularData toTabularData() {
+        TabularDataSupport data = new TabularDataSupport(TABLE_TYPE);
+        for (Map.Entry<Class<? extends Command>, Metrics> entry : metrics.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue().phases[phase.ordinal()];
+                long count = histogram.getCount();
+                if (count == 0) {
+                    continue;
+                }
+                long failed = phase == Phase.TOTAL ? entry.getValue().failed.sum() : 0;
+                data.put(new CompositeDataSupport(ROW_TYPE, ITEMS, new Object[]{
+                        entry.getKey().getName(), phase.name(), count, failed,
+                        micros(histogram.getMean()), micros(histogram.getPercentile(50)),
+                        micros(histogram.getPercentile(99)), micros(histogram.getPercentile(99.9)),
+                        micros(histogram.getMax())}));
+            }
+        }
+        return data;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
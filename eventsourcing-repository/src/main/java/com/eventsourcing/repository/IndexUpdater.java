@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import com.eventsourcing.Entity;
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.Event;
+import com.eventsourcing.ResolvedEntityHandle;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.index.IndexEngine;
+import com.eventsourcing.index.IndexingException;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies index updates of journalled commands in the background, in batches.
+ * <p>
+ * Every command is registered with its timestamp before it is executed and stays pending
+ * until its index update is applied (or it is known that there will be none), which allows
+ * to wait until all commands up to a given timestamp are indexed (see {@link #await(HybridTimestamp)}).
+ * <p>
+ * Updates of every entity class are applied separately. If any of them fails, commands with entities
+ * of that class are marked as failed instead, and waiting for them throws {@link IndexingException}.
+ */
+@Slf4j
+class IndexUpdater extends AbstractExecutionThreadService {
+
+    /**
+     * Maximum number of commands' updates applied at once
+     */
+    static final int MAX_BATCH_SIZE = 1024;
+
+    static class Update {
+        private final HybridTimestamp timestamp;
+        private final Map<Class<? extends Event>, List<EntityHandle<Event>>> events;
+        private final Command<?, ?> command;
+        private final Runnable dispatch;
+
+        /**
+         * @param timestamp timestamp the command was registered with
+         * @param events    command's events, by class
+         * @param command   journalled command
+         * @param dispatch  subscriber notification to run once indexed
+         */
+        Update(HybridTimestamp timestamp, Map<Class<? extends Event>, List<EntityHandle<Event>>> events,
+               Command<?, ?> command, Runnable dispatch) {
+            this.timestamp = timestamp;
+            this.events = events;
+            this.command = command;
+            this.dispatch = dispatch;
+        }
+    }
+
+    private final IndexEngine indexEngine;
+    private final BlockingQueue<Update> queue = new LinkedBlockingQueue<>();
+    private final TreeMap<HybridTimestamp, Integer> pending = new TreeMap<>();
+    /**
+     * Commands that failed to be indexed, guarded by {@link #pending}
+     */
+    private final TreeMap<HybridTimestamp, IndexingException> failed = new TreeMap<>();
+
+    IndexUpdater(IndexEngine indexEngine) {
+        this.indexEngine = indexEngine;
+    }
+
+    void register(HybridTimestamp timestamp) {
+        synchronized (pending) {
+            pending.merge(timestamp, 1, Integer::sum);
+        }
+    }
+
+    void unregister(HybridTimestamp timestamp) {
+        synchronized (pending) {
+            pending.computeIfPresent(timestamp, (ts, count) -> count == 1 ? null : count - 1);
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Unregisters a command that failed to be indexed
+     */
+    void fail(HybridTimestamp timestamp, Exception e) {
+        synchronized (pending) {
+            failed.putIfAbsent(timestamp, new IndexingException(timestamp, e));
+            unregister(timestamp);
+        }
+    }
+
+    /**
+     * Waits until all commands registered with a timestamp at or before <code>token</code>
+     * are indexed
+     *
+     * @param token
+     * @throws InterruptedException
+     * @throws IndexingException if any of these commands failed to be indexed
+     */
+    void await(HybridTimestamp token) throws InterruptedException {
+        synchronized (pending) {
+            while (!pending.isEmpty() && pending.firstKey().compareTo(token) <= 0) {
+                pending.wait();
+            }
+            if (!failed.isEmpty() && failed.firstKey().compareTo(token) <= 0) {
+                throw failed.firstEntry().getValue();
+            }
+        }
+    }
+
+    /**
+     * @return number of commands pending indexing
+     */
+    int getPending() {
+        synchronized (pending) {
+            return pending.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    void submit(Update update) {
+        if (isRunning()) {
+            queue.add(update);
+        } else {
+            apply(Collections.singletonList(update));
+        }
+    }
+
+    @Override
+    protected void run() throws Exception {
+        List<Update> batch = new ArrayList<>();
+        while (isRunning()) {
+            Update update = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (update == null) {
+                continue;
+            }
+            batch.add(update);
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        List<Update> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            apply(batch);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(List<Update> batch) {
+        Map<Class<? extends Entity>, List<EntityHandle<Entity>>> updates = new HashMap<>();
+        for (Update update : batch) {
+            for (Map.Entry<Class<? extends Event>, List<EntityHandle<Event>>> entry :
+                    update.events.entrySet()) {
+                updates.computeIfAbsent(entry.getKey(), klass -> new ArrayList<>())
+                       .addAll((List) entry.getValue());
+            }
+            updates.computeIfAbsent(update.command.getClass(), klass -> new ArrayList<>())
+                   .add(new ResolvedEntityHandle<>(update.command));
+        }
+        Map<Class<? extends Entity>, Exception> failures = new HashMap<>();
+        for (Map.Entry<Class<? extends Entity>, List<EntityHandle<Entity>>> entry : updates.entrySet()) {
+            try {
+                indexEngine.getIndexedCollection((Class<Entity>) entry.getKey()).addAll(entry.getValue());
+            } catch (Exception e) {
+                log.error("Failed to update indices of " + entry.getKey().getName(), e);
+                failures.put(entry.getKey(), e);
+            }
+        }
+        for (Update update : batch) {
+            try {
+                update.dispatch.run();
+            } catch (Exception e) {
+                log.error("Failed to notify subscribers", e);
+            }
+            Exception failure = failure(update, failures);
+            if (failure == null) {
+                unregister(update.timestamp);
+            } else {
+                fail(update.timestamp, failure);
+            }
+        }
+    }
+
+    /**
+     * @return failure to index any of command's entities, or <code>null</code> if there was none
+     */
+    private static Exception failure(Update update, Map<Class<? extends Entity>, Exception> failures) {
+        if (failures.isEmpty()) {
+            return null;
+        }
+        if (failures.containsKey(update.command.getClass())) {
+            return failures.get(update.command.getClass());
+        }
+        for (Class<? extends Event> klass : update.events.keySet()) {
+            if (failures.containsKey(klass)) {
+                return failures.get(klass);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected String serviceName() {
+        return "IndexUpdater[" + indexEngine.getClass().getSimpleName() + "]";
+    }
+}
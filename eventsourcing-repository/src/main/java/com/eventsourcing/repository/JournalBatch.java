@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import com.eventsourcing.Entity;
+import com.eventsourcing.Event;
+import com.eventsourcing.Journal;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A batch of entity groups (typically, all entities of one command) that are
+ * journalled within a single journal transaction.
+ * <p>
+ * Groups are isolated from each other: if journalling of a group fails, the transaction
+ * is rolled back, the group is completed exceptionally and the rest of the batch is
+ * retried without it. If the commit itself fails, every group is committed in its own
+ * transaction so that one group can't fail the others.
+ */
+@Slf4j
+class JournalBatch {
+
+    static class Entry extends CompletableFuture<List<Entity>> {
+        @Getter
+        private final List<? extends Entity> entities;
+        /**
+         * UUID of the command that caused the events if causality is recorded in a compact form
+         * (see {@link Journal#journal(Journal.Transaction, Event, UUID)}), <code>null</code> otherwise
+         */
+        @Getter
+        private final UUID cause;
+
+        Entry(List<? extends Entity> entities) {
+            this(entities, null);
+        }
+
+        Entry(List<? extends Entity> entities, UUID cause) {
+            this.entities = entities;
+            this.cause = cause;
+        }
+    }
+
+    private final Journal journal;
+    private final List<Entry> entries = new ArrayList<>();
+
+    JournalBatch(Journal journal) {
+        this.journal = journal;
+    }
+
+    void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void commit() {
+        try {
+            commit(new ArrayList<>(entries));
+        } catch (Exception e) {
+            entries.forEach(entry -> entry.completeExceptionally(e));
+        }
+    }
+
+    private void commit(List<Entry> pending) {
+        while (!pending.isEmpty()) {
+            Journal.Transaction tx = journal.beginTransaction();
+            List<List<Entity>> journalled = new ArrayList<>(pending.size());
+            Entry failed = null;
+            for (Entry entry : pending) {
+                try {
+                    journalled.add(journal(tx, entry.getEntities(), entry.getCause()));
+                } catch (Exception e) {
+                    failed = entry;
+                    entry.completeExceptionally(e);
+                    break;
+                }
+            }
+            if (failed != null) {
+                rollback(tx);
+                pending.remove(failed);
+                continue;
+            }
+            try {
+                tx.commit();
+            } catch (Exception e) {
+                rollback(tx);
+                if (pending.size() == 1) {
+                    pending.get(0).completeExceptionally(e);
+                } else {
+                    for (Entry entry : pending) {
+                        List<Entry> single = new ArrayList<>();
+                        single.add(entry);
+                        commit(single);
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                pending.get(i).complete(journalled.get(i));
+            }
+            return;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entity> journal(Journal.Transaction tx, List<? extends Entity> entities, UUID cause) {
+        List<Entity> journalled = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            if (entity instanceof Command) {
+                journalled.add(journal.journal(tx, (Command) entity));
+            } else if (cause != null) {
+                journalled.add(journal.journal(tx, (Event) entity, cause));
+            } else {
+                journalled.add(journal.journal(tx, (Event) entity));
+            }
+        }
+        return journalled;
+    }
+
+    private void rollback(Journal.Transaction tx) {
+        try {
+            tx.rollback();
+        } catch (Exception e) {
+            log.warn("Failed to roll back journal transaction", e);
+        }
+    }
+}
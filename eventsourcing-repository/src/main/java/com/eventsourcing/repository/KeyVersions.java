@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.SneakyThrows;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versions of the keys used by commands for optimistic concurrency (see {@link OptimisticConcurrency}).
+ * <p>
+ * A key's version changes every time a command that has read it is completed. While a command
+ * is being committed, its keys are held in flight: reading them waits until the command is completed,
+ * and commands that have read them before fail validation. Commands that acquire locks instead
+ * (see {@link #hold(Object)}) hold the keys they have locked in flight until they are completed, so they
+ * exclude optimistic commands just like they exclude each other.
+ * <p>
+ * Versions come from a single monotonic sequence, so when the number of known keys exceeds
+ * {@link #MAX_KEYS}, they are forgotten at once and every unknown key is considered to have
+ * the latest version. This might result in spurious conflicts, but never in a missed one.
+ */
+class KeyVersions {
+
+    static final int MAX_KEYS = 100_000;
+
+    private final Map<Object, Long> versions = new HashMap<>();
+    private final Set<Object> inFlight = new HashSet<>();
+    private long sequence;
+    private long floor;
+
+    /**
+     * Reads the version of the key, waiting for the command holding it in flight (if any) to complete
+     *
+     * @param key
+     * @return current version of the key
+     */
+    @SneakyThrows
+    synchronized long read(Object key) {
+        while (inFlight.contains(key)) {
+            wait();
+        }
+        return version(key);
+    }
+
+    private long version(Object key) {
+        Long version = versions.get(key);
+        return version == null ? floor : version;
+    }
+
+    /**
+     * Validates that none of the keys were changed since they were read, and if so, holds them in flight
+     * until {@link #complete(Set)} is called.
+     *
+     * @param read versions of the keys, as returned by {@link #read(Object)}
+     * @return <code>true</code> if the versions are still current
+     */
+    synchronized boolean validate(Map<Object, Long> read) {
+        for (Map.Entry<Object, Long> entry : read.entrySet()) {
+            if (inFlight.contains(entry.getKey()) || version(entry.getKey()) != entry.getValue()) {
+                return false;
+            }
+        }
+        inFlight.addAll(read.keySet());
+        return true;
+    }
+
+    /**
+     * Holds a key locked by a command that acquires locks in flight until {@link #complete(Set)} is called,
+     * waiting for the command holding it (if any) to complete first
+     *
+     * @param key
+     */
+    @SneakyThrows
+    synchronized void hold(Object key) {
+        while (inFlight.contains(key)) {
+            wait();
+        }
+        inFlight.add(key);
+    }
+
+    /**
+     * Assigns new versions to keys held in flight by {@link #validate(Map)} or {@link #hold(Object)}
+     *
+     * @param keys
+     */
+    synchronized void complete(Set<Object> keys) {
+        if (versions.size() + keys.size() > MAX_KEYS) {
+            versions.clear();
+            floor = sequence;
+        }
+        sequence++;
+        for (Object key : keys) {
+            versions.put(key, sequence);
+        }
+        inFlight.removeAll(keys);
+        notifyAll();
+    }
+}
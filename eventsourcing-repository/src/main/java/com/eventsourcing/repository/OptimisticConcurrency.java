@@ -0,0 +1,35 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.Value;
+
+/**
+ * Optimistic concurrency configuration for {@link StandardRepository}.
+ * <p>
+ * Instead of acquiring locks from the repository's {@link com.eventsourcing.LockProvider},
+ * {@link com.eventsourcing.LockProvider#lock(Object)} called by a command only records the version
+ * of the key it has read. Right before the command's events are committed, the versions are validated:
+ * if another command that used any of the same keys has been committed since (or is being committed),
+ * the command's events are discarded and the command is executed again. After {@link #getRetries()}
+ * conflicts, the command is terminated exceptionally with a
+ * {@link java.util.ConcurrentModificationException}.
+ * <p>
+ * Batches and {@link com.eventsourcing.Streaming} commands still acquire locks, as they commit
+ * their events in the same transaction with other commands or in chunks, respectively. Until they are
+ * completed, they also hold the keys they have locked in flight: commands reading any of these keys wait
+ * for them, and commands that have read them before conflict. Keys are versioned in memory, so this mode
+ * is not suitable for repositories sharing a journal.
+ */
+@Value
+public class OptimisticConcurrency {
+    /**
+     * Maximum number of times a command is retried after a conflict
+     */
+    private final int retries;
+}
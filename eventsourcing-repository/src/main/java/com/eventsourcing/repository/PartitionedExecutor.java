@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executes tasks with the same key one after another, in the order of submission, on top of
+ * an underlying executor. Tasks with different keys are executed concurrently.
+ * <p>
+ * Every key that has pending tasks gets a lane; a lane is removed as soon as it has no
+ * more tasks to execute.
+ */
+@Slf4j
+class PartitionedExecutor {
+
+    /**
+     * Maximum number of tasks a lane executes before yielding the thread to other work
+     */
+    static final int LANE_BATCH = 16;
+
+    private final Executor executor;
+    private final ConcurrentHashMap<Object, Lane> lanes = new ConcurrentHashMap<>();
+
+    PartitionedExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    void execute(Object key, Runnable task) {
+        Lane lane = lanes.compute(key, (k, existing) -> {
+            Lane l = existing == null ? new Lane(k) : existing;
+            l.tasks.add(task);
+            return l;
+        });
+        if (lane.scheduled.compareAndSet(false, true)) {
+            executor.execute(lane);
+        }
+    }
+
+    /**
+     * @return number of lanes that currently have pending tasks
+     */
+    int getLaneCount() {
+        return lanes.size();
+    }
+
+    private class Lane implements Runnable {
+        private final Object key;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Lane(Object key) {
+            this.key = key;
+        }
+
+        @Override public void run() {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                Runnable task = next();
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Task in lane " + key + " failed", e);
+                }
+            }
+            // let other work through before continuing with this lane
+            executor.execute(this);
+        }
+
+        private Runnable next() {
+            Runnable[] next = new Runnable[1];
+            lanes.computeIfPresent(key, (k, lane) -> {
+                next[0] = lane.tasks.poll();
+                return next[0] == null ? null : lane;
+            });
+            return next[0];
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.Value;
+
+/**
+ * Pipeline configuration for {@link StandardRepository}.
+ * <p>
+ * By default, a command is executed from start to finish on one thread of the command executor.
+ * With a pipeline, only its events are generated (and materialized) there, while journalling,
+ * index updates and subscriber notification (along with command completion) are done by
+ * separate stages, each with its own threads and a bounded queue. When a stage's queue is full,
+ * the previous stage waits, so a slow stage doesn't accumulate unbounded work.
+ * <p>
+ * This way, CPU-bound and I/O-bound work can be sized independently, and stage metrics
+ * (see {@link RepositoryMBean#getPipelineStages()}) show which stage is the bottleneck.
+ */
+@Value
+public class Pipeline {
+    /**
+     * Number of threads journalling (serializing and committing) entities
+     */
+    private final int journalThreads;
+    /**
+     * Number of threads updating indices
+     */
+    private final int indexThreads;
+    /**
+     * Number of threads notifying subscribers and completing commands
+     */
+    private final int dispatchThreads;
+    /**
+     * Capacity of every stage's queue
+     */
+    private final int queueCapacity;
+}
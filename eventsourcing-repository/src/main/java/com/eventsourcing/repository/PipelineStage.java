@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.openmbean.*;
+import java.util.Collection;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A stage of the command execution {@link Pipeline}: a fixed number of threads consuming
+ * tasks from a bounded queue. Submitting a task to a stage with a full queue blocks until
+ * there is room for it.
+ */
+@Slf4j
+class PipelineStage {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int threads;
+    @Getter
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final LongAdder serviceTime = new LongAdder();
+
+    PipelineStage(String name, int threads, int capacity) {
+        this.name = name;
+        this.threads = threads;
+        this.capacity = capacity;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<>(capacity),
+                                               new ThreadFactoryBuilder().setNameFormat("es4j-" + name + "-%d")
+                                                                         .setDaemon(true).build(),
+                                               PipelineStage::block);
+    }
+
+    private static void block(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Pipeline stage is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    /**
+     * Submits a task to the stage, waits if the stage's queue is full
+     *
+     * @param task
+     */
+    void submit(Runnable task) {
+        long submitted = System.nanoTime();
+        executor.execute(() -> {
+            long started = System.nanoTime();
+            waitTime.add(started - submitted);
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Task failed in pipeline stage " + name, e);
+            } finally {
+                serviceTime.add(System.nanoTime() - started);
+                completed.increment();
+            }
+        });
+    }
+
+    /**
+     * Stops accepting new tasks and waits for submitted ones to complete
+     */
+    @SneakyThrows
+    void shutdown() {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of tasks waiting in the queue
+     */
+    int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of tasks being executed
+     */
+    int getActive() {
+        return executor.getActiveCount();
+    }
+
+    long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * @return average time a task spends in the queue, in microseconds
+     */
+    long getAverageWaitTime() {
+        long count = completed.sum();
+        return count == 0 ? 0 : waitTime.sum() / count / 1000;
+    }
+
+    /**
+     * @return average time it takes to execute a task, in microseconds
+     */
+    long getAverageServiceTime() {
+        long count = completed.sum();
+        return count == 0 ? 0 : serviceTime.sum() / count / 1000;
+    }
+
+    private static final String[] ITEMS = new String[]{"stage", "threads", "capacity", "queued", "active",
+                                                       "completed", "averageWaitTime", "averageServiceTime"};
+    private static final CompositeType ROW_TYPE;
+    private static final TabularType TABLE_TYPE;
+
+    static {
+        try {
+            OpenType<?>[] types = new OpenType<?>[]{SimpleType.STRING, SimpleType.INTEGER, SimpleType.INTEGER,
+                                                    SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG,
+                                                    SimpleType.LONG, SimpleType.LONG};
+            String[] descriptions = new String[]{"Stage", "Number of threads", "Queue capacity",
+                                                 "Number of queued tasks", "Number of executing tasks",
+                                                 "Number of completed tasks",
+                                                 "Average time spent in the queue (microseconds)",
+                                                 "Average execution time (microseconds)"};
+            ROW_TYPE = new CompositeType("PipelineStage", "Pipeline stage", ITEMS, descriptions, types);
+            TABLE_TYPE = new TabularType("PipelineStages", "Pipeline stages", ROW_TYPE, new String[]{"stage"});
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SneakyThrows
+    static TabularData toTabularData(Collection<PipelineStage> stages) {
+        TabularDataSupport data = new TabularDataSupport(TABLE_TYPE);
+        for (PipelineStage stage : stages) {
+            data.put(new CompositeDataSupport(ROW_TYPE, ITEMS, new Object[]{
+                    stage.getName(), stage.getThreads(), stage.getCapacity(), stage.getQueued(), stage.getActive(),
+                    stage.getCompleted(), stage.getAverageWaitTime(), stage.getAverageServiceTime()}));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Command;
+import com.eventsourcing.Priority;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Executes tasks on top of an underlying executor according to {@link PriorityScheduling}:
+ * tasks are queued in lanes by their priority and handed over to the executor only when there is
+ * a free execution slot, picking lanes with smooth weighted round-robin.
+ */
+@Slf4j
+class PriorityExecutor {
+
+    private static final ClassValue<Priority.Level> PRIORITIES = new ClassValue<Priority.Level>() {
+        @Override protected Priority.Level computeValue(Class<?> klass) {
+            Priority priority = klass.getAnnotation(Priority.class);
+            return priority == null ? Priority.Level.NORMAL : priority.value();
+        }
+    };
+
+    /**
+     * @param command
+     * @return command's priority (see {@link Priority})
+     */
+    static Priority.Level priority(Command<?, ?> command) {
+        return PRIORITIES.get(command.getClass());
+    }
+
+    private final Executor executor;
+    private final int concurrency;
+    private final Lane[] lanes;
+    private int running;
+
+    PriorityExecutor(Executor executor, PriorityScheduling scheduling) {
+        this.executor = executor;
+        this.concurrency = scheduling.getConcurrency();
+        Priority.Level[] levels = Priority.Level.values();
+        this.lanes = new Lane[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            lanes[i] = new Lane(scheduling.lane(levels[i]));
+        }
+    }
+
+    void execute(Priority.Level level, Runnable task) {
+        List<Runnable> scheduled;
+        synchronized (this) {
+            lanes[level.ordinal()].tasks.add(task);
+            scheduled = schedule();
+        }
+        submit(scheduled);
+    }
+
+    /**
+     * @return number of queued tasks of the priority (excluding executing ones)
+     */
+    synchronized int getQueued(Priority.Level level) {
+        return lanes[level.ordinal()].tasks.size();
+    }
+
+    /**
+     * @return number of executing tasks of the priority
+     */
+    synchronized int getRunning(Priority.Level level) {
+        return lanes[level.ordinal()].running;
+    }
+
+    /**
+     * Takes tasks off the lanes while there are free execution slots
+     *
+     * @return tasks to submit to the executor
+     */
+    private List<Runnable> schedule() {
+        List<Runnable> scheduled = null;
+        while (running < concurrency) {
+            Lane lane = next();
+            if (lane == null) {
+                break;
+            }
+            Runnable task = lane.tasks.poll();
+            lane.running++;
+            running++;
+            if (scheduled == null) {
+                scheduled = new ArrayList<>();
+            }
+            scheduled.add(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Task failed", e);
+                } finally {
+                    List<Runnable> next;
+                    synchronized (PriorityExecutor.this) {
+                        lane.running--;
+                        running--;
+                        next = schedule();
+                    }
+                    submit(next);
+                }
+            });
+        }
+        return scheduled;
+    }
+
+    /**
+     * Picks the next lane with smooth weighted round-robin among lanes that have queued tasks
+     * and free slots
+     */
+    private Lane next() {
+        Lane selected = null;
+        int total = 0;
+        for (Lane lane : lanes) {
+            if (lane.tasks.isEmpty() || lane.running >= lane.concurrency) {
+                continue;
+            }
+            lane.current += lane.weight;
+            total += lane.weight;
+            if (selected == null || lane.current > selected.current) {
+                selected = lane;
+            }
+        }
+        if (selected != null) {
+            selected.current -= total;
+        }
+        return selected;
+    }
+
+    private void submit(List<Runnable> tasks) {
+        if (tasks != null) {
+            tasks.forEach(executor::execute);
+        }
+    }
+
+    private static class Lane {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private final int weight;
+        private final int concurrency;
+        private int running;
+        private int current;
+
+        private Lane(PriorityScheduling.Lane lane) {
+            this.weight = lane.getWeight();
+            this.concurrency = lane.getConcurrency();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Priority;
+import lombok.Value;
+
+/**
+ * Priority scheduling configuration for {@link StandardRepository}.
+ * <p>
+ * Commands are queued in a lane per priority (see {@link Priority}) and at most {@link #getConcurrency()}
+ * of them are executed at once. Whenever there is a free execution slot, it is given to one of the lanes
+ * that have queued commands and haven't reached their own concurrency limit, in proportion to lane weights
+ * (smooth weighted round-robin). This way, a lane of long-running background commands limited to a fraction
+ * of the slots can't delay interactive commands queued in another lane.
+ */
+@Value
+public class PriorityScheduling {
+
+    @Value
+    public static class Lane {
+        /**
+         * Share of execution slots given to the lane, relative to other lanes
+         */
+        private final int weight;
+        /**
+         * Maximum number of lane's commands executed at once
+         */
+        private final int concurrency;
+    }
+
+    /**
+     * Maximum number of commands executed at once
+     */
+    private final int concurrency;
+    private final Lane high;
+    private final Lane normal;
+    private final Lane low;
+
+    /**
+     * Default lanes: {@link Priority.Level#HIGH} and {@link Priority.Level#NORMAL} commands can take all
+     * execution slots with 4:2 weights, while {@link Priority.Level#LOW} commands get a weight of 1 and
+     * at most a quarter of the slots.
+     *
+     * @param concurrency maximum number of commands executed at once
+     * @return priority scheduling configuration
+     */
+    public static PriorityScheduling withConcurrency(int concurrency) {
+        return new PriorityScheduling(concurrency, new Lane(4, concurrency), new Lane(2, concurrency),
+                                      new Lane(1, Math.max(1, concurrency / 4)));
+    }
+
+    /**
+     * @param level priority
+     * @return lane of the priority
+     */
+    public Lane lane(Priority.Level level) {
+        switch (level) {
+            case HIGH:
+                return high;
+            case LOW:
+                return low;
+            default:
+                return normal;
+        }
+    }
+}
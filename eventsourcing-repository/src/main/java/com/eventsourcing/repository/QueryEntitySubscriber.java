@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Entity;
+import com.eventsourcing.EntityHandle;
+import com.eventsourcing.EntitySubscriber;
+import com.eventsourcing.ResolvedEntityHandle;
+import com.googlecode.cqengine.query.Query;
+
+import static com.googlecode.cqengine.query.QueryFactory.noQueryOptions;
+
+/**
+ * {@link EntitySubscriber} that subscribes to entities of a certain class (including
+ * its subclasses) that match a query.
+ * <p>
+ * Example:
+ * <p>
+ * {@code
+ * new QueryEntitySubscriber<>(UserCreated.class, equal(UserCreated.EMAIL, email))
+ * }
+ *
+ * @param <T>
+ */
+public class QueryEntitySubscriber<T extends Entity> extends ClassEntitySubscriber<T> {
+
+    private final Query<EntityHandle<T>> query;
+
+    public QueryEntitySubscriber(Class<T> klass, Query<EntityHandle<T>> query) {
+        super(klass);
+        this.query = query;
+    }
+
+    @Override public boolean matches(T entity) {
+        return super.matches(entity) && query.matches(new ResolvedEntityHandle<>(entity), noQueryOptions());
+    }
+
+}
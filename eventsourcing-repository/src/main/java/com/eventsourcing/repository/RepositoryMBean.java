@@ -7,10 +7,58 @@
  */
 package com.eventsourcing.repository;
 
+import javax.management.openmbean.TabularData;
+
 public interface RepositoryMBean {
     boolean isRunning();
 
     String[] getInstalledCommands();
 
     String[] getInstalledEvents();
+
+    /*
+     * Admission control (all zeroes if admission control is not configured)
+     */
+
+    /**
+     * @return number of admitted commands that haven't completed yet
+     */
+    int getPendingCommands();
+
+    /**
+     * @return number of publishers waiting for admission
+     */
+    int getWaitingCommands();
+
+    /**
+     * @return number of commands rejected since the start
+     */
+    long getRejectedCommands();
+
+    /**
+     * @return average admission wait time, in microseconds
+     */
+    long getAverageAdmissionWaitTime();
+
+    /**
+     * @return maximum admission wait time, in microseconds
+     */
+    long getMaxAdmissionWaitTime();
+
+    /**
+     * @return number of commands pending asynchronous indexing
+     */
+    int getPendingIndexUpdates();
+
+    /**
+     * @return latencies of command execution phases by command class (see {@link HistogramCommandMetrics}),
+     * <code>null</code> if not available
+     */
+    TabularData getCommandLatencies();
+
+    /**
+     * @return queue length, throughput and average wait and service times of every pipeline stage
+     * (see {@link Pipeline}), <code>null</code> if the pipeline is not configured
+     */
+    TabularData getPipelineStages();
 }
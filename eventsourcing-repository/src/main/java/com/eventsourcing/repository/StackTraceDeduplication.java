@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.Value;
+
+/**
+ * Stack trace deduplication configuration for {@link StandardRepository}.
+ * <p>
+ * Instead of a {@link com.eventsourcing.events.JavaExceptionOccurred} event with a complete stack trace,
+ * exceptional command termination is recorded with a
+ * {@link com.eventsourcing.events.DeduplicatedJavaExceptionOccurred} event referencing a
+ * {@link com.eventsourcing.events.JavaStackTraceRecorded} event, which is recorded once for every distinct
+ * stack trace. At most {@link #getCapturesPerSecond()} stack traces are captured every second; exceptions
+ * beyond that are recorded without a stack trace.
+ */
+@Value
+public class StackTraceDeduplication {
+    /**
+     * Maximum number of stack traces captured per second
+     */
+    private final int capturesPerSecond;
+}
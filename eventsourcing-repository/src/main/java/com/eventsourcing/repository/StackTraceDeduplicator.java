@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Event;
+import com.eventsourcing.Journal;
+import com.eventsourcing.events.DeduplicatedJavaExceptionOccurred;
+import com.eventsourcing.events.JavaStackTraceRecorded;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Records exceptions according to {@link StackTraceDeduplication}.
+ * <p>
+ * A stack trace is only referenced once the command recording it has been journalled
+ * (see {@link #recorded(UUID)}). If that command fails to be journalled (see {@link #discarded(UUID)}),
+ * the stack trace is recorded by the next command that needs it.
+ */
+class StackTraceDeduplicator {
+
+    /**
+     * Maximum number of stack trace UUIDs remembered as recorded
+     */
+    static final int MAX_RECORDED = 10_000;
+
+    private enum State {
+        /**
+         * Recorded by a command that hasn't been journalled yet
+         */
+        RECORDING,
+        RECORDED
+    }
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Journal journal;
+    private final int capturesPerSecond;
+    private final ConcurrentHashMap<UUID, State> states = new ConcurrentHashMap<>();
+
+    private final AtomicLong window = new AtomicLong(System.nanoTime());
+    private final AtomicLong captures = new AtomicLong();
+
+    StackTraceDeduplicator(Journal journal, StackTraceDeduplication deduplication) {
+        this.journal = journal;
+        this.capturesPerSecond = deduplication.getCapturesPerSecond();
+    }
+
+    /**
+     * Records an exception
+     *
+     * @param exception
+     * @param recording receives the UUID of the stack trace if it has to be recorded along with the exception,
+     *                  the caller must then report whether it has been journalled (see {@link #recorded(UUID)}
+     *                  and {@link #discarded(UUID)})
+     * @return {@link DeduplicatedJavaExceptionOccurred}, preceded by {@link JavaStackTraceRecorded} if
+     * the stack trace hasn't been recorded yet
+     */
+    Stream<Event> events(Exception exception, Consumer<UUID> recording) {
+        String className = exception.getClass().getName();
+        if (!acquire()) {
+            return Stream.of(new DeduplicatedJavaExceptionOccurred(className, exception.getMessage(),
+                                                                   Optional.empty()));
+        }
+        JavaStackTraceRecorded stacktrace = new JavaStackTraceRecorded(exception.getStackTrace());
+        UUID uuid = stacktrace.uuid();
+        DeduplicatedJavaExceptionOccurred exceptionOccurred =
+                new DeduplicatedJavaExceptionOccurred(className, exception.getMessage(), Optional.of(uuid));
+        State state = record(uuid);
+        if (state == State.RECORDED) {
+            return Stream.of(exceptionOccurred);
+        }
+        if (state == State.RECORDING) {
+            // the command recording it might yet fail to be journalled, so it can't be referenced
+            return Stream.of(new DeduplicatedJavaExceptionOccurred(className, exception.getMessage(),
+                                                                   Optional.empty()));
+        }
+        recording.accept(uuid);
+        return Stream.of(stacktrace, exceptionOccurred);
+    }
+
+    /**
+     * Marks a stack trace as journalled
+     */
+    void recorded(UUID uuid) {
+        states.replace(uuid, State.RECORDING, State.RECORDED);
+    }
+
+    /**
+     * Forgets a stack trace that failed to be journalled
+     */
+    void discarded(UUID uuid) {
+        states.remove(uuid, State.RECORDING);
+    }
+
+    /**
+     * @return <code>null</code> if the stack trace has to be recorded by the caller, its state otherwise
+     */
+    private State record(UUID uuid) {
+        State state = states.get(uuid);
+        if (state != null) {
+            return state;
+        }
+        if (states.size() >= MAX_RECORDED) {
+            states.values().removeIf(s -> s == State.RECORDED);
+        }
+        // only one of concurrent callers gets to record it
+        state = states.putIfAbsent(uuid, State.RECORDING);
+        if (state != null) {
+            return state;
+        }
+        if (journal.get(uuid).isPresent()) {
+            states.put(uuid, State.RECORDED);
+            return State.RECORDED;
+        }
+        return null;
+    }
+
+    /**
+     * @return <code>true</code> if a stack trace can be captured within the current second
+     */
+    private boolean acquire() {
+        long now = System.nanoTime();
+        long start = window.get();
+        if (now - start >= SECOND && window.compareAndSet(start, now)) {
+            captures.set(0);
+        }
+        return captures.incrementAndGet() <= capturesPerSecond;
+    }
+}
@@ -9,14 +9,18 @@ package com.eventsourcing.repository;
 
 import com.eventsourcing.*;
 import com.eventsourcing.events.CommandTerminatedExceptionally;
+import com.eventsourcing.events.DeduplicatedJavaExceptionOccurred;
 import com.eventsourcing.events.EventCausalityEstablished;
 import com.eventsourcing.events.JavaExceptionOccurred;
+import com.eventsourcing.events.JavaStackTraceRecorded;
 import com.eventsourcing.hlc.HybridTimestamp;
 import com.eventsourcing.hlc.NTPServerTimeProvider;
 import com.eventsourcing.hlc.PhysicalTimeProvider;
+import com.eventsourcing.index.CausalityIndex;
 import com.eventsourcing.index.IndexEngine;
 import com.eventsourcing.index.IndexLoader;
 import com.eventsourcing.index.JavaStaticFieldIndexLoader;
+import com.eventsourcing.index.TimestampIndex;
 import com.eventsourcing.migrations.events.EntityLayoutIntroduced;
 import com.eventsourcing.repository.commands.IntroduceEntityLayouts;
 import com.google.common.collect.Iterables;
@@ -24,6 +28,7 @@ import com.google.common.util.concurrent.AbstractService;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.ServiceManager;
 import com.googlecode.cqengine.IndexedCollection;
+import com.googlecode.cqengine.index.AttributeIndex;
 import com.googlecode.cqengine.index.Index;
 import lombok.Builder;
 import lombok.Getter;
@@ -32,8 +37,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.*;
 
+import javax.management.openmbean.TabularData;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -50,15 +57,50 @@ public class StandardRepository extends AbstractService implements Repository, R
         bindIndexLoader(new JavaStaticFieldIndexLoader());
     }
 
+    public StandardRepository(Journal journal, PhysicalTimeProvider physicalTimeProvider,
+                              IndexEngine indexEngine, LockProvider lockProvider) {
+        this(journal, physicalTimeProvider, indexEngine, lockProvider, null, null, null, null, false, false, 0, null, null,
+             null, null, null, null);
+    }
+
+    /**
+     * Creates a repository, typically through {@link #builder()}. Every option corresponds to its setter
+     * (for example, {@link #setExecutor(Executor)}), and <code>null</code> (as well as <code>false</code>
+     * or 0) leaves the default.
+     * <p>
+     * <b>Please note</b> that {@link CommandExecutors#virtualThreadPerCommand()}, the executor option for
+     * virtual threads, throws {@link UnsupportedOperationException} before Java 21
+     * (see {@link CommandExecutors#isVirtualThreadPerCommandSupported()}).
+     */
     @Builder
     @SneakyThrows
     public StandardRepository(Journal journal, PhysicalTimeProvider physicalTimeProvider,
-                              IndexEngine indexEngine, LockProvider lockProvider) {
+                              IndexEngine indexEngine, LockProvider lockProvider, GroupCommit groupCommit,
+                              CommandPartitioner partitioner, Executor executor,
+                              AdmissionControl admissionControl, boolean asynchronousIndexing,
+                              boolean compactCausality, int streamingBudget,
+                              CommandMetrics commandMetrics, PriorityScheduling priorityScheduling,
+                              StackTraceDeduplication stackTraceDeduplication, Pipeline pipeline,
+                              OptimisticConcurrency optimisticConcurrency,
+                              CommandDeduplication commandDeduplication) {
         setPhysicalTimeProvider(physicalTimeProvider == null ?
                                         new NTPServerTimeProvider(new String[]{"localhost"}) : physicalTimeProvider);
         setLockProvider(lockProvider == null ? new LocalLockProvider() : lockProvider);
         setJournal(journal);
         setIndexEngine(indexEngine);
+        setGroupCommit(groupCommit);
+        setPartitioner(partitioner);
+        setExecutor(executor);
+        setAdmissionControl(admissionControl);
+        setAsynchronousIndexing(asynchronousIndexing);
+        setCompactCausality(compactCausality);
+        setStreamingBudget(streamingBudget == 0 ? DEFAULT_STREAMING_BUDGET : streamingBudget);
+        setCommandMetrics(commandMetrics);
+        setPriorityScheduling(priorityScheduling);
+        setStackTraceDeduplication(stackTraceDeduplication);
+        setPipeline(pipeline);
+        setOptimisticConcurrency(optimisticConcurrency);
+        setCommandDeduplication(commandDeduplication);
         bindIndexLoader(new JavaStaticFieldIndexLoader());
     }
 
@@ -76,11 +118,86 @@ public class StandardRepository extends AbstractService implements Repository, R
     private IndexEngine indexEngine;
     @Getter
     private LockProvider lockProvider;
+    /**
+     * Group commit configuration, <code>null</code> if group commit is disabled
+     */
+    @Getter
+    private GroupCommit groupCommit;
+    /**
+     * Command partitioner, <code>null</code> if commands are not partitioned
+     */
+    @Getter
+    private CommandPartitioner partitioner;
+    /**
+     * Executor commands are executed with, <code>null</code> if the default one is used
+     */
+    @Getter
+    private Executor executor;
+    /**
+     * Admission control configuration, <code>null</code> if the number of pending commands is not limited
+     */
+    @Getter
+    private AdmissionControl admissionControl;
+    private AdmissionController admissionController;
+    /**
+     * <code>true</code> if indices are updated in the background
+     */
+    @Getter
+    private boolean asynchronousIndexing;
+    /**
+     * <code>true</code> if causality is recorded by the journal in a compact form
+     */
+    @Getter
+    private boolean compactCausality;
+    /**
+     * Default value of {@link #getStreamingBudget()}
+     */
+    public static final int DEFAULT_STREAMING_BUDGET = 10_000;
+    /**
+     * Maximum number of entities a {@link com.eventsourcing.Streaming} command holds in memory
+     * before they are committed
+     */
+    @Getter
+    private int streamingBudget = DEFAULT_STREAMING_BUDGET;
+    /**
+     * Command metrics, <code>null</code> if command execution is not instrumented
+     */
+    @Getter
+    private CommandMetrics commandMetrics;
+    /**
+     * Priority scheduling configuration, <code>null</code> if commands are executed in the order of publishing
+     */
+    @Getter
+    private PriorityScheduling priorityScheduling;
+    /**
+     * Stack trace deduplication configuration, <code>null</code> if complete stack traces are recorded
+     * with every exception
+     */
+    @Getter
+    private StackTraceDeduplication stackTraceDeduplication;
+    /**
+     * Pipeline configuration, <code>null</code> if commands are executed on the command executor
+     * from start to finish
+     */
+    @Getter
+    private Pipeline pipeline;
+    /**
+     * Optimistic concurrency configuration, <code>null</code> if commands acquire locks
+     * from the lock provider
+     */
+    @Getter
+    private OptimisticConcurrency optimisticConcurrency;
+    /**
+     * Command deduplication configuration, <code>null</code> if every published command is executed
+     */
+    @Getter
+    private CommandDeduplication commandDeduplication;
+    private CommandDeduplicator commandDeduplicator;
 
     private ServiceManager services;
     private CommandConsumer commandConsumer;
 
-    private List<EntitySubscriber> entitySubscribers = new ArrayList<>();
+    private volatile EntitySubscribers entitySubscribers = EntitySubscribers.EMPTY;
 
     @Activate
     protected void activate(ComponentContext ctx) {
@@ -105,11 +222,15 @@ public class StandardRepository extends AbstractService implements Repository, R
         if (lockProvider == null) {
             notifyFailed(new IllegalStateException("lockProvider == null"));
         }
+        if (compactCausality && !journal.isCompactCausalitySupported()) {
+            notifyFailed(new IllegalStateException("journal doesn't support compact causality"));
+        }
 
         addEventSetProvider(() -> {
             List<Class<? extends Event>> classes = Arrays
                     .asList(CommandTerminatedExceptionally.class, EventCausalityEstablished.class,
-                            EntityLayoutIntroduced.class, JavaExceptionOccurred.class);
+                            EntityLayoutIntroduced.class, JavaExceptionOccurred.class,
+                            DeduplicatedJavaExceptionOccurred.class, JavaStackTraceRecorded.class);
             return new HashSet<>(classes);
         });
 
@@ -130,27 +251,69 @@ public class StandardRepository extends AbstractService implements Repository, R
         initialization.forEach(Runnable::run);
         initialization.clear();
 
-        commandConsumer = new CommandConsumerImpl(commands, physicalTimeProvider, this, journal, indexEngine,
-                                                  lockProvider);
+        CommandConsumerImpl commandConsumer = new CommandConsumerImpl(commands, physicalTimeProvider, this, journal,
+                                                                      indexEngine, lockProvider);
+        commandConsumer.setGroupCommit(groupCommit);
+        commandConsumer.setPartitioner(partitioner);
+        commandConsumer.setThreadPool(executor);
+        admissionController = admissionControl == null ? null : new AdmissionController(admissionControl);
+        commandConsumer.setAdmissionController(admissionController);
+        commandDeduplicator = commandDeduplication == null ? null :
+                new CommandDeduplicator(journal, commandDeduplication);
+        commandConsumer.setAsynchronousIndexing(asynchronousIndexing);
+        commandConsumer.setCompactCausality(compactCausality);
+        commandConsumer.setStreamingBudget(streamingBudget);
+        commandConsumer.setMetrics(commandMetrics);
+        commandConsumer.setPriorityScheduling(priorityScheduling);
+        commandConsumer.setStackTraceDeduplication(stackTraceDeduplication);
+        commandConsumer.setPipeline(pipeline);
+        commandConsumer.setOptimisticConcurrency(optimisticConcurrency);
+        this.commandConsumer = commandConsumer;
         commandConsumer.startAsync().awaitRunning();
 
         journal.onCommandsAdded(commands);
         journal.onEventsAdded(events);
 
-        publish(new IntroduceEntityLayouts(Iterables.concat(commands, events))).join();
+        introduceEntityLayouts(Iterables.concat(commands, events));
 
         notifyStarted();
     }
 
+    @SneakyThrows
+    private void introduceEntityLayouts(Iterable<Class<? extends Entity>> entities) {
+        IntroduceEntityLayouts command = new IntroduceEntityLayouts(entities);
+        publish(command).join();
+        // subsequent introductions rely on the index to avoid duplicates
+        awaitIndexed(command.timestamp());
+    }
+
     private Set<String> indicesConfiguredFor = new HashSet<>();
 
+    /**
+     * Wraps indices that can be (partially) served by the journal
+     */
+    private Index journalIndex(Class<? extends Entity> klass, Index index) {
+        if (klass == EventCausalityEstablished.class && journal.isCompactCausalitySupported() &&
+                CausalityIndex.isApplicable(index)) {
+            // serve causality recorded in a compact form
+            return new CausalityIndex(journal, (AttributeIndex) index);
+        }
+        if (journal.isTimestampOrderSupported() && TimestampIndex.isApplicable(index)) {
+            // serve timestamp queries with journal's range scans
+            return new TimestampIndex(journal, (com.eventsourcing.index.Attribute)
+                    ((AttributeIndex) index).getAttribute());
+        }
+        return index;
+    }
+
     @SneakyThrows
     private boolean configureIndices(Class<? extends Entity> klass) {
         try {
             if (!indicesConfiguredFor.contains(klass.getName())) {
                 for (IndexLoader loader : indexLoaders) {
                     Iterable<Index> indices = loader.load(indexEngine, klass);
-                    for (Index i : indices) {
+                    for (Index loaded : indices) {
+                        Index i = journalIndex(klass, loaded);
                         IndexedCollection<? extends EntityHandle<? extends Entity>> collection =
                                 indexEngine.getIndexedCollection(klass);
                         boolean hasIndex = StreamSupport.stream(collection.getIndexes().spliterator(), false)
@@ -212,7 +375,7 @@ public class StandardRepository extends AbstractService implements Repository, R
             // apply immediately
             runnable.run();
             journal.onCommandsAdded(newCommands);
-            publish(new IntroduceEntityLayouts(Iterables.concat(newCommands))).join();
+            introduceEntityLayouts(Iterables.concat(newCommands));
         } else {
             initialization.add(runnable);
         }
@@ -226,13 +389,13 @@ public class StandardRepository extends AbstractService implements Repository, R
 
     @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
     @Override
-    public void addEntitySubscriber(EntitySubscriber subscriber) {
-        entitySubscribers.add(subscriber);
+    public synchronized void addEntitySubscriber(EntitySubscriber subscriber) {
+        entitySubscribers = entitySubscribers.with(subscriber);
     }
 
     @Override
-    public void removeEntitySubscriber(EntitySubscriber subscriber) {
-        entitySubscribers.remove(subscriber);
+    public synchronized void removeEntitySubscriber(EntitySubscriber subscriber) {
+        entitySubscribers = entitySubscribers.without(subscriber);
     }
 
     @Reference(cardinality = ReferenceCardinality.MULTIPLE, policy = ReferencePolicy.DYNAMIC)
@@ -249,7 +412,7 @@ public class StandardRepository extends AbstractService implements Repository, R
             // apply immediately
             runnable.run();
             journal.onEventsAdded(newEvents);;
-            publish(new IntroduceEntityLayouts(Iterables.concat(newEvents))).join();
+            introduceEntityLayouts(Iterables.concat(newEvents));
         } else {
             initialization.add(runnable);
         }
@@ -292,11 +455,302 @@ public class StandardRepository extends AbstractService implements Repository, R
         this.lockProvider = lockProvider;
     }
 
+    /**
+     * Enables group commit (see {@link GroupCommit})
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param groupCommit group commit configuration or <code>null</code> to disable group commit
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setGroupCommit(GroupCommit groupCommit) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * Enables command partitioning (see {@link CommandPartitioner}). To partition commands
+     * that implement {@link com.eventsourcing.Partitioned}, use {@link CommandPartitioner#PARTITIONED}.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param partitioner command partitioner or <code>null</code> to disable partitioning
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setPartitioner(CommandPartitioner partitioner) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * Sets an executor commands will be executed with. By default, a work-stealing pool
+     * sized to the number of available processors is used. See {@link CommandExecutors} for
+     * built-in options; {@link CommandExecutors#virtualThreadPerCommand()} requires Java 21 or newer
+     * and throws {@link UnsupportedOperationException} otherwise.
+     * <p>
+     * The executor is not shut down when the repository is stopped.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param executor executor or <code>null</code> to use the default one
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setExecutor(Executor executor) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Limits the number of pending commands (see {@link AdmissionControl})
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param admissionControl admission control configuration or <code>null</code> to disable admission control
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setAdmissionControl(AdmissionControl admissionControl) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.admissionControl = admissionControl;
+    }
+
+    /**
+     * Enables asynchronous indexing. Commands are completed as soon as they are journalled,
+     * while indices are updated (and subscribers are notified) in the background, in batches.
+     * Use {@link #awaitIndexed(HybridTimestamp)} or {@link #query(Class, com.googlecode.cqengine.query.Query, HybridTimestamp)}
+     * with the command's timestamp to read its effects.
+     * <p>
+     * Please note that in this mode {@link Command#result(Object, Repository, LockProvider)} can't rely on
+     * command's own events being queryable.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param asynchronousIndexing <code>true</code> to update indices asynchronously
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setAsynchronousIndexing(boolean asynchronousIndexing) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.asynchronousIndexing = asynchronousIndexing;
+    }
+
+    /**
+     * Enables compact causality. Instead of journalling and indexing an {@link EventCausalityEstablished}
+     * event for every event, the journal records the causing command alongside the event itself
+     * (see {@link Journal#journal(Journal.Transaction, Event, UUID)}). Queries on
+     * {@link EventCausalityEstablished#EVENT} and {@link EventCausalityEstablished#COMMAND} return both
+     * journalled and compact causality, so previously journalled data remains readable.
+     * <p>
+     * Please note that {@link EventCausalityEstablished} instances of compact causality are not journalled,
+     * therefore they are not visible to other queries and can't be retrieved by their UUIDs.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param compactCausality <code>true</code> to record causality in a compact form
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setCompactCausality(boolean compactCausality) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.compactCausality = compactCausality;
+    }
+
+    /**
+     * Sets the memory budget of {@link com.eventsourcing.Streaming} commands: the maximum number
+     * of entities (events and their causality) journalled in one chunk. Once the chunk is filled up,
+     * it is committed, indexed and dispatched to subscribers, and its entities are released.
+     * Defaults to {@link #DEFAULT_STREAMING_BUDGET}.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param streamingBudget maximum number of entities in a chunk
+     * @throws IllegalStateException if called after the service is started
+     * @throws IllegalArgumentException if the budget is not positive
+     */
+    public void setStreamingBudget(int streamingBudget) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        if (streamingBudget < 1) {
+            throw new IllegalArgumentException("Streaming budget should be positive");
+        }
+        this.streamingBudget = streamingBudget;
+    }
+
+    /**
+     * Enables instrumentation of command execution: latencies of every execution phase
+     * (see {@link CommandMetrics.Phase}) are reported to <code>commandMetrics</code>.
+     * {@link HistogramCommandMetrics} are exposed over JMX (see {@link #getCommandLatencies()}).
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param commandMetrics command metrics or <code>null</code> to disable instrumentation
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setCommandMetrics(CommandMetrics commandMetrics) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.commandMetrics = commandMetrics;
+    }
+
+    /**
+     * Enables priority scheduling (see {@link PriorityScheduling}): commands are queued by their
+     * priority (see {@link com.eventsourcing.Priority}) and executed with weighted fair sharing and
+     * per-priority concurrency limits. Partitioned commands (see {@link #setPartitioner(CommandPartitioner)})
+     * are executed in their partition lanes instead.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param priorityScheduling priority scheduling configuration or <code>null</code> to disable it
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setPriorityScheduling(PriorityScheduling priorityScheduling) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.priorityScheduling = priorityScheduling;
+    }
+
+    /**
+     * Enables stack trace deduplication (see {@link StackTraceDeduplication}). Every distinct stack trace of
+     * an exception that terminated a command is recorded once and referenced by its hash, and stack traces
+     * are captured at a limited rate. {@link Command#exceptionalTerminationCause(Repository)} resolves
+     * the references.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param stackTraceDeduplication stack trace deduplication configuration or <code>null</code> to disable it
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setStackTraceDeduplication(StackTraceDeduplication stackTraceDeduplication)
+            throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        this.stackTraceDeduplication = stackTraceDeduplication;
+    }
+
+    /**
+     * Enables staged command execution (see {@link Pipeline}). Commands' events are generated
+     * on the command executor, while journalling, index updates and subscriber notification are
+     * done by separate stages with bounded queues. Batches, {@link com.eventsourcing.Streaming} commands
+     * and partitioned commands (see {@link #setPartitioner(CommandPartitioner)}) are executed without the pipeline.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param pipeline pipeline configuration or <code>null</code> to disable it
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setPipeline(Pipeline pipeline) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        if (pipeline != null && (pipeline.getJournalThreads() < 1 || pipeline.getIndexThreads() < 1 ||
+                pipeline.getDispatchThreads() < 1 || pipeline.getQueueCapacity() < 1)) {
+            throw new IllegalArgumentException("Pipeline stages should have at least one thread and queue capacity" +
+                                                       " of at least one");
+        }
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Enables optimistic concurrency (see {@link OptimisticConcurrency}). Locks requested by commands
+     * are not acquired, but their keys are validated right before the command is committed, and
+     * the command is executed again if another command using any of the same keys has been committed
+     * in the meantime. Therefore, {@link Command#events(Repository, LockProvider)} might be called more
+     * than once for a command.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param optimisticConcurrency optimistic concurrency configuration or <code>null</code> to disable it
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setOptimisticConcurrency(OptimisticConcurrency optimisticConcurrency)
+            throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        if (optimisticConcurrency != null && optimisticConcurrency.getRetries() < 0) {
+            throw new IllegalArgumentException("Number of retries can't be negative");
+        }
+        this.optimisticConcurrency = optimisticConcurrency;
+    }
+
+    /**
+     * Enables command deduplication (see {@link CommandDeduplication}). A command published with
+     * the UUID of an already published command is not executed again: the future of the original
+     * command is returned instead or, if it is no longer retained, a future completed exceptionally
+     * with {@link DuplicateCommandException}. Commands rejected by admission control (see
+     * {@link #setAdmissionControl(AdmissionControl)}) can be published again.
+     * <p>
+     * Should be done before invoking {@link #startAsync()}
+     *
+     * @param commandDeduplication command deduplication configuration or <code>null</code> to disable it
+     * @throws IllegalStateException if called after the service is started
+     */
+    public void setCommandDeduplication(CommandDeduplication commandDeduplication) throws IllegalStateException {
+        if (isRunning()) {
+            throw new IllegalStateException();
+        }
+        if (commandDeduplication != null && commandDeduplication.getCacheSize() < 1) {
+            throw new IllegalArgumentException("Cache size should be at least 1");
+        }
+        this.commandDeduplication = commandDeduplication;
+    }
+
     @Override
     public <T extends Command<S, C>, S, C> CompletableFuture<C> publish(T command) {
+        if (commandDeduplicator != null) {
+            return commandDeduplicator.publish(command, () -> commandConsumer.publish(command, entitySubscribers));
+        }
         return this.commandConsumer.publish(command, entitySubscribers);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns immediately unless indices are updated asynchronously
+     * (see {@link #setAsynchronousIndexing(boolean)}).
+     */
+    @Override
+    public void awaitIndexed(HybridTimestamp token) throws InterruptedException {
+        commandConsumer.awaitIndexed(token);
+    }
+
+    /**
+     * Publishes a batch of commands. Commands are executed one after another and are journalled
+     * in one transaction, indexed with one index update per entity class and dispatched to
+     * subscribers with one notification per subscriber. Should journalling of a command fail,
+     * only that command is terminated exceptionally.
+     * <p>
+     * Since commands of the batch are journalled together, if a command locks a key that is locked by
+     * a command earlier in the batch, the commands preceding it are completed first.
+     * <p>
+     * If partitioning is enabled (see {@link #setPartitioner(CommandPartitioner)}), commands are
+     * published individually.
+     *
+     * @param commands commands
+     * @return {@link CompletableFuture}s with commands' results, in the order of <code>commands</code>
+     */
+    @Override
+    public List<CompletableFuture<?>> publishAll(Collection<? extends Command<?, ?>> commands) {
+        if (commandDeduplicator != null) {
+            return commandDeduplicator.publishAll(commands, published -> commandConsumer
+                    .publishAll(published, entitySubscribers));
+        }
+        return this.commandConsumer.publishAll(commands, entitySubscribers);
+    }
+
     @Override public HybridTimestamp getTimestamp() {
         return commandConsumer.getTimestamp();
     }
@@ -311,4 +765,53 @@ public class StandardRepository extends AbstractService implements Repository, R
     public String[] getInstalledEvents() {
         return events.stream().map(Class::getName).toArray(String[]::new);
     }
+
+    @Override
+    public int getPendingCommands() {
+        return admissionController == null ? 0 : admissionController.getPending();
+    }
+
+    @Override
+    public int getWaitingCommands() {
+        return admissionController == null ? 0 : admissionController.getWaiting();
+    }
+
+    @Override
+    public long getRejectedCommands() {
+        return admissionController == null ? 0 : admissionController.getRejected();
+    }
+
+    @Override
+    public long getAverageAdmissionWaitTime() {
+        return admissionController == null ? 0 : admissionController.getAverageWaitTime();
+    }
+
+    @Override
+    public long getMaxAdmissionWaitTime() {
+        return admissionController == null ? 0 : admissionController.getMaxWaitTime();
+    }
+
+    @Override
+    public int getPendingIndexUpdates() {
+        if (commandConsumer instanceof CommandConsumerImpl) {
+            IndexUpdater indexUpdater = ((CommandConsumerImpl) commandConsumer).getIndexUpdater();
+            return indexUpdater == null ? 0 : indexUpdater.getPending();
+        }
+        return 0;
+    }
+
+    @Override
+    public TabularData getCommandLatencies() {
+        return commandMetrics instanceof HistogramCommandMetrics ?
+                ((HistogramCommandMetrics) commandMetrics).toTabularData() : null;
+    }
+
+    @Override
+    public TabularData getPipelineStages() {
+        if (commandConsumer instanceof CommandConsumerImpl) {
+            List<PipelineStage> stages = ((CommandConsumerImpl) commandConsumer).getPipelineStages();
+            return stages.isEmpty() ? null : PipelineStage.toTabularData(stages);
+        }
+        return null;
+    }
 }
@@ -9,21 +9,114 @@ package com.eventsourcing.repository;
 
 import com.eventsourcing.Lock;
 import com.eventsourcing.LockProvider;
-import com.google.common.util.concurrent.AbstractService;
+import com.google.common.util.concurrent.Service;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
-class TrackingLockProvider extends AbstractService implements LockProvider {
+/**
+ * Per-command view of the repository's lock provider that tracks acquired locks
+ * so that they can be released once the command is completed.
+ * <p>
+ * In optimistic mode (see {@link OptimisticConcurrency}), locks are not acquired: versions of the keys
+ * are recorded instead, to be validated with {@link #validate()} before the command's events are committed.
+ * Commands that still acquire locks in a repository with optimistic concurrency (batches and streaming commands)
+ * hold the keys in flight as well, until {@link #release()}, so that optimistic commands using the same keys
+ * wait for them or conflict with them.
+ * <p>
+ * It is created for every command, so instead of going through service state transitions
+ * it starts in the running state and {@link #stopAsync()} terminates it immediately.
+ */
+class TrackingLockProvider implements LockProvider {
 
-    private final Set<Lock> locks = new HashSet<>();
+    private Set<Lock> locks;
+    private volatile State state = State.RUNNING;
     private final LockProvider lockProvider;
+    private final Object partitionKey;
+    private final KeyVersions versions;
+    private final boolean optimistic;
+    private Map<Object, Long> read;
+    private Set<Object> held;
+    private boolean validated;
+
+    private boolean timed;
+    private long lockWaitTime;
 
     TrackingLockProvider(LockProvider lockProvider) {
+        this(lockProvider, null);
+    }
+
+    /**
+     * @param lockProvider underlying lock provider
+     * @param partitionKey partition key of the command. Since commands with the same
+     *                     partition key never run concurrently, locking it is a no-op.
+     */
+    TrackingLockProvider(LockProvider lockProvider, Object partitionKey) {
+        this(lockProvider, partitionKey, null, false);
+    }
+
+    /**
+     * @param lockProvider underlying lock provider
+     * @param partitionKey partition key of the command (see {@link #TrackingLockProvider(LockProvider, Object)})
+     * @param versions     key versions if the repository uses optimistic concurrency, <code>null</code> otherwise
+     * @param optimistic   <code>true</code> to record versions of the keys instead of acquiring locks,
+     *                     <code>false</code> to acquire locks (and hold the keys in flight, if
+     *                     <code>versions</code> are set)
+     */
+    TrackingLockProvider(LockProvider lockProvider, Object partitionKey, KeyVersions versions, boolean optimistic) {
         this.lockProvider = lockProvider;
+        this.partitionKey = partitionKey;
+        this.versions = versions;
+        this.optimistic = optimistic && versions != null;
+    }
+
+    /**
+     * Enables measurement of time spent waiting for locks
+     *
+     * @param timed
+     */
+    void setTimed(boolean timed) {
+        this.timed = timed;
+    }
+
+    /**
+     * @return time spent waiting for locks, in nanoseconds (0 if not {@link #setTimed(boolean) timed})
+     */
+    long getLockWaitTime() {
+        return lockWaitTime;
+    }
+
+    /**
+     * Validates versions of the keys recorded in optimistic mode. If they are still current,
+     * the keys are held until {@link #release()}.
+     *
+     * @return <code>false</code> if any of the keys were changed by another command
+     */
+    boolean validate() {
+        if (read == null) {
+            return true;
+        }
+        validated = versions.validate(read);
+        return validated;
     }
 
     void release() {
+        if (validated) {
+            versions.complete(read.keySet());
+            validated = false;
+        }
+        if (held != null) {
+            // before unlocking, so that the next command acquiring any of the locks can hold its key
+            versions.complete(held);
+            held = null;
+        }
+        if (locks == null) {
+            return;
+        }
         for (Lock lock : locks) {
             lock.unlock();
         }
@@ -31,19 +124,94 @@ class TrackingLockProvider extends AbstractService implements LockProvider {
 
     @Override
     public Lock lock(Object lock) {
+        if (partitionKey != null && partitionKey.equals(lock)) {
+            return new VirtualLock();
+        }
+        if (optimistic) {
+            if (read == null) {
+                read = new HashMap<>();
+            }
+            read.computeIfAbsent(lock, versions::read);
+            return new VirtualLock();
+        }
+        long start = timed ? System.nanoTime() : 0;
         Lock l = lockProvider.lock(lock);
+        if (versions != null) {
+            if (held == null) {
+                held = new HashSet<>();
+            }
+            // the key stays in flight until the command is released, even if it unlocks it earlier
+            if (held.add(lock)) {
+                versions.hold(lock);
+            }
+        }
+        if (timed) {
+            lockWaitTime += System.nanoTime() - start;
+        }
+        if (locks == null) {
+            locks = new HashSet<>();
+        }
         locks.add(l);
         return new TrackingLock(l);
     }
 
     @Override
-    protected void doStart() {
-        notifyStarted();
+    public Service startAsync() {
+        return this;
     }
 
     @Override
-    protected void doStop() {
-        notifyStopped();
+    public boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    @Override
+    public State state() {
+        return state;
+    }
+
+    @Override
+    public Service stopAsync() {
+        state = State.TERMINATED;
+        return this;
+    }
+
+    @Override
+    public void awaitRunning() {
+        if (state != State.RUNNING) {
+            throw new IllegalStateException("Expected the service to be RUNNING, but it is " + state);
+        }
+    }
+
+    @Override
+    public void awaitRunning(long timeout, TimeUnit unit) {
+        awaitRunning();
+    }
+
+    /**
+     * @throws IllegalStateException if the service is running, as nothing but {@link #stopAsync()}
+     *                               (which terminates it immediately) can stop it
+     */
+    @Override
+    public void awaitTerminated() {
+        if (state != State.TERMINATED) {
+            throw new IllegalStateException("Expected the service to be TERMINATED, but it is " + state);
+        }
+    }
+
+    @Override
+    public void awaitTerminated(long timeout, TimeUnit unit) {
+        awaitTerminated();
+    }
+
+    @Override
+    public Throwable failureCause() {
+        throw new IllegalStateException("Expected the service to be FAILED, but it is " + state);
+    }
+
+    @Override
+    public void addListener(Listener listener, Executor executor) {
+        // listeners are of no use for a per-command service
     }
 
     class TrackingLock implements Lock {
@@ -65,4 +233,22 @@ class TrackingLockProvider extends AbstractService implements LockProvider {
             return lock.isLocked();
         }
     }
+
+    /**
+     * Lock that is not backed by the underlying lock provider (partition key and optimistic mode locks)
+     */
+    static class VirtualLock implements Lock {
+
+        private boolean locked = true;
+
+        @Override
+        public void unlock() {
+            locked = false;
+        }
+
+        @Override
+        public boolean isLocked() {
+            return locked;
+        }
+    }
 }
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Priority;
+import com.eventsourcing.StandardCommand;
+import com.eventsourcing.hlc.HybridTimestamp;
+import lombok.SneakyThrows;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class AdmissionControllerTest {
+
+    @Priority(Priority.Level.LOW)
+    public static class LowPriorityCommand extends StandardCommand<Void, Void> {
+        public LowPriorityCommand(HybridTimestamp timestamp) {
+            super(timestamp);
+        }
+    }
+
+    @Priority(Priority.Level.HIGH)
+    public static class HighPriorityCommand extends StandardCommand<Void, Void> {
+        public HighPriorityCommand(HybridTimestamp timestamp) {
+            super(timestamp);
+        }
+    }
+
+    private static final RepositoryTest.RepositoryTestCommand NORMAL = RepositoryTest.RepositoryTestCommand
+            .builder().build();
+
+    @Test(expectedExceptions = RejectedExecutionException.class)
+    @SneakyThrows
+    public void reject() {
+        AdmissionController controller = new AdmissionController(new AdmissionControl(2,
+                                                                                       AdmissionControl.Policy.REJECT));
+        controller.admit(NORMAL);
+        controller.admit(NORMAL);
+        assertEquals(controller.getPending(), 2);
+        try {
+            controller.admit(NORMAL);
+        } finally {
+            assertEquals(controller.getRejected(), 1);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void release() {
+        AdmissionController controller = new AdmissionController(new AdmissionControl(1,
+                                                                                       AdmissionControl.Policy.REJECT));
+        controller.admit(NORMAL);
+        controller.release();
+        controller.admit(NORMAL);
+        assertEquals(controller.getPending(), 1);
+    }
+
+    @Test
+    @SneakyThrows
+    public void shed() {
+        AdmissionController controller = new AdmissionController(new AdmissionControl(10,
+                                                                                       AdmissionControl.Policy.SHED));
+        for (int i = 0; i < 5; i++) {
+            controller.admit(new LowPriorityCommand(null));
+        }
+        try {
+            controller.admit(new LowPriorityCommand(null));
+            fail("low priority command should have been shed");
+        } catch (RejectedExecutionException e) {
+        }
+        for (int i = 0; i < 3; i++) {
+            controller.admit(NORMAL);
+        }
+        try {
+            controller.admit(NORMAL);
+            fail("normal priority command should have been shed");
+        } catch (RejectedExecutionException e) {
+        }
+        controller.admit(new HighPriorityCommand(null));
+        controller.admit(new HighPriorityCommand(null));
+        assertEquals(controller.getPending(), 10);
+        assertEquals(controller.getRejected(), 2);
+    }
+
+    @Test
+    @SneakyThrows
+    public void block() {
+        AdmissionController controller = new AdmissionController(new AdmissionControl(1,
+                                                                                       AdmissionControl.Policy.BLOCK));
+        controller.admit(NORMAL);
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                controller.admit(NORMAL);
+                admitted.countDown();
+            } catch (InterruptedException e) {
+            }
+        });
+        thread.start();
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+        controller.release();
+        assertTrue(admitted.await(10, TimeUnit.SECONDS));
+        assertTrue(controller.getMaxWaitTime() > 0);
+    }
+
+}
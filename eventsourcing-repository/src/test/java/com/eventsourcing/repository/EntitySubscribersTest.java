@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Entity;
+import com.eventsourcing.EntitySubscriber;
+import com.eventsourcing.StandardEvent;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class EntitySubscribersTest {
+
+    @Test
+    public void routing() {
+        EntitySubscriber<Entity> all = new EntitySubscriber<Entity>() {};
+        ClassEntitySubscriber<RepositoryTest.TestEvent> testEvents =
+                new ClassEntitySubscriber<>(RepositoryTest.TestEvent.class);
+        ClassEntitySubscriber<StandardEvent> events = new ClassEntitySubscriber<>(StandardEvent.class);
+        EntitySubscribers subscribers = EntitySubscribers.EMPTY.with(all).with(testEvents).with(events);
+
+        assertEquals(subscribers.route(RepositoryTest.TestEvent.class), Arrays.asList(all, testEvents, events));
+        assertEquals(subscribers.route(JournalTest.TestEvent.class), Arrays.asList(all, events));
+        assertEquals(subscribers.route(RepositoryTest.RepositoryTestCommand.class), Collections.singletonList(all));
+
+        subscribers = subscribers.without(all);
+        assertTrue(subscribers.route(RepositoryTest.RepositoryTestCommand.class).isEmpty());
+        assertEquals(subscribers.size(), 2);
+    }
+
+}
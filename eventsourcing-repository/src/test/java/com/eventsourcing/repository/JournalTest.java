@@ -13,6 +13,8 @@ import com.eventsourcing.hlc.HybridTimestamp;
 import com.eventsourcing.hlc.NTPServerTimeProvider;
 import com.eventsourcing.index.IndexEngine;
 import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.layout.Immutable;
+import com.google.common.collect.Lists;
 import com.googlecode.cqengine.index.support.CloseableIterator;
 import lombok.Builder;
 import lombok.EqualsAndHashCode;
@@ -24,12 +26,16 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 public abstract class JournalTest<T extends Journal> {
@@ -84,6 +90,18 @@ public abstract class JournalTest<T extends Journal> {
         }
     }
 
+    @Immutable
+    public static class ImmutableTestEvent extends StandardEvent {
+        @Getter
+        private final String string;
+
+        @Builder
+        public ImmutableTestEvent(HybridTimestamp timestamp, String string) {
+            super(timestamp);
+            this.string = string == null ? "" : string;
+        }
+    }
+
     @EqualsAndHashCode(callSuper = false)
     public static class TestCommand extends StandardCommand<Void, Void> {
         @Getter
@@ -146,6 +164,59 @@ public abstract class JournalTest<T extends Journal> {
         assertEquals(command.event.uuid(), eventEntity.get().uuid());
     }
 
+    @Test
+    @SneakyThrows
+    public void journallingImmutable() {
+        HybridTimestamp timestamp = new HybridTimestamp(timeProvider);
+        timestamp.update();
+        ImmutableTestEvent event = ImmutableTestEvent.builder().string("test").timestamp(timestamp).build();
+        TestEvent mutableEvent = TestEvent.builder().timestamp(timestamp).build();
+        Journal.Transaction tx = journal.beginTransaction();
+        // immutable entities are not copied
+        assertSame(journal.journal(tx, event), event);
+        assertNotSame(journal.journal(tx, mutableEvent), mutableEvent);
+        tx.commit();
+
+        Optional<ImmutableTestEvent> journalled = journal.get(event.uuid());
+        assertTrue(journalled.isPresent());
+        assertEquals(journalled.get().getString(), "test");
+    }
+
+    @Test
+    @SneakyThrows
+    public void compactCausality() {
+        if (!journal.isCompactCausalitySupported()) {
+            return;
+        }
+        HybridTimestamp timestamp = new HybridTimestamp(timeProvider);
+        timestamp.update();
+        TestCommand command = TestCommand.builder().events(true).build();
+        command.timestamp(timestamp);
+        command.event.timestamp(timestamp);
+        TestEvent anotherEvent = TestEvent.builder().timestamp(timestamp).build();
+        Journal.Transaction tx = journal.beginTransaction();
+        journal.journal(tx, command);
+        journal.journal(tx, command.event, command.uuid());
+        journal.journal(tx, anotherEvent, command.uuid());
+
+        assertFalse(journal.getCausingCommand(command.event.uuid()).isPresent());
+
+        tx.commit();
+
+        assertTrue(journal.get(command.event.uuid()).isPresent());
+        assertEquals(journal.getCausingCommand(command.event.uuid()).get(), command.uuid());
+        assertEquals(journal.getCausingCommand(anotherEvent.uuid()).get(), command.uuid());
+        assertFalse(journal.getCausingCommand(command.uuid()).isPresent());
+
+        CloseableIterator<UUID> iterator = journal.getCausedEvents(command.uuid());
+        List<UUID> events = Lists.newArrayList(iterator);
+        iterator.close();
+        assertEquals(events.size(), 2);
+        assertTrue(events.containsAll(Arrays.asList(command.event.uuid(), anotherEvent.uuid())));
+
+        assertFalse(journal.getCausedEvents(command.event.uuid()).hasNext());
+    }
+
     @Test
     @SneakyThrows
     public void journalIterating() {
@@ -186,4 +257,119 @@ public abstract class JournalTest<T extends Journal> {
         assertTrue(iteratedEvents.containsAll(Arrays.asList(command1.event.uuid(), command2.event.uuid())));
     }
 
-}
\ No newline at end of file
+    @Test
+    @SneakyThrows
+    public void sizes() {
+        assertEquals(journal.size(TestCommand.class), 0);
+        assertTrue(journal.isEmpty(TestCommand.class));
+
+        TestCommand command1 = TestCommand.builder().events(true).build();
+        TestCommand command2 = TestCommand.builder().events(true).build();
+
+        Journal.Transaction tx = journal.beginTransaction();
+        journal.journal(tx, command1);
+        journal.journal(tx, command1.event);
+        tx.rollback();
+
+        assertEquals(journal.size(TestCommand.class), 0);
+        assertTrue(journal.isEmpty(TestEvent.class));
+
+        tx = journal.beginTransaction();
+        journal.journal(tx, command1);
+        journal.journal(tx, command1.event);
+        journal.journal(tx, command2);
+        assertEquals(journal.size(TestCommand.class), 0);
+        tx.commit();
+
+        assertEquals(journal.size(TestCommand.class), 2);
+        assertEquals(journal.size(TestEvent.class), 1);
+        assertFalse(journal.isEmpty(TestEvent.class));
+        assertTrue(journal.isEmpty(AnotherTestEvent.class));
+
+        journal.clear();
+
+        assertEquals(journal.size(TestCommand.class), 0);
+        assertTrue(journal.isEmpty(TestEvent.class));
+    }
+
+    @Test
+    @SneakyThrows
+    public void tailing() {
+        TestCommand command1 = TestCommand.builder().events(true).build();
+        TestCommand command2 = TestCommand.builder().events(true).build();
+
+        Journal.Transaction tx = journal.beginTransaction();
+        journal.journal(tx, command1);
+        journal.journal(tx, command1.event);
+        tx.commit();
+
+        tx = journal.beginTransaction();
+        journal.journal(tx, command2);
+        tx.commit();
+
+        List<UUID> uuids = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        try (Journal.Cursor cursor = journal.tail(0)) {
+            while (cursor.hasNext()) {
+                uuids.add(cursor.next().uuid());
+                positions.add(cursor.getPosition());
+            }
+        }
+        assertEquals(uuids, Arrays.asList(command1.uuid(), command1.event.uuid(), command2.uuid()));
+        assertTrue(positions.get(0) > 0);
+        assertTrue(positions.get(1) > positions.get(0));
+        assertTrue(positions.get(2) > positions.get(1));
+
+        try (Journal.Cursor cursor = journal.tail(positions.get(1))) {
+            assertEquals(cursor.next().get().uuid(), command2.uuid());
+            assertFalse(cursor.hasNext());
+        }
+
+        try (Journal.Cursor cursor = journal.tail(positions.get(2), true)) {
+            CompletableFuture<UUID> next = CompletableFuture.supplyAsync(() -> cursor.next().uuid());
+            TestCommand command3 = TestCommand.builder().build();
+            tx = journal.beginTransaction();
+            journal.journal(tx, command3);
+            tx.commit();
+            assertEquals(next.get(10, TimeUnit.SECONDS), command3.uuid());
+            assertTrue(cursor.getPosition() > positions.get(2));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void timestampRanges() {
+        TestEvent event1 = TestEvent.builder().timestamp(new HybridTimestamp(1, 0)).build();
+        TestEvent event2 = TestEvent.builder().timestamp(new HybridTimestamp(1, 1)).build();
+        // logical time is compared as an unsigned value
+        TestEvent event3 = TestEvent.builder().timestamp(new HybridTimestamp(-1, 0)).build();
+        AnotherTestEvent anotherEvent = AnotherTestEvent.builder().timestamp(new HybridTimestamp(1, 0)).build();
+
+        Journal.Transaction tx = journal.beginTransaction();
+        journal.journal(tx, event3);
+        journal.journal(tx, event2);
+        journal.journal(tx, event1);
+        journal.journal(tx, anotherEvent);
+        tx.commit();
+
+        assertTimestampRange(null, null, event1, event2, event3);
+        assertTimestampRange(new HybridTimestamp(1, 1), null, event2, event3);
+        assertTimestampRange(null, new HybridTimestamp(1, 1), event1, event2);
+        assertTimestampRange(new HybridTimestamp(1, 0), new HybridTimestamp(1, 0), event1);
+        assertTimestampRange(new HybridTimestamp(2, 0), new HybridTimestamp(1, 0));
+    }
+
+    private void assertTimestampRange(HybridTimestamp from, HybridTimestamp to, TestEvent... expected) {
+        List<UUID> uuids = new ArrayList<>();
+        try (CloseableIterator<EntityHandle<TestEvent>> iterator = journal.eventIterator(TestEvent.class, from, to)) {
+            iterator.forEachRemaining(handle -> uuids.add(handle.uuid()));
+        }
+        List<UUID> expectedUUIDs = Arrays.stream(expected).map(Entity::uuid).collect(Collectors.toList());
+        if (journal.isTimestampOrderSupported()) {
+            assertEquals(uuids, expectedUUIDs);
+        } else {
+            assertEquals(new HashSet<>(uuids), new HashSet<>(expectedUUIDs));
+        }
+    }
+
+}
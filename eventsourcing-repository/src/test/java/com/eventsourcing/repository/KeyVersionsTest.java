@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.SneakyThrows;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.testng.Assert.*;
+
+public class KeyVersionsTest {
+
+    private static Map<Object, Long> read(KeyVersions versions, Object... keys) {
+        Map<Object, Long> read = new HashMap<>();
+        for (Object key : keys) {
+            read.put(key, versions.read(key));
+        }
+        return read;
+    }
+
+    @Test
+    public void conflict() {
+        KeyVersions versions = new KeyVersions();
+        Map<Object, Long> first = read(versions, "a", "b");
+        Map<Object, Long> second = read(versions, "b");
+        Map<Object, Long> third = read(versions, "c");
+
+        assertTrue(versions.validate(first));
+        // "b" is in flight
+        assertFalse(versions.validate(second));
+        versions.complete(first.keySet());
+        // "b" has changed
+        assertFalse(versions.validate(second));
+        // "c" is unrelated
+        assertTrue(versions.validate(third));
+        versions.complete(third.keySet());
+
+        assertTrue(versions.validate(read(versions, "b")));
+    }
+
+    @Test(timeOut = 10000)
+    @SneakyThrows
+    public void readWaitsForCompletion() {
+        KeyVersions versions = new KeyVersions();
+        Map<Object, Long> first = read(versions, "a");
+        assertTrue(versions.validate(first));
+        CompletableFuture<Long> reading = CompletableFuture.supplyAsync(() -> versions.read("a"));
+        try {
+            reading.get(100, TimeUnit.MILLISECONDS);
+            fail("key in flight was read");
+        } catch (TimeoutException e) {
+        }
+        versions.complete(first.keySet());
+        assertNotEquals(reading.get(), first.get("a"));
+    }
+
+    @Test(timeOut = 10000)
+    @SneakyThrows
+    public void held() {
+        KeyVersions versions = new KeyVersions();
+        Map<Object, Long> before = read(versions, "a");
+        versions.hold("a");
+        // read before the key was held
+        assertFalse(versions.validate(before));
+        CompletableFuture<Long> reading = CompletableFuture.supplyAsync(() -> versions.read("a"));
+        CompletableFuture<Void> holding = CompletableFuture.runAsync(() -> versions.hold("a"));
+        try {
+            reading.get(100, TimeUnit.MILLISECONDS);
+            fail("held key was read");
+        } catch (TimeoutException e) {
+        }
+        assertFalse(holding.isDone());
+        versions.complete(Collections.singleton("a"));
+        // the key can be held again once it is completed
+        holding.get();
+        versions.complete(Collections.singleton("a"));
+        assertNotEquals(reading.get(), before.get("a"));
+        assertTrue(versions.validate(read(versions, "a")));
+    }
+
+    @Test
+    public void forgetting() {
+        KeyVersions versions = new KeyVersions();
+        Map<Object, Long> read = read(versions, "key");
+        Map<Object, Long> change = read(versions, "key");
+        assertTrue(versions.validate(change));
+        versions.complete(change.keySet());
+        for (int i = 0; i <= KeyVersions.MAX_KEYS; i++) {
+            Map<Object, Long> other = read(versions, i);
+            assertTrue(versions.validate(other));
+            versions.complete(other.keySet());
+        }
+        // the version of the key was forgotten, but the change is still detected
+        assertFalse(versions.validate(read));
+        assertTrue(versions.validate(read(versions, "key")));
+        versions.complete(Collections.singleton("key"));
+    }
+}
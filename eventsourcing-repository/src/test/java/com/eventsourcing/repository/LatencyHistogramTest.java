@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets() {
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.highestValue(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+        }
+        assertEquals(LatencyHistogram.highestValue(LatencyHistogram.bucket(Long.MAX_VALUE)), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.getPercentile(50), 0);
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(histogram.getCount(), 1000);
+        assertEquals(histogram.getMean(), 500_500);
+        assertWithin(histogram.getPercentile(50), 500_000);
+        assertWithin(histogram.getPercentile(99), 990_000);
+        assertWithin(histogram.getPercentile(99.9), 999_000);
+        assertWithin(histogram.getMax(), 1_000_000);
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, actual + " is not within 12.5% of " + expected);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.SneakyThrows;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PartitionedExecutorTest {
+
+    @Test
+    @SneakyThrows
+    public void ordering() {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        PartitionedExecutor executor = new PartitionedExecutor(executorService);
+        List<Integer> a = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> b = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2000);
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            executor.execute("a", () -> { a.add(n); latch.countDown(); });
+            executor.execute("b", () -> { b.add(n); latch.countDown(); });
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals((int) a.get(i), i);
+            assertEquals((int) b.get(i), i);
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    @SneakyThrows
+    public void concurrency() {
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        PartitionedExecutor executor = new PartitionedExecutor(executorService);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        // a blocked lane shouldn't prevent another lane from making progress
+        executor.execute("a", () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        executor.execute("b", done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        blocked.countDown();
+        executorService.shutdown();
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(executor.getLaneCount(), 0);
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import lombok.SneakyThrows;
+import org.testng.annotations.Test;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class PipelineStageTest {
+
+    @Test
+    @SneakyThrows
+    public void backpressure() {
+        PipelineStage stage = new PipelineStage("test", 1, 2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        stage.submit(() -> {
+            started.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        stage.submit(() -> {});
+        stage.submit(() -> {});
+        assertEquals(stage.getQueued(), 2);
+
+        // the queue is full, so the next submission waits
+        CountDownLatch submitted = new CountDownLatch(1);
+        new Thread(() -> {
+            stage.submit(() -> {});
+            submitted.countDown();
+        }).start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+        blocked.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        stage.shutdown();
+        assertEquals(stage.getCompleted(), 4);
+        assertEquals(stage.getQueued(), 0);
+    }
+
+    @Test
+    public void tabularData() {
+        PipelineStage stage = new PipelineStage("test", 2, 8);
+        stage.submit(() -> {});
+        stage.shutdown();
+        TabularData data = PipelineStage.toTabularData(Collections.singletonList(stage));
+        CompositeData row = data.get(new Object[]{"test"});
+        assertEquals(row.get("threads"), 2);
+        assertEquals(row.get("capacity"), 8);
+        assertEquals(row.get("completed"), 1L);
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.repository;
+
+import com.eventsourcing.Priority;
+import lombok.SneakyThrows;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PriorityExecutorTest {
+
+    @Test
+    @SneakyThrows
+    public void laneConcurrency() {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        PriorityExecutor executor = new PriorityExecutor(executorService, PriorityScheduling.withConcurrency(4));
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch low = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(Priority.Level.LOW, () -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                }
+                low.countDown();
+            });
+        }
+        assertEquals(executor.getRunning(Priority.Level.LOW), 1);
+        assertEquals(executor.getQueued(Priority.Level.LOW), 2);
+        // blocked low priority tasks don't prevent high priority tasks from being executed
+        CountDownLatch high = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(Priority.Level.HIGH, high::countDown);
+        }
+        assertTrue(high.await(10, TimeUnit.SECONDS));
+        blocked.countDown();
+        assertTrue(low.await(10, TimeUnit.SECONDS));
+        executorService.shutdown();
+    }
+
+    @Test
+    @SneakyThrows
+    public void weightedSharing() {
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        PriorityExecutor executor = new PriorityExecutor(executorService, PriorityScheduling.withConcurrency(1));
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(Priority.Level.NORMAL, () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+            }
+        });
+        List<Priority.Level> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(200);
+        for (int i = 0; i < 100; i++) {
+            executor.execute(Priority.Level.LOW, () -> { order.add(Priority.Level.LOW); done.countDown(); });
+            executor.execute(Priority.Level.HIGH, () -> { order.add(Priority.Level.HIGH); done.countDown(); });
+        }
+        blocked.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // 4:1 weights
+        assertEquals(order.subList(0, 50).stream().filter(level -> level == Priority.Level.HIGH).count(), 40);
+        executorService.shutdown();
+    }
+
+}
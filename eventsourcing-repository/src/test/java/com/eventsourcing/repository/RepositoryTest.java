@@ -37,9 +37,11 @@ import org.testng.annotations.Test;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static com.eventsourcing.index.EntityQueryFactory.*;
@@ -55,6 +57,8 @@ public abstract class RepositoryTest<T extends Repository> {
     private NTPServerTimeProvider timeProvider;
     private TimeStamp startTime;
 
+    private static final int STREAMING_BUDGET = 10;
+
     public RepositoryTest(T repository) {
         this.repository = repository;
     }
@@ -73,6 +77,9 @@ public abstract class RepositoryTest<T extends Repository> {
         repository.setIndexEngine(indexEngine);
         lockProvider = new LocalLockProvider();
         repository.setLockProvider(lockProvider);
+        if (repository instanceof StandardRepository) {
+            ((StandardRepository) repository).setStreamingBudget(STREAMING_BUDGET);
+        }
         repository.startAsync().awaitRunning();
 
         long size = journal.size(EntityLayoutIntroduced.class);
@@ -110,6 +117,9 @@ public abstract class RepositoryTest<T extends Repository> {
         @Index
         public static MultiValueIndex<TestEvent, String> ATTRS = TestEvent::strings;
 
+        @Index({EQ, LT, GT})
+        public static SimpleIndex<TestEvent, HybridTimestamp> TIMESTAMP = SimpleIndex.timestamp();
+
         public List<String> strings() {
             return Arrays.asList(string);
         }
@@ -183,6 +193,65 @@ public abstract class RepositoryTest<T extends Repository> {
         assertEquals("hello, world", repository.publish(RepositoryTestCommand.builder().build()).get());
     }
 
+    @Test
+    @SneakyThrows
+    public void concurrentPublish() {
+        IndexedCollection<EntityHandle<RepositoryTestCommand>> coll = indexEngine
+                .getIndexedCollection(RepositoryTestCommand.class);
+        coll.clear();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(repository.publish(RepositoryTestCommand.builder().value("concurrent" + i).build()));
+        }
+        for (CompletableFuture<String> future : futures) {
+            assertEquals(future.get(), "hello, world");
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(coll.retrieve(equal(RepositoryTestCommand.ATTR, "concurrent" + i)).isNotEmpty());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void publishAll() {
+        IndexedCollection<EntityHandle<RepositoryTestCommand>> coll = indexEngine
+                .getIndexedCollection(RepositoryTestCommand.class);
+        coll.clear();
+        List<Command<?, ?>> commands = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            commands.add(RepositoryTestCommand.builder().value("batch" + i).build());
+        }
+        ExceptionalCommand exceptionalCommand = ExceptionalCommand.builder().build();
+        commands.add(25, exceptionalCommand);
+        List<CompletableFuture<?>> futures = repository.publishAll(commands);
+        assertEquals(futures.size(), 51);
+        for (int i = 0; i < 51; i++) {
+            if (i == 25) {
+                assertTrue(futures.get(i).handle((result, throwable) -> throwable).get()
+                                   instanceof IllegalStateException);
+            } else {
+                assertEquals(futures.get(i).get(), "hello, world");
+            }
+        }
+        assertTrue(exceptionalCommand.hasTerminatedExceptionally(repository));
+        for (int i = 0; i < 50; i++) {
+            assertTrue(coll.retrieve(equal(RepositoryTestCommand.ATTR, "batch" + i)).isNotEmpty());
+        }
+    }
+
+    @Test(timeOut = 10000)
+    @SneakyThrows
+    public void publishAllLocking() {
+        List<CompletableFuture<?>> futures = repository.publishAll(Arrays.asList(LockCommand.builder().build(),
+                                                                                 LockCommand.builder().build()));
+        for (CompletableFuture<?> future : futures) {
+            future.get();
+        }
+        Lock lock = lockProvider.lock("LOCK");
+        assertTrue(lock.isLocked());
+        lock.unlock();
+    }
+
     @Test
     @SneakyThrows
     public void subscribe() {
@@ -203,6 +272,90 @@ public abstract class RepositoryTest<T extends Repository> {
         assertTrue(gotCommand.get());
     }
 
+    @Test
+    @SneakyThrows
+    public void asynchronousSubscribe() {
+        List<String> received = new ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
+        AsynchronousEntitySubscriber<TestEvent> subscriber = new AsynchronousEntitySubscriber<>(
+                new ClassEntitySubscriber<TestEvent>(TestEvent.class) {
+                    @Override public void onEntity(EntityHandle<TestEvent> entity) {
+                        received.add(entity.get().string());
+                    }
+                }, tasks::add, 1, AsynchronousEntitySubscriber.OverflowPolicy.SPILL, 1024);
+        repository.addEntitySubscriber(subscriber);
+        try {
+            for (int i = 0; i < 3; i++) {
+                repository.publish(RepositoryTestCommand.builder().value("async" + i).build()).get();
+            }
+            assertTrue(received.isEmpty());
+            assertEquals(subscriber.getLag(), 3);
+            assertEquals(subscriber.getSpilled(), 2);
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+            assertEquals(received, Arrays.asList("async0", "async1", "async2"));
+            assertEquals(subscriber.getLag(), 0);
+            assertEquals(subscriber.getDelivered(), 3);
+        } finally {
+            repository.removeEntitySubscriber(subscriber);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void asynchronousSubscribeSpillCapacity() {
+        List<String> received = new ArrayList<>();
+        List<Runnable> tasks = new ArrayList<>();
+        AsynchronousEntitySubscriber<TestEvent> subscriber = new AsynchronousEntitySubscriber<>(
+                new ClassEntitySubscriber<TestEvent>(TestEvent.class) {
+                    @Override public void onEntity(EntityHandle<TestEvent> entity) {
+                        received.add(entity.get().string());
+                    }
+                }, tasks::add, 1, AsynchronousEntitySubscriber.OverflowPolicy.SPILL, 1024, 1);
+        repository.addEntitySubscriber(subscriber);
+        try {
+            for (int i = 0; i < 3; i++) {
+                repository.publish(RepositoryTestCommand.builder().value("spill" + i).build()).get();
+            }
+            assertEquals(subscriber.getSpilled(), 1);
+            assertEquals(subscriber.getDropped(), 1);
+            assertEquals(subscriber.getLag(), 2);
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+            assertEquals(received, Arrays.asList("spill0", "spill1"));
+            assertEquals(subscriber.getLag(), 0);
+        } finally {
+            repository.removeEntitySubscriber(subscriber);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void asynchronousSubscriberClose() {
+        List<String> received = new CopyOnWriteArrayList<>();
+        AsynchronousEntitySubscriber<TestEvent> subscriber = new AsynchronousEntitySubscriber<>(
+                new ClassEntitySubscriber<TestEvent>(TestEvent.class) {
+                    @Override public void onEntity(EntityHandle<TestEvent> entity) {
+                        received.add(entity.get().string());
+                    }
+                }, 16, AsynchronousEntitySubscriber.OverflowPolicy.BLOCK);
+        repository.addEntitySubscriber(subscriber);
+        try {
+            repository.publish(RepositoryTestCommand.builder().value("open").build()).get();
+            subscriber.close();
+            repository.publish(RepositoryTestCommand.builder().value("closed").build()).get();
+            while (subscriber.getLag() > 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(received, Collections.singletonList("open"));
+            assertEquals(subscriber.getDropped(), 1);
+        } finally {
+            repository.removeEntitySubscriber(subscriber);
+        }
+    }
+
     @Test
     @SneakyThrows
     public void timestamping() {
@@ -324,6 +477,36 @@ public abstract class RepositoryTest<T extends Repository> {
 
     }
 
+    @Test
+    @SneakyThrows
+    public void timestampIndexing() {
+        IndexedCollection<EntityHandle<TestEvent>> coll = indexEngine.getIndexedCollection(TestEvent.class);
+        coll.clear();
+
+        repository.publish(RepositoryTestCommand.builder().value("first").build()).get();
+        repository.publish(RepositoryTestCommand.builder().value("second").build()).get();
+        HybridTimestamp first = coll.retrieve(equal(TestEvent.ATTR, "first")).uniqueResult().get().timestamp();
+        HybridTimestamp second = coll.retrieve(equal(TestEvent.ATTR, "second")).uniqueResult().get().timestamp();
+
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = coll.retrieve(equal(TestEvent.TIMESTAMP, second))) {
+            assertEquals(resultSet.uniqueResult().get().string(), "second");
+        }
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = coll.retrieve(greaterThan(TestEvent.TIMESTAMP, first))) {
+            assertEquals(resultSet.uniqueResult().get().string(), "second");
+        }
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = coll.retrieve(lessThan(TestEvent.TIMESTAMP, second))) {
+            assertEquals(resultSet.uniqueResult().get().string(), "first");
+        }
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = coll
+                .retrieve(greaterThanOrEqualTo(TestEvent.TIMESTAMP, first))) {
+            assertEquals(resultSet.size(), 2);
+        }
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = coll
+                .retrieve(between(TestEvent.TIMESTAMP, first, true, second, false))) {
+            assertEquals(resultSet.uniqueResult().get().string(), "first");
+        }
+    }
+
     @Accessors(fluent = true) @ToString
     public static class TestEventWithQueryOptions extends StandardEvent {
         @Getter
@@ -559,6 +742,87 @@ public abstract class RepositoryTest<T extends Repository> {
     }
 
 
+    @Streaming
+    public static class StreamingCommand extends StandardCommand<Void, Integer> {
+        @Getter
+        private final String value;
+        @Getter
+        private final int count;
+        @Getter
+        private final boolean failing;
+
+        @Builder
+        public StreamingCommand(HybridTimestamp timestamp, String value, int count, boolean failing) {
+            super(timestamp);
+            this.value = value;
+            this.count = count;
+            this.failing = failing;
+        }
+
+        private int indexedWhileStreaming;
+
+        @Override
+        public EventStream<Void> events(Repository repository, LockProvider lockProvider) {
+            return EventStream.of(IntStream.rangeClosed(1, count).mapToObj(i -> {
+                if (i == count) {
+                    try (ResultSet<EntityHandle<TestEvent>> resultSet = repository
+                            .query(TestEvent.class, equal(TestEvent.ATTR, value))) {
+                        indexedWhileStreaming = resultSet.size();
+                    }
+                    if (failing) {
+                        throw new IllegalStateException();
+                    }
+                }
+                return TestEvent.builder().string(value).build();
+            }));
+        }
+
+        @Override public Integer result() {
+            return indexedWhileStreaming;
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void streamingCommand() {
+        StreamingCommand command = StreamingCommand.builder().value("streaming").count(100).build();
+        int indexedWhileStreaming = repository.publish(command).get();
+        // earlier chunks were indexed before the command was completed
+        assertTrue(indexedWhileStreaming > 0);
+        assertTrue(indexedWhileStreaming < 100);
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = repository
+                .query(TestEvent.class, equal(TestEvent.ATTR, "streaming"))) {
+            assertEquals(resultSet.size(), 100);
+        }
+        try (ResultSet<EntityHandle<EventCausalityEstablished>> resultSet = repository
+                .query(EventCausalityEstablished.class, equal(EventCausalityEstablished.COMMAND, command.uuid()))) {
+            assertEquals(resultSet.size(), 100);
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    public void streamingCommandFailure() {
+        StreamingCommand command = StreamingCommand.builder().value("streamingFailure").count(100).failing(true)
+                                                   .build();
+        CompletableFuture<Integer> future = repository.publish(command);
+        while (!future.isDone()) { Thread.sleep(10); } // to avoid throwing an exception
+        assertTrue(future.isCompletedExceptionally());
+        // committed chunks remain
+        try (ResultSet<EntityHandle<TestEvent>> resultSet = repository
+                .query(TestEvent.class, equal(TestEvent.ATTR, "streamingFailure"))) {
+            assertTrue(resultSet.size() > 0);
+            assertTrue(resultSet.size() < 100);
+        }
+        try (ResultSet<EntityHandle<EventCausalityEstablished>> resultSet = repository
+                .query(EventCausalityEstablished.class, equal(EventCausalityEstablished.COMMAND, command.uuid()))) {
+            // committed events and the exceptional termination
+            assertTrue(resultSet.size() > 3);
+        }
+        assertTrue(journal.get(command.uuid()).isPresent());
+    }
+
+
     public static class StatePassageCommand extends StandardCommand<String, String> {
 
         @Builder
@@ -673,6 +937,18 @@ public abstract class RepositoryTest<T extends Repository> {
         }
     }
 
+    @Test @SneakyThrows
+    public void causalRelationshipByEvent() {
+        RepositoryTestCommand command = RepositoryTestCommand.builder().value("causality").build();
+        repository.publish(command).get();
+        TestEvent event = repository.query(TestEvent.class, equal(TestEvent.ATTR, "causality")).uniqueResult().get();
+        try (ResultSet<EntityHandle<EventCausalityEstablished>> resultSet = repository
+                .query(EventCausalityEstablished.class, equal(EventCausalityEstablished.EVENT, event.uuid()))) {
+            assertEquals(resultSet.size(), 1);
+            assertEquals(resultSet.uniqueResult().get().command(), command.uuid());
+        }
+    }
+
     public static class LongRunningCommandEvents extends StandardCommand<Void, Void> {
         final CompletableFuture<Void> future = new CompletableFuture<>();
 
@@ -725,4 +1001,117 @@ public abstract class RepositoryTest<T extends Repository> {
         cmd1.future.complete(null);
     }
 
-}
\ No newline at end of file
+    public static class LockedIncrementCommand extends StandardCommand<Void, Void> {
+
+        @Builder
+        public LockedIncrementCommand(HybridTimestamp timestamp) {
+            super(timestamp);
+        }
+
+        @Override
+        public EventStream<Void> events(Repository repository, LockProvider lockProvider) {
+            lockProvider.lock("COUNTER");
+            int value;
+            try (ResultSet<EntityHandle<TestEvent>> resultSet = repository
+                    .query(TestEvent.class, startsWith(TestEvent.ATTR, "counter-"))) {
+                value = resultSet.size();
+            }
+            return EventStream.of(TestEvent.builder().string("counter-" + value).build());
+        }
+    }
+
+    @Test(timeOut = 20000)
+    @SneakyThrows
+    public void lockedIncrements() {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(repository.publish(LockedIncrementCommand.builder().build()));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get();
+        }
+        // every command has seen increments of the commands that were completed before it
+        for (int i = 0; i < 20; i++) {
+            try (ResultSet<EntityHandle<TestEvent>> resultSet = repository
+                    .query(TestEvent.class, equal(TestEvent.ATTR, "counter-" + i))) {
+                assertEquals(resultSet.size(), 1);
+            }
+        }
+    }
+
+    private static final int MIXED_EVENTS = 25;
+
+    /**
+     * Locks "MIXED" and generates its events once {@link #gate} is completed
+     */
+    public static class MixedLockingCommand extends StandardCommand<Void, Void> {
+        final CompletableFuture<Void> locked = new CompletableFuture<>();
+        final CompletableFuture<Void> gate = new CompletableFuture<>();
+
+        @Override
+        public EventStream<Void> events(Repository repository, LockProvider lockProvider) {
+            lockProvider.lock("MIXED");
+            locked.complete(null);
+            gate.join();
+            return EventStream.of(IntStream.range(0, MIXED_EVENTS)
+                                           .mapToObj(i -> TestEvent.builder().string("mixed").build()));
+        }
+    }
+
+    @Streaming
+    public static class MixedStreamingLockingCommand extends MixedLockingCommand {
+    }
+
+    /**
+     * Locks "MIXED" and returns the number of events generated by {@link MixedLockingCommand}
+     */
+    public static class MixedReadingCommand extends StandardCommand<Integer, Integer> {
+        @Override
+        public EventStream<Integer> events(Repository repository, LockProvider lockProvider) {
+            lockProvider.lock("MIXED");
+            try (ResultSet<EntityHandle<TestEvent>> resultSet = repository
+                    .query(TestEvent.class, equal(TestEvent.ATTR, "mixed"))) {
+                return EventStream.ofWithState(resultSet.size(), TestEvent.builder().string("mixed-read").build());
+            }
+        }
+
+        @Override
+        public Integer result(Integer state) {
+            return state;
+        }
+    }
+
+    @Test(timeOut = 20000)
+    @SneakyThrows
+    public void streamingCommandLocks() {
+        MixedLockingCommand command = new MixedStreamingLockingCommand();
+        mixedLocking(command, repository.publish(command));
+    }
+
+    @Test(timeOut = 20000)
+    @SneakyThrows
+    public void batchLocks() {
+        MixedLockingCommand command = new MixedLockingCommand();
+        mixedLocking(command, repository.publishAll(Collections.singletonList(command)).get(0));
+    }
+
+    /**
+     * Checks that a command locking the same key as a (streaming or batched) command that holds it
+     * waits for it, even in optimistic mode
+     */
+    @SneakyThrows
+    private void mixedLocking(MixedLockingCommand command, CompletableFuture<?> future) {
+        CompletableFuture<Integer> reading;
+        try {
+            command.locked.get();
+            reading = repository.publish(new MixedReadingCommand());
+            Thread.sleep(100);
+            assertFalse(reading.isDone());
+        } finally {
+            command.gate.complete(null);
+        }
+        future.get();
+        assertEquals((int) reading.get(), MIXED_EVENTS);
+    }
+
+}
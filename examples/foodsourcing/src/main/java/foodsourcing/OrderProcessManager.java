@@ -22,6 +22,8 @@ import org.kie.api.runtime.KieContainer;
 import org.kie.api.runtime.KieSession;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -43,6 +45,11 @@ public class OrderProcessManager implements EntitySubscriber<Entity> {
                 entity instanceof OrderConfirmed;
     }
 
+    @Override public Collection<Class<? extends Entity>> entityClasses() {
+        return Arrays.asList(OrderPlaced.class, RestaurantConfirmedOrder.class, PaymentCaptured.class,
+                             OrderConfirmed.class);
+    }
+
 
     @Synchronized("session")
     @Override public void onEntity(EntityHandle<Entity> entity) {
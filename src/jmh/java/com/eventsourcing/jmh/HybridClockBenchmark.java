@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.jmh;
+
+import com.eventsourcing.hlc.HybridClock;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.hlc.PhysicalTimeProvider;
+import com.google.common.util.concurrent.AbstractService;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares {@link HybridClock} with a synchronized {@link HybridTimestamp}.
+ * <p>
+ * Run with <code>-prof gc</code> to see allocation rates: {@link HybridClock} operations
+ * and {@link HybridTimestamp#compare(long, long)} don't allocate.
+ */
+@State(Scope.Benchmark)
+public class HybridClockBenchmark {
+
+    private HybridClock clock;
+    private HybridTimestamp timestamp;
+    private long time1;
+    private long time2;
+
+    @Setup
+    public void setup() {
+        SystemTimeProvider timeProvider = new SystemTimeProvider();
+        clock = new HybridClock(timeProvider);
+        timestamp = new HybridTimestamp(timeProvider);
+        time1 = timeProvider.getPhysicalTime();
+        time2 = time1 + 1;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long clockTick() {
+        return clock.tick();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long clockReserve() {
+        return clock.reserve(16);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long clockUpdate() {
+        return clock.update(time2);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long synchronizedTimestampUpdate() {
+        synchronized (timestamp) {
+            return timestamp.update();
+        }
+    }
+
+    @Benchmark
+    public int compare() {
+        return HybridTimestamp.compare(time1, time2);
+    }
+
+    /**
+     * Allocation-free system time provider
+     */
+    static class SystemTimeProvider extends AbstractService implements PhysicalTimeProvider {
+
+        // seconds between 1900-01-01 and 1970-01-01
+        private static final long NTP_OFFSET = 2208988800L;
+
+        @Override public long getPhysicalTime() {
+            long millis = System.currentTimeMillis();
+            long seconds = millis / 1000 + NTP_OFFSET;
+            long fraction = ((millis % 1000) << 32) / 1000;
+            return seconds << 32 | fraction;
+        }
+
+        @Override protected void doStart() {
+            notifyStarted();
+        }
+
+        @Override protected void doStop() {
+            notifyStopped();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.jmh;
+
+import com.eventsourcing.StandardEvent;
+import com.eventsourcing.hlc.HybridTimestamp;
+import com.eventsourcing.layout.Immutable;
+import lombok.Builder;
+
+@Immutable
+public class ImmutableTestEvent extends StandardEvent {
+    private final String string;
+
+    @Builder
+    public ImmutableTestEvent(HybridTimestamp timestamp, String string) {
+        super(timestamp);
+        this.string = string == null ? "" : string;
+    }
+
+    public String string() {
+        return this.string;
+    }
+
+}
@@ -74,5 +74,27 @@ public abstract class JournalBenchmark {
         tx.commit();
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.All)
+    public Event journalEvent() {
+        TestEvent event = TestEvent.builder().string("test").timestamp(timestamp).build();
+        Journal.Transaction tx = journal.beginTransaction();
+        Event journalled = journal.journal(tx, event);
+        tx.commit();
+        return journalled;
+    }
+
+    /**
+     * Same as {@link #journalEvent()}, but with an immutable layout (no copy is made)
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.All)
+    public Event journalImmutableEvent() {
+        ImmutableTestEvent event = ImmutableTestEvent.builder().string("test").timestamp(timestamp).build();
+        Journal.Transaction tx = journal.beginTransaction();
+        Event journalled = journal.journal(tx, event);
+        tx.commit();
+        return journalled;
+    }
 
 }
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2016, All Contributors (see CONTRIBUTORS file)
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ */
+package com.eventsourcing.jmh;
+
+import com.eventsourcing.LocalLockProvider;
+import com.eventsourcing.PackageCommandSetProvider;
+import com.eventsourcing.PackageEventSetProvider;
+import com.eventsourcing.Repository;
+import com.eventsourcing.index.MemoryIndexEngine;
+import com.eventsourcing.inmem.MemoryJournal;
+import com.eventsourcing.repository.StandardRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures allocations on the publishing hot path with {@link MemoryJournal} and {@link MemoryIndexEngine}.
+ * <p>
+ * Run with <code>-prof gc</code> (the <code>jmh</code> task does it by default): <code>gc.alloc.rate.norm</code>
+ * is the number of bytes allocated per publish. It should stay within {@link #ALLOCATION_BUDGET}
+ * (see CONTRIBUTING.md).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PublishAllocationBenchmark {
+
+    /**
+     * Allocation budget of a trivial publish (one command, one event), in bytes: about 7.3 KB
+     * measured on JDK 17.0.9 (see CONTRIBUTING.md), with about 25% headroom
+     */
+    public static final int ALLOCATION_BUDGET = 9 * 1024;
+
+    private Repository repository;
+
+    @Setup
+    public void setup() throws Exception {
+        repository = StandardRepository.builder()
+                                       .journal(new MemoryJournal())
+                                       .indexEngine(new MemoryIndexEngine())
+                                       .lockProvider(new LocalLockProvider())
+                                       // NTP time provider allocates on every reading
+                                       .physicalTimeProvider(new HybridClockBenchmark.SystemTimeProvider())
+                                       .build();
+        repository.addCommandSetProvider(
+                new PackageCommandSetProvider(new Package[]{PublishAllocationBenchmark.class.getPackage()}));
+        repository.addEventSetProvider(
+                new PackageEventSetProvider(new Package[]{PublishAllocationBenchmark.class.getPackage()}));
+        repository.startAsync().awaitRunning();
+    }
+
+    @TearDown
+    public void teardown() {
+        repository.stopAsync().awaitTerminated();
+    }
+
+    @Benchmark
+    public String publish() throws ExecutionException, InterruptedException {
+        return repository.publish(new TestCommand(null)).get();
+    }
+
+}